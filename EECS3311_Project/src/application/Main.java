@@ -14,6 +14,10 @@ public class Main {
 //		Test9.testReq9();
 //		Test10.testReq10();
 		TestStorage.testStorage();
+//		TestSQLStorage.testSQLStorage();
+//		TestConcurrentStorage.testConcurrentStorage();
+//		TestColdHistory.testColdHistory();
+//		TestConcurrentBookings.testConcurrentBookings();
 
 	}
 
@@ -0,0 +1,126 @@
+package application;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import accounts.model.StudentAccount;
+import accounts.model.UserAccount;
+import booking.model.Booking;
+import manager.BookingManager;
+import manager.room.Room;
+import pricing.money.Money;
+import storage.BulkDataTransfer;
+import storage.CSVStorageService;
+import storage.CSVToSQLMigrator;
+
+/**
+ * Checks that BookingManager.saveAllDataToStorage keeps bookings archived to cold storage.
+ * Archived bookings are never loaded into memory, so a save that cleared storage first
+ * would lose them; rows that are neither in memory nor archived must still be removed.
+ * Also checks that migrating and exporting a storage copy its archived bookings.
+ */
+public class TestColdHistory {
+
+    private static final long HOUR = 3_600_000L;
+    private static final long DAY = 24 * HOUR;
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        testColdHistory();
+    }
+
+    public static void testColdHistory() {
+        failures = 0;
+        String directory = "test-data/cold-history-" + System.currentTimeMillis();
+
+        CSVStorageService storage = new CSVStorageService(directory);
+        storage.setColdStorageAge(DAY);
+        UserAccount alice = new StudentAccount("alice@test.ca", "Password1!", "org", "1001");
+        Room room = new Room(1, "LAS", "1001", 20, "Enabled");
+        storage.saveUser(alice);
+        storage.saveRoom(room);
+
+        // CSV keeps times to the second, so start on a whole hour
+        long now = System.currentTimeMillis() / HOUR * HOUR;
+        Booking old = newBooking(1, now - 3 * DAY, alice, room);
+        Booking older = newBooking(2, now - 4 * DAY, alice, room);
+        old.cancel();
+        older.cancel();
+        Booking upcoming = newBooking(3, now + DAY, alice, room);
+        storage.saveAllBookings(List.of(old, older, upcoming));
+        check("finished bookings archived", storage.archiveColdBookings() == 2);
+        checkCopies(directory, storage);
+
+        BookingManager.resetInstance();
+        BookingManager manager = BookingManager.getInstance();
+        manager.setStorageService(storage);
+        check("archived bookings not loaded", manager.getAllBookings().size() == 1);
+
+        // Stored behind the manager's back, so the save must remove it
+        storage.saveBooking(newBooking(4, now + 2 * DAY, alice, room));
+
+        check("saveAllDataToStorage reports success", manager.saveAllDataToStorage());
+        checkStored("after saving", storage);
+        check("rows not held in memory removed", storage.findBookingById(4) == null);
+        storage.shutdown();
+
+        CSVStorageService reopened = new CSVStorageService(directory);
+        checkStored("after reopening", reopened);
+        reopened.shutdown();
+        BookingManager.resetInstance();
+
+        System.out.println(failures == 0 ? "All cold history checks passed." : failures + " cold history checks FAILED.");
+    }
+
+    private static void checkStored(String when, CSVStorageService storage) {
+        check("archived bookings kept " + when,
+                storage.findBookingById(1) != null && storage.findBookingById(2) != null);
+        check("cold segment kept " + when, storage.getColdStorageBytes() > 0);
+        check("current booking kept " + when, storage.findBookingById(3) != null);
+        long history;
+        try (Stream<Booking> bookings = storage.streamBookingHistory()) {
+            history = bookings.count();
+        }
+        check("history holds every booking " + when + " (" + history + ")", history == 3);
+    }
+
+    // Migrates and exports the archived storage, and checks both copies hold every booking.
+    private static void checkCopies(String directory, CSVStorageService storage) {
+        CSVStorageService migrated = new CSVStorageService(directory + "-migrated");
+        CSVToSQLMigrator.migrate(storage, migrated);
+        check("migration copies archived bookings",
+                migrated.findBookingById(1) != null && migrated.findBookingById(2) != null
+                        && migrated.loadAllBookings().size() == 3);
+        migrated.shutdown();
+
+        CSVStorageService imported = new CSVStorageService(directory + "-imported");
+        try {
+            new BulkDataTransfer(storage).exportTo(directory + "-export", BulkDataTransfer.Format.JSON_LINES);
+            new BulkDataTransfer(imported).importFrom(directory + "-export", BulkDataTransfer.Format.JSON_LINES);
+        } catch (IOException e) {
+            throw new IllegalStateException("Export of archived storage failed", e);
+        } finally {
+            imported.shutdown();
+        }
+        CSVStorageService reloaded = new CSVStorageService(directory + "-imported");
+        check("export copies archived bookings",
+                reloaded.findBookingById(1) != null && reloaded.findBookingById(2) != null
+                        && reloaded.loadAllBookings().size() == 3);
+        reloaded.shutdown();
+    }
+
+    private static Booking newBooking(int bookingId, long start, UserAccount user, Room room) {
+        return new Booking(bookingId, new Date(start), new Date(start + HOUR),
+                new Money(20.0, "CAD"), new Money(5.0, "CAD"), user, room);
+    }
+
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "PASS: " : "FAIL: ") + name);
+    }
+}
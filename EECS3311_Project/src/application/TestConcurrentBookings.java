@@ -0,0 +1,267 @@
+package application;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import accounts.model.StudentAccount;
+import accounts.model.UserAccount;
+import booking.model.Booking;
+import manager.BookingManager;
+import manager.room.Room;
+import storage.CSVStorageService;
+
+/**
+ * Stress check for BookingManager: booker threads create, extend and cancel bookings on a few
+ * shared rooms while another thread keeps calling refreshFromStorage. Passes when no room ends
+ * up with two overlapping active bookings (in memory or in storage) and no booking a thread made
+ * was lost by a refresh. Refreshes skip the manager's own writes, so before each one the
+ * refresher raises the bookings generation the way another process's write would.
+ */
+public class TestConcurrentBookings {
+
+    private static final int BOOKERS = 8;
+    private static final int ATTEMPTS = 200;
+    private static final int ROOMS = 4;
+    private static final int SLOTS = 24 * 7;
+    private static final long HOUR = 3_600_000L;
+    // Offset of the bookings counter in the shared directory's lock file (8 bytes per entity type)
+    private static final long BOOKINGS_GENERATION_OFFSET = 16;
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        testConcurrentBookings();
+    }
+
+    public static void testConcurrentBookings() {
+        failures = 0;
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        try {
+            run("test-data/concurrent-bookings-" + System.currentTimeMillis(), out, err);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException("Concurrent booking run interrupted", e);
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+            BookingManager.resetInstance();
+        }
+        System.out.println(failures == 0 ? "All concurrent booking checks passed."
+                : failures + " concurrent booking checks FAILED.");
+    }
+
+    private static void run(String directory, PrintStream out, PrintStream err) throws InterruptedException {
+        AtomicInteger errors = new AtomicInteger();
+        // Refreshes report on System.out and failures on System.err; count the failures, drop the rest
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                if (b == '\n') {
+                    errors.incrementAndGet();
+                }
+                err.write(b);
+            }
+        }, true));
+
+        CSVStorageService storage = new CSVStorageService(directory);
+        storage.setSharedAccess(true); // Tracks generations, which refreshFromStorage polls
+        List<UserAccount> users = new ArrayList<>();
+        for (int b = 0; b < BOOKERS; b++) {
+            users.add(new StudentAccount("booker" + b + "@test.ca", "Password1!", "org", "" + b));
+        }
+        List<Room> rooms = new ArrayList<>();
+        for (int r = 1; r <= ROOMS; r++) {
+            rooms.add(new Room(r, "LAS", "" + r, 10, "Enabled"));
+        }
+        storage.saveAllUsers(users);
+        storage.saveAllRooms(rooms);
+
+        BookingManager.resetInstance();
+        BookingManager manager = BookingManager.getInstance();
+        List<Booking> stored;
+        List<Booking> held;
+        List<List<Integer>> kept = new ArrayList<>();
+        AtomicInteger refreshes = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger vanished = new AtomicInteger();
+        List<Throwable> crashes = new ArrayList<>();
+        boolean ownWritesSkipped;
+        long start = (System.currentTimeMillis() / HOUR + 24) * HOUR;
+        try {
+            manager.setStorageService(storage);
+
+            ExecutorService pool = Executors.newFixedThreadPool(BOOKERS + 1);
+            AtomicBoolean booking = new AtomicBoolean(true);
+            try {
+                Future<?> refresher = pool.submit(() -> {
+                    while (booking.get()) {
+                        bumpBookingsGeneration(directory);
+                        if (manager.refreshFromStorage()) {
+                            refreshes.incrementAndGet();
+                        }
+                    }
+                });
+                List<Future<List<Integer>>> bookers = new ArrayList<>();
+                for (int b = 0; b < BOOKERS; b++) {
+                    UserAccount user = manager.getUserById(users.get(b).getUserId());
+                    int seed = b;
+                    bookers.add(pool.submit(() -> book(manager, user, new Random(seed), start, rejected, vanished)));
+                }
+                for (Future<List<Integer>> future : bookers) {
+                    try {
+                        kept.add(future.get());
+                    } catch (ExecutionException e) {
+                        crashes.add(e.getCause());
+                    }
+                }
+                booking.set(false);
+                try {
+                    refresher.get();
+                } catch (ExecutionException e) {
+                    crashes.add(e.getCause());
+                }
+            } finally {
+                booking.set(false); // A failed booker must not leave the refresher running
+                pool.shutdown();
+            }
+
+            held = manager.getAllBookings();
+            stored = storage.loadAllBookings();
+
+            // Once settled, the manager's own writes alone must not cause a reload
+            manager.refreshFromStorage();
+            manager.createBooking(manager.getUserById(users.get(0).getUserId()), manager.getRoomById(1),
+                    new Date(start - 2 * HOUR), new Date(start - HOUR));
+            ownWritesSkipped = !manager.refreshFromStorage();
+        } finally {
+            storage.shutdown();
+        }
+
+        int lost = 0;
+        int made = 0;
+        for (List<Integer> ids : kept) {
+            for (int id : ids) {
+                made++;
+                Booking found = manager.getBookingById(id);
+                if (found == null || "CANCELLED".equals(found.getStatus())) {
+                    lost++;
+                }
+            }
+        }
+
+        System.setOut(out);
+        System.setErr(err);
+        System.out.println("=== " + BOOKERS + " bookers on " + ROOMS + " rooms === " + made + " bookings kept, "
+                + rejected.get() + " requests refused, " + refreshes.get() + " refreshes during the run");
+        check("refreshes ran while booking", refreshes.get() > 0);
+        check("own writes do not trigger a reload", ownWritesSkipped);
+        check("no thread failed" + (crashes.isEmpty() ? "" : " (" + crashes.get(0) + ")"), crashes.isEmpty());
+        check("no storage errors (" + errors.get() + " reported)", errors.get() == 0);
+        check("no overlapping active bookings in memory (" + countOverlaps(held) + " found)",
+                countOverlaps(held) == 0);
+        check("no overlapping active bookings in storage (" + countOverlaps(stored) + " found)",
+                countOverlaps(stored) == 0);
+        check("no booking lost by a refresh (" + lost + " lost, " + vanished.get() + " gone while in use)",
+                lost == 0 && vanished.get() == 0);
+    }
+
+    // One booker's requests. Returns the ids of the bookings it made and did not cancel.
+    // `vanished` counts own bookings that could no longer be found to cancel or extend.
+    private static List<Integer> book(BookingManager manager, UserAccount user, Random random, long start,
+            AtomicInteger rejected, AtomicInteger vanished) {
+        List<Integer> ids = new ArrayList<>();
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            Date from = new Date(start + random.nextInt(SLOTS) * HOUR);
+            Date to = new Date(from.getTime() + (1 + random.nextInt(3)) * HOUR);
+            int choice = random.nextInt(10);
+            try {
+                if (choice < 6) {
+                    Room room = manager.getRoomById(1 + random.nextInt(ROOMS));
+                    ids.add(manager.createBooking(user, room, from, to).getBookingId());
+                } else if (choice < 8) {
+                    ids.add(manager.createBestFitBooking(user, 1, from, to).getBookingId());
+                } else if (choice == 8 && !ids.isEmpty()) {
+                    manager.cancelBooking(ids.remove(random.nextInt(ids.size()))).join();
+                } else if (!ids.isEmpty()) {
+                    int id = ids.get(random.nextInt(ids.size()));
+                    Booking own = manager.getBookingById(id);
+                    if (own == null) {
+                        vanished.incrementAndGet();
+                        ids.remove(Integer.valueOf(id));
+                        continue;
+                    }
+                    manager.extendBooking(id, new Date(own.getEndTime().getTime() + HOUR)).join();
+                }
+            } catch (IllegalStateException e) {
+                rejected.incrementAndGet(); // Room taken
+            } catch (IllegalArgumentException e) {
+                vanished.incrementAndGet(); // Booking not found
+            }
+        }
+        return ids;
+    }
+
+    // Raises the bookings generation in the lock file without writing any data, as if another
+    // process had written bookings.
+    private static void bumpBookingsGeneration(String directory) {
+        try (FileChannel channel = FileChannel.open(new File(directory, ".lock").toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            channel.read(buffer, BOOKINGS_GENERATION_OFFSET);
+            buffer.flip();
+            long generation = buffer.remaining() == 8 ? buffer.getLong() : 0;
+            channel.write(ByteBuffer.allocate(8).putLong(0, generation + 1), BOOKINGS_GENERATION_OFFSET);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Pairs of active bookings of the same room whose times overlap.
+    private static int countOverlaps(List<Booking> bookings) {
+        Map<Integer, List<Booking>> byRoom = new HashMap<>();
+        for (Booking booking : bookings) {
+            String status = booking.getStatus();
+            if (!status.equals("CANCELLED") && !status.equals("EXPIRED") && !status.equals("COMPLETED")) {
+                byRoom.computeIfAbsent(booking.getRoom().getRoomId(), r -> new ArrayList<>()).add(booking);
+            }
+        }
+        int overlaps = 0;
+        for (List<Booking> roomBookings : byRoom.values()) {
+            roomBookings.sort(Comparator.comparing(Booking::getStartTime));
+            for (int i = 0; i < roomBookings.size(); i++) {
+                for (int j = i + 1; j < roomBookings.size()
+                        && roomBookings.get(j).getStartTime().before(roomBookings.get(i).getEndTime()); j++) {
+                    overlaps++;
+                }
+            }
+        }
+        return overlaps;
+    }
+
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "PASS: " : "FAIL: ") + name);
+    }
+}
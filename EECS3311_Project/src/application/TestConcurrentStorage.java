@@ -0,0 +1,251 @@
+package application;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import accounts.model.StudentAccount;
+import accounts.model.UserAccount;
+import booking.model.Booking;
+import manager.room.Room;
+import pricing.money.Money;
+import storage.BookingFileLayout;
+import storage.CSVStorageService;
+
+/**
+ * Stress check for CSVStorageService under concurrent callers, in every booking file layout
+ * (and SINGLE_FILE with shared access). Writer threads save, update and delete their own
+ * bookings, re-save their user and update their room while loader threads keep reading.
+ * Passes when no load sees a torn or duplicated row, no storage error is reported, and the
+ * final data (read again after reopening the directory) matches what every writer last wrote.
+ */
+public class TestConcurrentStorage {
+
+    private static final int WRITERS = 8;
+    private static final int LOADERS = 2;
+    private static final int OPERATIONS = 300;
+    private static final int IDS_PER_WRITER = 40;
+    private static final long SLOT = 15 * 60_000L;
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        testConcurrentStorage();
+    }
+
+    public static void testConcurrentStorage() {
+        failures = 0;
+        String root = "test-data/concurrent-storage-" + System.currentTimeMillis();
+        try {
+            for (BookingFileLayout layout : BookingFileLayout.values()) {
+                run(root + "/" + layout, layout, false);
+            }
+            run(root + "/SHARED", BookingFileLayout.SINGLE_FILE, true);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Concurrent storage run failed", e);
+        }
+        System.out.println(failures == 0 ? "All concurrent storage checks passed."
+                : failures + " concurrent storage checks FAILED.");
+    }
+
+    private static void run(String directory, BookingFileLayout layout, boolean shared)
+            throws InterruptedException, ExecutionException {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        try {
+            run(directory, layout, shared, out, err);
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+    }
+
+    private static void run(String directory, BookingFileLayout layout, boolean shared, PrintStream out,
+            PrintStream err) throws InterruptedException, ExecutionException {
+        String name = layout + (shared ? " (shared)" : "");
+        AtomicInteger errors = new AtomicInteger();
+        // Storage reports failures on System.err; count them and keep the per-row messages quiet
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                if (b == '\n') {
+                    errors.incrementAndGet();
+                }
+                err.write(b);
+            }
+        }, true));
+
+        long start = (System.currentTimeMillis() / SLOT + 96) * SLOT;
+        List<UserAccount> users = new ArrayList<>();
+        List<Room> rooms = new ArrayList<>();
+        List<Map<Integer, Long>> expected = new ArrayList<>();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger torn = new AtomicInteger();
+        Map<Integer, Long> all = new HashMap<>();
+        int loads;
+        String before;
+
+        CSVStorageService storage = new CSVStorageService(directory);
+        try {
+            storage.setBookingFileLayout(layout);
+            if (layout == BookingFileLayout.JOURNALED) {
+                storage.setJournalCompactionThreshold(4096); // Compact while writers append
+            }
+            storage.setSharedAccess(shared);
+            for (int w = 0; w < WRITERS; w++) {
+                users.add(new StudentAccount("writer" + w + "@test.ca", "Password1!", "org", "" + w));
+                rooms.add(new Room(w + 1, "LAS", "" + w, 10, "Enabled"));
+                expected.add(new HashMap<>());
+            }
+            storage.saveAllUsers(users);
+            storage.saveAllRooms(rooms);
+
+            ExecutorService pool = Executors.newFixedThreadPool(WRITERS + LOADERS);
+            AtomicBoolean writing = new AtomicBoolean(true);
+            AtomicInteger loadCount = new AtomicInteger();
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                int writer = w;
+                writers.add(pool.submit(() -> write(storage, writer, users.get(writer), rooms.get(writer), start,
+                        expected.get(writer), rejected)));
+            }
+            List<Future<?>> loaders = new ArrayList<>();
+            for (int l = 0; l < LOADERS; l++) {
+                loaders.add(pool.submit(() -> {
+                    while (writing.get()) {
+                        if (!isWellFormed(storage.loadAllBookings(), start)) {
+                            torn.incrementAndGet();
+                        }
+                        loadCount.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> future : writers) {
+                future.get();
+            }
+            writing.set(false);
+            for (Future<?> future : loaders) {
+                future.get();
+            }
+            pool.shutdown();
+            loads = loadCount.get();
+
+            for (Map<Integer, Long> writerBookings : expected) {
+                all.putAll(writerBookings);
+            }
+            before = compare(storage.loadAllBookings(), all, start);
+        } finally {
+            storage.shutdown();
+        }
+
+        CSVStorageService reopened = new CSVStorageService(directory);
+        reopened.setBookingFileLayout(layout);
+        String after = compare(reopened.loadAllBookings(), all, start);
+        boolean roomsKept = true;
+        for (Room room : reopened.loadAllRooms()) {
+            roomsKept &= room.getCapacity() == 10 + OPERATIONS / 50;
+        }
+        boolean usersKept = reopened.loadAllUsers().size() == WRITERS;
+        reopened.shutdown();
+
+        System.setOut(out);
+        System.setErr(err);
+        System.out.println("=== " + name + " === " + loads + " concurrent loads, " + all.size() + " bookings stored");
+        check("no storage errors (" + errors.get() + " reported)", errors.get() == 0);
+        check("every write reported success (" + rejected.get() + " did not)", rejected.get() == 0);
+        check("no torn or duplicated rows seen by loads (" + torn.get() + " bad loads)", torn.get() == 0);
+        check("final bookings match the last writes" + before, before.isEmpty());
+        check("bookings match after reopening" + after, after.isEmpty());
+        check("room updates kept", roomsKept);
+        check("users kept once each", usersKept);
+    }
+
+    // One writer's operations on its own bookings, user and room. `expected` ends up holding
+    // the end time of each booking the writer left stored.
+    private static void write(CSVStorageService storage, int writer, UserAccount user, Room room, long start,
+            Map<Integer, Long> expected, AtomicInteger rejected) {
+        Random random = new Random(writer);
+        Map<Integer, Booking> live = new HashMap<>();
+        for (int op = 1; op <= OPERATIONS; op++) {
+            int bookingId = writer * 1000 + random.nextInt(IDS_PER_WRITER);
+            Booking booking = live.get(bookingId);
+            int choice = random.nextInt(10);
+            boolean stored;
+            if (booking == null) {
+                long bookingStart = start + (long) bookingId * 8 * SLOT;
+                booking = new Booking(bookingId, new Date(bookingStart), new Date(bookingStart + 4 * SLOT),
+                        new Money(10.0, "CAD"), new Money(2.0, "CAD"), user, room);
+                stored = storage.saveBooking(booking);
+                live.put(bookingId, booking);
+            } else if (choice < 6) {
+                booking.extendEndTime(new Date(booking.getEndTime().getTime() + SLOT));
+                stored = storage.updateBooking(booking);
+            } else if (choice < 8) {
+                stored = storage.deleteBooking(bookingId);
+                live.remove(bookingId);
+            } else {
+                stored = storage.saveBooking(booking); // Save of a stored booking replaces it
+            }
+            if (op % 50 == 0) {
+                room.setCapacity(room.getCapacity() + 1);
+                stored &= storage.updateRoom(room) && storage.saveUser(user);
+            }
+            if (!stored) {
+                rejected.incrementAndGet();
+            }
+        }
+        for (Booking booking : live.values()) {
+            expected.put(booking.getBookingId(), booking.getEndTime().getTime());
+        }
+    }
+
+    // Every row parsed, no id twice, and times on the grid the writers use.
+    private static boolean isWellFormed(List<Booking> bookings, long start) {
+        Set<Integer> ids = new HashSet<>();
+        for (Booking booking : bookings) {
+            long length = booking.getEndTime().getTime() - booking.getStartTime().getTime();
+            if (!ids.add(booking.getBookingId()) || booking.getStartTime().getTime() < start
+                    || length < 4 * SLOT || length % SLOT != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Empty if the stored bookings are exactly the expected ones, else a short description.
+    private static String compare(List<Booking> bookings, Map<Integer, Long> expected, long start) {
+        if (!isWellFormed(bookings, start)) {
+            return ": malformed rows";
+        }
+        int wrong = 0;
+        for (Booking booking : bookings) {
+            Long end = expected.get(booking.getBookingId());
+            if (end == null || end != booking.getEndTime().getTime()) {
+                wrong++;
+            }
+        }
+        int missing = expected.size() - (bookings.size() - wrong);
+        return wrong == 0 && missing == 0 ? "" : ": " + wrong + " wrong or extra, " + missing + " missing";
+    }
+
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "PASS: " : "FAIL: ") + name);
+    }
+}
@@ -0,0 +1,146 @@
+package application;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import accounts.model.StudentAccount;
+import accounts.model.UserAccount;
+import booking.model.Booking;
+import manager.room.Room;
+import pricing.money.Money;
+import storage.CSVStorageService;
+import storage.CSVToSQLMigrator;
+import storage.IStorageService;
+import storage.SQLStorageService;
+
+/**
+ * Runs the same CRUD checks against the CSV service and the SQL service on embedded
+ * H2 and SQLite databases, then migrates CSV data into each database.
+ * A database whose JDBC driver is not on the classpath is skipped, e.g.
+ *   java -cp bin:h2.jar:sqlite-jdbc.jar application.TestSQLStorage
+ */
+public class TestSQLStorage {
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        testSQLStorage();
+    }
+
+    public static void testSQLStorage() {
+        failures = 0;
+        String root = "test-data/sql-storage-" + System.currentTimeMillis();
+
+        System.out.println("=== CSV ===");
+        CSVStorageService csv = new CSVStorageService(root + "/csv");
+        checkCrud(csv);
+        csv.shutdown();
+
+        testDatabase("H2", "org.h2.Driver", "jdbc:h2:./" + root + "/h2/booking_db", root);
+        testDatabase("SQLite", "org.sqlite.JDBC", "jdbc:sqlite:" + root + "/sqlite/booking.db", root);
+
+        System.out.println(failures == 0 ? "All SQL storage checks passed." : failures + " SQL storage checks FAILED.");
+    }
+
+    private static void testDatabase(String name, String driver, String url, String root) {
+        System.out.println("=== " + name + " ===");
+        try {
+            Class.forName(driver);
+        } catch (ClassNotFoundException e) {
+            System.out.println("SKIPPED: " + driver + " is not on the classpath");
+            return;
+        }
+        new File(root + "/" + name.toLowerCase()).mkdirs();
+
+        SQLStorageService sql = new SQLStorageService(url);
+        checkCrud(sql);
+        checkMigration(root + "/csv", sql);
+
+        // Writes after the pool is closed must report failure instead of passing silently
+        sql.shutdown();
+        UserAccount user = new StudentAccount("closed@test.ca", "Password1!", "org", "999");
+        check("save fails on a closed database", !sql.saveUser(user));
+        check("batch save fails on a closed database", !sql.saveAllUsers(List.of(user)));
+    }
+
+    // ==== //
+    // CRUD //
+    // ==== //
+
+    private static void checkCrud(IStorageService storage) {
+        check("clearAll", storage.clearAll());
+
+        UserAccount alice = new StudentAccount("alice@test.ca", "Password1!", "org", "1001");
+        UserAccount bob = new StudentAccount("bob@test.ca", "Password1!", "org", "1002");
+        UserAccount carol = new StudentAccount("carol@test.ca", "Password1!", "org", "1003");
+        check("saveUser", storage.saveUser(alice));
+        check("findUserById", storage.findUserById(alice.getUserId()) != null);
+        check("findUserByEmail", storage.findUserByEmail("alice@test.ca") != null);
+        check("saveUser again replaces", storage.saveUser(alice) && storage.loadAllUsers().size() == 1);
+        check("saveAllUsers", storage.saveAllUsers(List.of(alice, bob, carol)) && storage.loadAllUsers().size() == 3);
+
+        Room room = new Room(1, "LAS", "1001", 20, "Enabled");
+        Room other = new Room(2, "LAS", "1002", 40, "Enabled");
+        check("saveRoom", storage.saveRoom(room));
+        check("saveAllRooms", storage.saveAllRooms(List.of(room, other)) && storage.loadAllRooms().size() == 2);
+        room.setStatus("Disabled");
+        check("updateRoom", storage.updateRoom(room)
+                && "Disabled".equals(storage.findRoomById(1).getStatus()));
+        check("updateRoom of an unknown room", !storage.updateRoom(new Room(99, "LAS", "9", 5, "Enabled"))
+                && storage.findRoomById(99) == null);
+
+        // CSV keeps times to the second, so start on a whole hour
+        long start = (System.currentTimeMillis() / 3_600_000L + 24) * 3_600_000L;
+        Booking booking = newBooking(1, start, alice, room);
+        check("saveBooking", storage.saveBooking(booking));
+        Booking found = storage.findBookingById(1);
+        check("findBookingById", found != null && found.getStartTime().getTime() == start
+                && found.getUser().getUserId() == alice.getUserId());
+        booking.cancel();
+        check("updateBooking", storage.updateBooking(booking)
+                && "CANCELLED".equals(storage.findBookingById(1).getStatus()));
+        check("updateBooking of an unknown booking", !storage.updateBooking(newBooking(999, start, bob, other))
+                && storage.findBookingById(999) == null);
+
+        List<Booking> batch = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            batch.add(newBooking(100 + i, start + i * 3_600_000L, i % 2 == 0 ? alice : bob, other));
+        }
+        check("saveAllBookings", storage.saveAllBookings(batch) && storage.loadAllBookings().size() == 101);
+        check("findBookingsByUserId", storage.findBookingsByUserId(bob.getUserId()).size() == 50);
+        check("findBookingsByRoomId", storage.findBookingsByRoomId(other.getRoomId()).size() == 100);
+        check("findBookingsInRange", storage.findBookingsInRange(new Date(start + 3_600_000L),
+                new Date(start + 3 * 3_600_000L)).size() == 2);
+
+        check("deleteBooking", storage.deleteBooking(1) && storage.findBookingById(1) == null);
+        check("deleteBooking twice", !storage.deleteBooking(1));
+        check("deleteUser", storage.deleteUser(carol.getUserId()) && storage.findUserById(carol.getUserId()) == null);
+        check("deleteRoom", storage.saveRoom(new Room(3, "LAS", "1003", 10, "Enabled")) && storage.deleteRoom(3)
+                && storage.findRoomById(3) == null);
+    }
+
+    // Copies the CSV data left by checkCrud into the database and compares the counts.
+    private static void checkMigration(String csvDirectory, IStorageService target) {
+        CSVStorageService source = new CSVStorageService(csvDirectory);
+        target.clearAll();
+        CSVToSQLMigrator.migrate(source, target);
+        check("migrate users", target.loadAllUsers().size() == source.loadAllUsers().size());
+        check("migrate rooms", target.loadAllRooms().size() == source.loadAllRooms().size());
+        check("migrate bookings", target.loadAllBookings().size() == source.loadAllBookings().size());
+        source.shutdown();
+    }
+
+    private static Booking newBooking(int bookingId, long start, UserAccount user, Room room) {
+        return new Booking(bookingId, new Date(start), new Date(start + 3_600_000L),
+                new Money(20.0, "CAD"), new Money(5.0, "CAD"), user, room);
+    }
+
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "PASS: " : "FAIL: ") + name);
+    }
+}
@@ -187,6 +187,25 @@ public class SystemFacade {
         // Create booking
         Booking booking = bookingManager.createBooking(user, room, startTime, endTime);
         
+        return priceAndAnnounce(booking, user);
+    }
+    
+    
+    // Books the smallest free room with at least minCapacity seats for the window, in one call.
+    public Booking requestBestFitBooking(int userId, int minCapacity, Date startTime, Date endTime) {
+        UserAccount user = bookingManager.getUserById(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User with ID " + userId + " not found.");
+        }
+        
+        Booking booking = bookingManager.createBestFitBooking(user, minCapacity, startTime, endTime);
+        
+        return priceAndAnnounce(booking, user);
+    }
+    
+    
+    // Prices a new booking, registers it for notifications and announces it.
+    private Booking priceAndAnnounce(Booking booking, UserAccount user) {
         // Calculate and set pricing 
         Money totalAmount = paymentService.calculateBookingPrice(booking, user);
         Money depositAmount = paymentService.calculateDeposit(booking, user);
@@ -1,27 +1,81 @@
 package manager;
 
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import accounts.model.AdminAccount;
 import accounts.model.UserAccount;
 import booking.model.Booking;
 import manager.room.Room;
 import partnersystem.RoomAvailabilityService;
+import pricing.money.Money;
+import storage.BinarySnapshot;
+import storage.DataGenerations;
 import storage.IStorageService;
+import storage.WriteBehindQueue;
 
 public class BookingManager {
 	private static BookingManager instance;
-    private List<Room> rooms;
-    private List<Booking> bookings;
+	private static final int ROOM_LOCK_STRIPES = 64;
+    // Lock-free collections, so requests for different rooms never wait for each other;
+    // a load or refresh swaps in new ones
+    private volatile Queue<Room> rooms;
+    private volatile Queue<Booking> bookings;
     private RoomAvailabilityService availabilityService;
-    private List<UserAccount> users;
+    private volatile Queue<UserAccount> users;
+    // Lookup tables over the three collections; rebuilt and swapped in whenever a collection is replaced
+    private volatile Map<Integer, UserAccount> usersById = new ConcurrentHashMap<>();
+    private volatile Map<String, UserAccount> usersByEmail = new ConcurrentHashMap<>();
+    private volatile Map<Integer, Room> roomsById = new ConcurrentHashMap<>();
+    private volatile Map<Integer, Booking> bookingsById = new ConcurrentHashMap<>();
+    private volatile Map<Integer, Queue<Booking>> bookingsByUser = new ConcurrentHashMap<>();
+    // Anything that checks a room and then books it or changes it holds the room's stripe,
+    // so two requests for one room cannot both pass the availability check
+    private final Object[] roomLocks = new Object[ROOM_LOCK_STRIPES];
+    // Changes to single users, rooms and bookings share the read lock, so they still run in parallel;
+    // loads and refreshes, which swap in whole collections and rebuild the indexes, hold the write lock
+    // so no change is lost between the snapshot they merge and the collections they swap in
+    private final ReentrantReadWriteLock dataLock = new ReentrantReadWriteLock();
+    // Rooms by status and capacity; rebuilt whenever `rooms` is replaced
+    private final RoomCapacityIndex roomCapacities = new RoomCapacityIndex();
+    // Active bookings per room, for conflict checks; rebuilt whenever `bookings` is replaced
+    private final RoomScheduleIndex roomSchedules = new RoomScheduleIndex();
+    // Slot bitmaps for multi-room availability screens, kept in step with roomSchedules
+    private final OccupancyEngine occupancy = new OccupancyEngine(roomSchedules);
     private IStorageService storageService;
+    private WriteBehindQueue writeBehindQueue;
+    private Thread writeBehindShutdownHook;
+    private File snapshotFile;
+    private ScheduledExecutorService snapshotScheduler;
+    private Thread snapshotShutdownHook;
+    private ScheduledExecutorService changeWatcher;
+    // Storage generations the in-memory lists reflect
+    private DataGenerations loadedGenerations;
 
     private BookingManager() {
-        this.rooms = new ArrayList<>();
-        this.bookings = new ArrayList<>();
-        this.users = new ArrayList<>();
+        this.rooms = new ConcurrentLinkedQueue<>();
+        this.bookings = new ConcurrentLinkedQueue<>();
+        this.users = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < ROOM_LOCK_STRIPES; i++) {
+            roomLocks[i] = new Object();
+        }
     }
 
     public static synchronized BookingManager getInstance() {
@@ -40,14 +94,11 @@ public class BookingManager {
         this.availabilityService = service;
     }
     
+    // Only enabled rooms with enough seats are visited, smallest first, and each room's conflicts are
+    // one lookup in the schedule index, so the cost does not grow with the number of bookings.
     public List<Room> findAvailableRooms(Date startTime, Date endTime, int capacity) {
         
-    	if (startTime == null || endTime == null) {
-            throw new IllegalArgumentException("Start and end times cannot be null.");
-        }
-        if (startTime.after(endTime) || startTime.equals(endTime)) {
-            throw new IllegalArgumentException("Start time must be before end time.");
-        }
+    	checkTimeWindow(startTime, endTime);
         if (capacity <= 0) {
             throw new IllegalArgumentException("Capacity must be positive.");
         }
@@ -55,27 +106,9 @@ public class BookingManager {
     	List<Room> availableRooms = new ArrayList<>();
         
         // Check internal rooms
-        for (Room room : rooms) {
-            if (room.getCapacity() >= capacity && "Enabled".equals(room.getStatus())) {
-                boolean isAvailable = true;
-                
-                for (Booking booking : bookings) {
-                	
-                	String status = booking.getStatus();
-                	if (status.equals("CANCELLED")||status.equals("EXPIRED")||status.equals("COMPLETED")){
-                		continue;
-                	}
-                	
-                    if (booking.getRoom().getRoomId() == room.getRoomId()) {
-                    	if (booking.getStartTime().before(endTime) && booking.getEndTime().after(startTime)) {
-	                        isAvailable = false;
-	                        break;
-                    	}
-                	}
-                }
-                if (isAvailable) {
-                    availableRooms.add(room);
-                }
+        for (Room room : roomCapacities.findRooms("Enabled", capacity)) {
+            if (roomSchedules.isFree(room.getRoomId(), startTime, endTime)) {
+                availableRooms.add(room);
             }
         }
         
@@ -87,8 +120,45 @@ public class BookingManager {
         
         return availableRooms;
     }
+    
+    private static void checkTimeWindow(Date startTime, Date endTime) {
+        if (startTime == null || endTime == null) {
+            throw new IllegalArgumentException("Start and end times cannot be null.");
+        }
+        if (startTime.after(endTime) || startTime.equals(endTime)) {
+            throw new IllegalArgumentException("Start time must be before end time.");
+        }
+    }
+    
+    // Whether a room can be booked for the window. One of our rooms is checked on its own
+    // (enabled and no conflicting booking); any other room must be offered by the partner service.
+    private boolean isRoomAvailable(Room room, Date startTime, Date endTime) {
+        Room internal = getRoomById(room.getRoomId());
+        if (internal == null) {
+            for (Room r : findAvailableRooms(startTime, endTime, 1)) {
+                if (r.getRoomId() == room.getRoomId()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        checkTimeWindow(startTime, endTime);
+        return internal.getCapacity() >= 1 && "Enabled".equals(internal.getStatus())
+                && roomSchedules.isFree(internal.getRoomId(), startTime, endTime);
+    }
 
+    // The availability check and the insert run under the room's stripe, so they are one step
+    // for that room while bookings of other rooms go ahead in parallel.
     public Booking createBooking(UserAccount user, Room room, Date startTime, Date endTime) {
+        return placeBooking(user, room, startTime, endTime).booking;
+    }
+    
+    // Like createBooking; the future completes with the booking once it has reached storage.
+    public CompletableFuture<Booking> createBookingAsync(UserAccount user, Room room, Date startTime, Date endTime) {
+        return placeBooking(user, room, startTime, endTime).whenStored();
+    }
+    
+    private PlacedBooking placeBooking(UserAccount user, Room room, Date startTime, Date endTime) {
         
     	if (user == null) {
             throw new IllegalArgumentException("User cannot be null.");
@@ -97,177 +167,222 @@ public class BookingManager {
             throw new IllegalArgumentException("Room cannot be null.");
         }
         
-        List<Room> available = findAvailableRooms(startTime, endTime, 1);
-        boolean roomAvailable = false;
-        for (Room r : available) {
-            if (r.getRoomId() == room.getRoomId()) {
-                roomAvailable = true;
-                break;
+        dataLock.readLock().lock();
+        try {
+            synchronized (roomLock(room.getRoomId())) {
+                if (!isRoomAvailable(room, startTime, endTime)) {
+                    throw new IllegalStateException("Room is not available for the requested time period.");
+                }
+                
+                return addBooking(new Booking(user, room, startTime, endTime));
             }
+        } finally {
+            dataLock.readLock().unlock();
+        }
+    }
+    
+    // Books the smallest enabled room with at least minCapacity seats that is free for the window.
+    // Rooms are tried in best-fit order and the first free one is taken. Partner rooms are not considered.
+    // A room that looks free is checked again under its stripe, since another request may have taken it.
+    public Booking createBestFitBooking(UserAccount user, int minCapacity, Date startTime, Date endTime) {
+        return placeBestFitBooking(user, minCapacity, startTime, endTime).booking;
+    }
+    
+    // Like createBestFitBooking; the future completes with the booking once it has reached storage.
+    public CompletableFuture<Booking> createBestFitBookingAsync(UserAccount user, int minCapacity, Date startTime,
+            Date endTime) {
+        return placeBestFitBooking(user, minCapacity, startTime, endTime).whenStored();
+    }
+    
+    private PlacedBooking placeBestFitBooking(UserAccount user, int minCapacity, Date startTime, Date endTime) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null.");
         }
+        if (minCapacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        checkTimeWindow(startTime, endTime);
         
-        if (!roomAvailable) {
-            throw new IllegalStateException("Room is not available for the requested time period.");
+        dataLock.readLock().lock();
+        try {
+            for (Room room : roomCapacities.findRooms("Enabled", minCapacity)) {
+                if (!roomSchedules.isFree(room.getRoomId(), startTime, endTime)) {
+                    continue;
+                }
+                synchronized (roomLock(room.getRoomId())) {
+                    if (room.getCapacity() >= minCapacity && "Enabled".equals(room.getStatus())
+                            && roomSchedules.isFree(room.getRoomId(), startTime, endTime)) {
+                        return addBooking(new Booking(user, room, startTime, endTime));
+                    }
+                }
+            }
+        } finally {
+            dataLock.readLock().unlock();
         }
-    	
-    	Booking booking = new Booking(user, room, startTime, endTime);
+        throw new IllegalStateException("No room with at least " + minCapacity
+                + " seats is available for the requested time period.");
+    }
+    
+    // Callers hold the read lock and the booking's room stripe. The booking is indexed before it is listed,
+    // so anything found through getAllBookings can also be looked up by id.
+    private PlacedBooking addBooking(Booking booking) {
+        indexBooking(booking, bookingsById, bookingsByUser);
         bookings.add(booking);
+        roomSchedules.add(booking);
         
         // Saves to storage
-        if (storageService != null) {
-            storageService.saveBooking(booking);
+        return new PlacedBooking(booking, persistBooking(booking, true));
+    }
+    
+    // A booking that was added, and the write that stores it
+    private static final class PlacedBooking {
+        final Booking booking;
+        final CompletableFuture<Void> persisted;
+        
+        PlacedBooking(Booking booking, CompletableFuture<Void> persisted) {
+            this.booking = booking;
+            this.persisted = persisted;
         }
         
-        return booking;
+        CompletableFuture<Booking> whenStored() {
+            return persisted.thenApply(stored -> booking);
+        }
     }
 
-    public void addRoom(Room room) {
+    // The returned future completes once the room has reached storage (as do those of the other
+    // mutators below); it fails if the write did not.
+    public CompletableFuture<Void> addRoom(Room room) {
     	if (room == null) {
             throw new IllegalArgumentException("Room cannot be null.");
         }
-        // Check for duplicate room ID
-        for (Room r : rooms) {
-            if (r.getRoomId() == room.getRoomId()) {
+        dataLock.readLock().lock();
+        try {
+            // Check for duplicate room ID; claiming the ID is atomic
+            if (roomsById.putIfAbsent(room.getRoomId(), room) != null) {
                 throw new IllegalArgumentException("Room with ID " + room.getRoomId() + " already exists.");
             }
-        }
-        rooms.add(room);
-        
-        // Saves to storage
-        if (storageService != null) {
-            storageService.saveRoom(room);
+            rooms.add(room);
+            roomCapacities.add(room);
+            
+            // Saves to storage
+            return persistRoom(room, true);
+        } finally {
+            dataLock.readLock().unlock();
         }
     }
 
-    public void updateRoomStatus(int roomId, String status) {
-    	 Room foundRoom = null;
-         for (Room room : rooms) {
-             if (room.getRoomId() == roomId) {
-                 foundRoom = room;
-                 break;
+    public CompletableFuture<Void> updateRoomStatus(int roomId, String status) {
+         dataLock.readLock().lock();
+         try {
+             Room foundRoom = roomsById.get(roomId);
+             
+             if (foundRoom == null) {
+                 throw new IllegalArgumentException("Room with ID " + roomId + " not found.");
              }
-         }
-         
-         if (foundRoom == null) {
-             throw new IllegalArgumentException("Room with ID " + roomId + " not found.");
-         }
-         
-         foundRoom.setStatus(status);
-         
-         // Saves to storage
-         if (storageService != null) {
-             storageService.updateRoom(foundRoom);
+             
+             // Not while a booking of the room is between its check and its insert
+             synchronized (roomLock(roomId)) {
+                 foundRoom.setStatus(status);
+                 roomCapacities.reindex(foundRoom);
+                 
+                 // Saves to storage
+                 return persistRoom(foundRoom, false);
+             }
+         } finally {
+             dataLock.readLock().unlock();
          }
     }
     
     public Booking getBookingById(int bookingId) {
-        for (Booking booking : bookings) {
-            if (booking.getBookingId() == bookingId) {
-                return booking;
-            }
-        }
-        return null;
+        return bookingsById.get(bookingId);
     }
     
     //ALL EXTRA METHODS BELOW//
     // Extra Method
     public Room getRoomById(int roomId) {
-        for (Room room : rooms) {
-            if (room.getRoomId() == roomId) {
-                return room;
-            }
-        }
-        return null;
+        return roomsById.get(roomId);
     }
     
     public UserAccount getUserById(int userId) {
-        for (UserAccount user : users) {
-            if (user.getUserId() == userId) {
-                return user;
-            }
-        }
-        return null;
+        return usersById.get(userId);
     }
     
-    public void registerUser(UserAccount user) {
+    public CompletableFuture<Void> registerUser(UserAccount user) {
         if (user == null) {
             throw new IllegalArgumentException("User cannot be null.");
         }
-        // Check for duplicate email
-        for (UserAccount u : users) {
-            if (u.getEmail().equals(user.getEmail())) {
+        dataLock.readLock().lock();
+        try {
+            // Check for duplicate email; claiming the email is atomic
+            if (user.getEmail() != null && usersByEmail.putIfAbsent(user.getEmail(), user) != null) {
                 throw new IllegalArgumentException("User with email " + user.getEmail() + " already exists.");
             }
-        }
-        users.add(user);
-        
-        // Saves to storage
-        if (storageService != null) {
-            storageService.saveUser(user);
+            usersById.putIfAbsent(user.getUserId(), user);
+            users.add(user);
+            
+            // Saves to storage
+            return persistUser(user);
+        } finally {
+            dataLock.readLock().unlock();
         }
     }
     
-    public void cancelBooking(int bookingId) {
-        Booking booking = getBookingById(bookingId);
-        if (booking == null) {
-            throw new IllegalArgumentException("Booking with ID " + bookingId + " not found.");
-        }
-        booking.cancel(); 
-        
-        // Updates storage
-        if (storageService != null) {
-            storageService.updateBooking(booking);
+    public CompletableFuture<Void> cancelBooking(int bookingId) {
+        dataLock.readLock().lock();
+        try {
+            Booking booking = getBookingById(bookingId);
+            if (booking == null) {
+                throw new IllegalArgumentException("Booking with ID " + bookingId + " not found.");
+            }
+            synchronized (roomLock(booking.getRoom().getRoomId())) {
+                booking.cancel(); 
+                
+                // Updates storage
+                return persistBooking(booking, false);
+            }
+        } finally {
+            dataLock.readLock().unlock();
         }
     }
     
-    public void extendBooking(int bookingId, Date newEndTime) {
-        Booking booking = getBookingById(bookingId);
-        if (booking == null) {
-            throw new IllegalArgumentException("Booking with ID " + bookingId + " not found.");
-        }
-        
-        // Check if room is available for the extension period
-        Date extensionStart = booking.getEndTime();
-        List<Room> available = findAvailableRooms(extensionStart, newEndTime, 1);
-        
-        boolean roomAvailable = false;
-        for (Room r : available) {
-            if (r.getRoomId() == booking.getRoom().getRoomId()) {
-                roomAvailable = true;
-                break;
+    public CompletableFuture<Void> extendBooking(int bookingId, Date newEndTime) {
+        dataLock.readLock().lock();
+        try {
+            Booking booking = getBookingById(bookingId);
+            if (booking == null) {
+                throw new IllegalArgumentException("Booking with ID " + bookingId + " not found.");
             }
+            
+            synchronized (roomLock(booking.getRoom().getRoomId())) {
+                // Check if room is available for the extension period
+                Date extensionStart = booking.getEndTime();
+                if (!isRoomAvailable(booking.getRoom(), extensionStart, newEndTime)) {
+                    throw new IllegalStateException("Room is not available for the extension period.");
+                }
+                
+                booking.extendEndTime(newEndTime);
+                roomSchedules.reindex(booking);
+                booking.notifyObservers("Booking extended until " + newEndTime);
+                
+                // Updates storage
+                return persistBooking(booking, false);
+            }
+        } finally {
+            dataLock.readLock().unlock();
         }
-        
-        if (!roomAvailable) {
-            throw new IllegalStateException("Room is not available for the extension period.");
-        }
-        
-        booking.extendEndTime(newEndTime);
-        booking.notifyObservers("Booking extended until " + newEndTime);
-        
-        // Updates storage
-        if (storageService != null) {
-            storageService.updateBooking(booking);
-        }
+    }
+    
+    private Object roomLock(int roomId) {
+        return roomLocks[Math.floorMod(roomId, ROOM_LOCK_STRIPES)];
     }
     
     public List<Booking> getBookingsForUser(int userId) {
-        List<Booking> userBookings = new ArrayList<>();
-        for (Booking booking : bookings) {
-            if (booking.getUser().getUserId() == userId) {
-                userBookings.add(booking);
-            }
-        }
-        return userBookings;
+        Queue<Booking> userBookings = bookingsByUser.get(userId);
+        return userBookings == null ? new ArrayList<>() : new ArrayList<>(userBookings);
     }
     
     public UserAccount getUserByEmail(String email) {
-        for (UserAccount user : users) {
-            if (user.getEmail().equals(email)) {
-                return user;
-            }
-        }
-        return null;
+        return email == null ? null : usersByEmail.get(email);
     }
     
     public List<Room> getAllRooms() {
@@ -282,6 +397,21 @@ public class BookingManager {
         return new ArrayList<>(users);
     }
     
+    public OccupancyEngine getOccupancyEngine() {
+        return occupancy;
+    }
+    
+    // Free/busy grid of a building's enabled rooms for `days` days from firstDay (e.g. a week view).
+    public OccupancyEngine.Heatmap getBuildingOccupancy(String building, LocalDate firstDay, int days) {
+        List<Integer> roomIds = new ArrayList<>();
+        for (Room room : rooms) {
+            if (Objects.equals(room.getBuilding(), building) && "Enabled".equals(room.getStatus())) {
+                roomIds.add(room.getRoomId());
+            }
+        }
+        return occupancy.getHeatmap(roomIds, firstDay, days);
+    }
+    
     
     // =========== //
     // CSV METHODS //
@@ -289,6 +419,8 @@ public class BookingManager {
     
     //Sets the storage service and loads existing data
     public void setStorageService(IStorageService storageService) {
+        // Queued writes belong to the old storage service
+        disableWriteBehind();
         this.storageService = storageService;
         if (storageService != null) {
             loadDataFromStorage();
@@ -304,55 +436,541 @@ public class BookingManager {
     private void loadDataFromStorage() {
         if (storageService == null) return;
         
+        dataLock.writeLock().lock();
+        try {
+            loadDataFromStorageLocked();
+        } finally {
+            dataLock.writeLock().unlock();
+        }
+    }
+    
+    private void loadDataFromStorageLocked() {
         System.out.println("Loading data from storage...");
+        // Read before loading, so writes that land during the load are picked up by the next refresh
+        loadedGenerations = storageService.getGenerations();
+        
+        if (loadDataFromSnapshot()) {
+            return;
+        }
         
         // Load users first (bookings depend on them)
         List<UserAccount> loadedUsers = storageService.loadAllUsers();
-        this.users = new ArrayList<>(loadedUsers);
+        this.users = new ConcurrentLinkedQueue<>(loadedUsers);
+        indexUsers();
         System.out.println("  Loaded " + users.size() + " users");
         
         // Load rooms (bookings depend on them)
         List<Room> loadedRooms = storageService.loadAllRooms();
-        this.rooms = new ArrayList<>(loadedRooms);
+        this.rooms = new ConcurrentLinkedQueue<>(loadedRooms);
+        indexRooms();
+        roomCapacities.rebuild(rooms);
         System.out.println("  Loaded " + rooms.size() + " rooms");
         
         // Load bookings
         List<Booking> loadedBookings = storageService.loadAllBookings();
-        this.bookings = new ArrayList<>(loadedBookings);
+        this.bookings = new ConcurrentLinkedQueue<>(loadedBookings);
+        indexBookings();
+        roomSchedules.rebuild(bookings);
         System.out.println("  Loaded " + bookings.size() + " bookings");
     }
     
-    // Saves all in-memory data to storage
-    public void saveAllDataToStorage() {
+    // Loads from the binary snapshot instead, if one is enabled and newer than the storage data.
+    private boolean loadDataFromSnapshot() {
+        if (snapshotFile == null || !snapshotFile.exists()) {
+            return false;
+        }
+        if (snapshotFile.lastModified() <= storageService.getLastModifiedTime()) {
+            System.out.println("  Snapshot is older than storage, ignoring it");
+            return false;
+        }
+        
+        BinarySnapshot snapshot = BinarySnapshot.read(snapshotFile);
+        if (snapshot == null) {
+            return false;
+        }
+        this.users = new ConcurrentLinkedQueue<>(snapshot.getUsers());
+        indexUsers();
+        this.rooms = new ConcurrentLinkedQueue<>(snapshot.getRooms());
+        indexRooms();
+        roomCapacities.rebuild(rooms);
+        this.bookings = new ConcurrentLinkedQueue<>(snapshot.getBookings());
+        indexBookings();
+        roomSchedules.rebuild(bookings);
+        System.out.println("  Loaded " + users.size() + " users, " + rooms.size() + " rooms and "
+                + bookings.size() + " bookings from snapshot");
+        return true;
+    }
+    
+    // Saves all in-memory data to storage: stored rows are replaced by the in-memory ones and rows
+    // no longer held in memory are deleted. Storage is not cleared first, so bookings archived to
+    // cold storage (never loaded into memory) keep their history.
+    // Returns false if any write did not reach storage.
+    public boolean saveAllDataToStorage() {
         if (storageService == null) {
             System.err.println("No storage service configured.");
-            return;
+            return false;
         }
         
         System.out.println("Saving all data to storage...");
         
-        storageService.clearAll();
+        // Let queued writes land first so they cannot overwrite the snapshot afterwards
+        flushPendingWrites().join();
         
-        for (UserAccount user : users) {
-            storageService.saveUser(user);
+        List<UserAccount> userList = new ArrayList<>(users);
+        List<Room> roomList = new ArrayList<>(rooms);
+        List<Booking> bookingList = new ArrayList<>(bookings);
+        
+        // One batch per file instead of one rewrite per row
+        boolean stored = storageService.saveAllUsers(userList);
+        stored &= storageService.saveAllRooms(roomList);
+        stored &= storageService.saveAllBookings(bookingList);
+        
+        // Rows no longer held in memory are removed in one batch per file. Bookings go first,
+        // so no stored booking is left pointing at a deleted user or room
+        Set<Integer> staleBookings = new HashSet<>();
+        storageService.loadAllBookings().forEach(booking -> staleBookings.add(booking.getBookingId()));
+        bookingList.forEach(booking -> staleBookings.remove(booking.getBookingId()));
+        stored &= storageService.deleteAllBookings(staleBookings);
+        Set<Integer> staleRooms = new HashSet<>();
+        storageService.loadAllRooms().forEach(room -> staleRooms.add(room.getRoomId()));
+        roomList.forEach(room -> staleRooms.remove(room.getRoomId()));
+        stored &= storageService.deleteAllRooms(staleRooms);
+        Set<Integer> staleUsers = new HashSet<>();
+        storageService.loadAllUsers().forEach(user -> staleUsers.add(user.getUserId()));
+        userList.forEach(user -> staleUsers.remove(user.getUserId()));
+        stored &= storageService.deleteAllUsers(staleUsers);
+        
+        if (stored) {
+            System.out.println("All data saved to storage.");
+        } else {
+            System.err.println("Error saving data: some writes did not reach storage.");
+        }
+        return stored;
+    }
+    
+    // Updates a booking's state in storage
+    public CompletableFuture<Void> persistBookingUpdate(Booking booking) {
+        if (booking == null) {
+            return CompletableFuture.completedFuture(null);
         }
+        return persistBooking(booking, false);
+    }
+    
+    
+    // ================= //
+    // WRITE-BEHIND MODE //
+    // ================= //
+    
+    // Queues storage writes instead of performing them on the calling thread.
+    // Callers block once `capacity` distinct entities are waiting to be written.
+    public void enableWriteBehind(int capacity) {
+        if (storageService == null) {
+            throw new IllegalStateException("Storage service must be set before enabling write-behind.");
+        }
+        disableWriteBehind();
+        writeBehindQueue = new WriteBehindQueue(storageService, capacity);
         
-        for (Room room : rooms) {
-            storageService.saveRoom(room);
+        // Persist whatever is still queued if the JVM exits
+        WriteBehindQueue queue = writeBehindQueue;
+        writeBehindShutdownHook = new Thread(queue::shutdown, "write-behind-shutdown");
+        Runtime.getRuntime().addShutdownHook(writeBehindShutdownHook);
+    }
+    
+    // Writes everything still queued, then goes back to synchronous writes.
+    public void disableWriteBehind() {
+        if (writeBehindQueue == null) return;
+        
+        writeBehindQueue.shutdown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(writeBehindShutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down; the hook is running or has run
+        }
+        writeBehindQueue = null;
+        writeBehindShutdownHook = null;
+    }
+    
+    public boolean isWriteBehindEnabled() {
+        return writeBehindQueue != null;
+    }
+    
+    // Completes once every change made so far has reached storage.
+    public CompletableFuture<Void> flushPendingWrites() {
+        if (writeBehindQueue == null) {
+            return CompletableFuture.completedFuture(null);
         }
+        return writeBehindQueue.flush();
+    }
+    
+    // ========= //
+    // SNAPSHOTS //
+    // ========= //
+    
+    // Keeps a binary snapshot of all data at `path`, rewritten every intervalMillis and when the JVM exits.
+    // Enable before setStorageService so startup loads the snapshot when it is newer than storage.
+    public void enableSnapshots(String path, long intervalMillis) {
+        if (path == null || path.trim().isEmpty()) {
+            throw new IllegalArgumentException("Snapshot path cannot be empty.");
+        }
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Snapshot interval must be positive.");
+        }
+        disableSnapshots();
+        snapshotFile = new File(path);
         
-        for (Booking booking : bookings) {
-            storageService.saveBooking(booking);
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(this::writeSnapshot, intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+        
+        snapshotShutdownHook = new Thread(this::writeSnapshot, "snapshot-shutdown");
+        Runtime.getRuntime().addShutdownHook(snapshotShutdownHook);
+    }
+    
+    // Stops periodic and shutdown snapshots. The last snapshot file is left in place.
+    public void disableSnapshots() {
+        if (snapshotFile == null) return;
+        
+        snapshotScheduler.shutdownNow();
+        try {
+            Runtime.getRuntime().removeShutdownHook(snapshotShutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down; the hook is running or has run
+        }
+        snapshotFile = null;
+        snapshotScheduler = null;
+        snapshotShutdownHook = null;
+    }
+    
+    public boolean isSnapshotEnabled() {
+        return snapshotFile != null;
+    }
+    
+    // Writes the current in-memory data to the snapshot file.
+    // Queued writes are flushed first, so the snapshot is never older than what storage holds.
+    public synchronized void writeSnapshot() {
+        File file = snapshotFile;
+        if (file == null) {
+            throw new IllegalStateException("Snapshots are not enabled.");
+        }
+        flushPendingWrites().join();
+        try {
+            BinarySnapshot.write(file, new ArrayList<>(users), new ArrayList<>(rooms), new ArrayList<>(bookings));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error writing snapshot: " + e.getMessage());
         }
+    }
+    
+    // ================ //
+    // EXTERNAL CHANGES //
+    // ================ //
+    
+    // Polls the storage's generation counters every pollMillis and merges what other processes changed.
+    // Requires a storage service that tracks generations (e.g. CSVStorageService with shared access on).
+    public void enableExternalChangeDetection(long pollMillis) {
+        if (storageService == null || storageService.getGenerations() == null) {
+            throw new IllegalStateException("Storage service does not track changes from other processes.");
+        }
+        if (pollMillis <= 0) {
+            throw new IllegalArgumentException("Poll interval must be positive.");
+        }
+        disableExternalChangeDetection();
         
-        System.out.println("All data saved to storage.");
+        changeWatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "storage-change-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        changeWatcher.scheduleWithFixedDelay(() -> {
+            try {
+                refreshFromStorage();
+            } catch (RuntimeException e) {
+                System.err.println("Error refreshing from storage: " + e.getMessage());
+            }
+        }, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
     }
     
-    // Updates a booking's state in storage
-    public void persistBookingUpdate(Booking booking) {
-        if (storageService != null && booking != null) {
-            storageService.updateBooking(booking);
+    public void disableExternalChangeDetection() {
+        if (changeWatcher == null) return;
+        
+        changeWatcher.shutdownNow();
+        changeWatcher = null;
+    }
+    
+    public boolean isExternalChangeDetectionEnabled() {
+        return changeWatcher != null;
+    }
+    
+    // Reloads only the entity types another process wrote since the last load and merges them in.
+    // Generations produced by our own writes are skipped, since memory already holds those changes.
+    // Objects that still exist are updated in place, so references held elsewhere (and observers
+    // attached to bookings) stay valid. Returns false if nothing was reloaded.
+    // Holds the write lock, so bookings made meanwhile wait and then check against the merged data.
+    public boolean refreshFromStorage() {
+        if (storageService == null) return false;
+        
+        dataLock.writeLock().lock();
+        try {
+            return refreshFromStorageLocked();
+        } finally {
+            dataLock.writeLock().unlock();
+        }
+    }
+    
+    private boolean refreshFromStorageLocked() {
+        DataGenerations current = storageService.getGenerations();
+        DataGenerations previous = loadedGenerations;
+        if (current == null || current.equals(previous)) {
+            return false;
+        }
+        // Our queued writes must land first, or the reload would undo them in memory
+        flushPendingWrites().join();
+        current = storageService.getGenerations();
+        
+        boolean all = previous == null;
+        // Up to these generations every write was ours; only a counter past them needs a reload
+        DataGenerations own = all ? null : storageService.skipOwnWrites(previous);
+        boolean reloaded = false;
+        if (all || changedElsewhere(previous.users, own.users, current.users)) {
+            mergeUsers(storageService.loadAllUsers());
+            reloaded = true;
+        }
+        if (all || changedElsewhere(previous.rooms, own.rooms, current.rooms)) {
+            mergeRooms(storageService.loadAllRooms());
+            reloaded = true;
+        }
+        if (all || changedElsewhere(previous.bookings, own.bookings, current.bookings)) {
+            mergeBookings(storageService.loadAllBookings());
+            reloaded = true;
+        }
+        loadedGenerations = current;
+        return reloaded;
+    }
+    
+    // True if a counter moved beyond the run of our own writes (or went back, as when the counters were reset).
+    private static boolean changedElsewhere(long previous, long own, long current) {
+        return current > own || current < previous;
+    }
+    
+    // The merge methods build new collections and swap them in, so callers iterating the old ones are not disturbed.
+    // Entries left in `current` after the loop no longer exist in storage.
+    private void mergeUsers(List<UserAccount> loadedUsers) {
+        Map<Integer, UserAccount> current = new HashMap<>();
+        for (UserAccount user : users) {
+            current.put(user.getUserId(), user);
+        }
+        List<UserAccount> merged = new ArrayList<>(loadedUsers.size());
+        int changed = 0;
+        for (UserAccount loaded : loadedUsers) {
+            UserAccount existing = current.remove(loaded.getUserId());
+            if (existing == null || existing.getClass() != loaded.getClass()
+                    || (existing instanceof AdminAccount
+                        && ((AdminAccount) existing).isSuperAdmin() != ((AdminAccount) loaded).isSuperAdmin())) {
+                merged.add(loaded);
+                changed++;
+                continue;
+            }
+            if (!sameUser(existing, loaded)) {
+                existing.email = loaded.email;
+                existing.password = loaded.password;
+                existing.verified = loaded.verified;
+                existing.status = loaded.status;
+                existing.organizationId = loaded.organizationId;
+                existing.studentNumber = loaded.studentNumber;
+                changed++;
+            }
+            merged.add(existing);
+        }
+        this.users = new ConcurrentLinkedQueue<>(merged);
+        indexUsers(); // Emails of existing users may have changed
+        System.out.println("  Refreshed users: " + changed + " changed, " + current.size() + " removed");
+    }
+    
+    private void mergeRooms(List<Room> loadedRooms) {
+        Map<Integer, Room> current = new HashMap<>();
+        for (Room room : rooms) {
+            current.put(room.getRoomId(), room);
+        }
+        List<Room> merged = new ArrayList<>(loadedRooms.size());
+        int changed = 0;
+        for (Room loaded : loadedRooms) {
+            Room existing = current.remove(loaded.getRoomId());
+            if (existing == null) {
+                merged.add(loaded);
+                changed++;
+                continue;
+            }
+            if (!sameRoom(existing, loaded)) {
+                existing.building = loaded.building;
+                existing.roomNumber = loaded.roomNumber;
+                existing.capacity = loaded.capacity;
+                existing.status = loaded.status;
+                changed++;
+            }
+            merged.add(existing);
+        }
+        this.rooms = new ConcurrentLinkedQueue<>(merged);
+        indexRooms();
+        roomCapacities.rebuild(merged); // Capacity and status of existing rooms may have changed too
+        System.out.println("  Refreshed rooms: " + changed + " changed, " + current.size() + " removed");
+    }
+    
+    private void mergeBookings(List<Booking> loadedBookings) {
+        Map<Integer, Booking> current = new HashMap<>();
+        for (Booking booking : bookings) {
+            current.put(booking.getBookingId(), booking);
+        }
+        List<Booking> merged = new ArrayList<>(loadedBookings.size());
+        int changed = 0;
+        for (Booking loaded : loadedBookings) {
+            Booking existing = current.remove(loaded.getBookingId());
+            if (existing == null
+                    || existing.getUser().getUserId() != loaded.getUser().getUserId()
+                    || existing.getRoom().getRoomId() != loaded.getRoom().getRoomId()) {
+                merged.add(relink(loaded, usersById, roomsById));
+                changed++;
+                continue;
+            }
+            if (!sameBooking(existing, loaded)) {
+                existing.startTime = loaded.startTime;
+                existing.endTime = loaded.endTime;
+                existing.setTotalAmount(loaded.getTotalAmount());
+                existing.setDepositAmount(loaded.getDepositAmount());
+                if (!existing.getStatus().equals(loaded.getStatus())) {
+                    existing.setState(loaded.getState()); // Notifies the booking's observers
+                }
+                changed++;
+            }
+            merged.add(existing);
+        }
+        this.bookings = new ConcurrentLinkedQueue<>(merged);
+        indexBookings();
+        roomSchedules.rebuild(merged); // Times of existing bookings may have changed too
+        System.out.println("  Refreshed bookings: " + changed + " changed, " + current.size() + " removed");
+    }
+    
+    // Rebuilds a loaded booking around the in-memory user and room objects.
+    private static Booking relink(Booking loaded, Map<Integer, UserAccount> usersById, Map<Integer, Room> roomsById) {
+        UserAccount user = usersById.get(loaded.getUser().getUserId());
+        Room room = roomsById.get(loaded.getRoom().getRoomId());
+        if (user == null || room == null) {
+            return loaded;
+        }
+        Booking booking = new Booking(loaded.getBookingId(), loaded.getStartTime(), loaded.getEndTime(),
+                loaded.getTotalAmount(), loaded.getDepositAmount(), user, room);
+        if (!booking.getStatus().equals(loaded.getStatus())) {
+            booking.setState(loaded.getState());
+        }
+        return booking;
+    }
+    
+    private static boolean sameUser(UserAccount a, UserAccount b) {
+        return Objects.equals(a.email, b.email) && Objects.equals(a.password, b.password)
+                && a.verified == b.verified && Objects.equals(a.status, b.status)
+                && Objects.equals(a.organizationId, b.organizationId)
+                && Objects.equals(a.studentNumber, b.studentNumber);
+    }
+    
+    private static boolean sameRoom(Room a, Room b) {
+        return Objects.equals(a.building, b.building) && Objects.equals(a.roomNumber, b.roomNumber)
+                && a.capacity == b.capacity && Objects.equals(a.status, b.status);
+    }
+    
+    private static boolean sameBooking(Booking a, Booking b) {
+        return a.getStartTime().equals(b.getStartTime()) && a.getEndTime().equals(b.getEndTime())
+                && a.getStatus().equals(b.getStatus())
+                && sameMoney(a.getTotalAmount(), b.getTotalAmount())
+                && sameMoney(a.getDepositAmount(), b.getDepositAmount());
+    }
+    
+    private static boolean sameMoney(Money a, Money b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getAmount() == b.getAmount() && Objects.equals(a.getCurrency(), b.getCurrency());
+    }
+    
+    // The index methods rebuild the lookup tables of one collection and swap them in whole, so readers
+    // never see a half-built table. Where a collection holds duplicates, the first entry wins, as it did
+    // when lookups scanned the list.
+    private void indexUsers() {
+        Map<Integer, UserAccount> byId = new ConcurrentHashMap<>();
+        Map<String, UserAccount> byEmail = new ConcurrentHashMap<>();
+        for (UserAccount user : users) {
+            byId.putIfAbsent(user.getUserId(), user);
+            if (user.getEmail() != null) {
+                byEmail.putIfAbsent(user.getEmail(), user);
+            }
+        }
+        usersById = byId;
+        usersByEmail = byEmail;
+    }
+    
+    private void indexRooms() {
+        Map<Integer, Room> byId = new ConcurrentHashMap<>();
+        for (Room room : rooms) {
+            byId.putIfAbsent(room.getRoomId(), room);
+        }
+        roomsById = byId;
+    }
+    
+    private void indexBookings() {
+        Map<Integer, Booking> byId = new ConcurrentHashMap<>();
+        Map<Integer, Queue<Booking>> byUser = new ConcurrentHashMap<>();
+        for (Booking booking : bookings) {
+            indexBooking(booking, byId, byUser);
+        }
+        bookingsById = byId;
+        bookingsByUser = byUser;
+    }
+    
+    private static void indexBooking(Booking booking, Map<Integer, Booking> byId, Map<Integer, Queue<Booking>> byUser) {
+        byId.putIfAbsent(booking.getBookingId(), booking);
+        byUser.computeIfAbsent(booking.getUser().getUserId(), id -> new ConcurrentLinkedQueue<>()).add(booking);
+    }
+    
+    // Each persist method writes synchronously, or queues the write in write-behind mode.
+    // The future completes once the write has reached storage (at once without a storage service).
+    private CompletableFuture<Void> persistUser(UserAccount user) {
+        if (writeBehindQueue != null) {
+            return writeBehindQueue.submitUser(user);
+        }
+        if (storageService == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return written(storageService.saveUser(user), "user " + user.getUserId());
+    }
+    
+    private CompletableFuture<Void> persistRoom(Room room, boolean isNew) {
+        if (writeBehindQueue != null) {
+            return writeBehindQueue.submitRoom(room);
+        }
+        if (storageService == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        boolean stored = isNew ? storageService.saveRoom(room) : storageService.updateRoom(room);
+        return written(stored, "room " + room.getRoomId());
+    }
+    
+    private CompletableFuture<Void> persistBooking(Booking booking, boolean isNew) {
+        if (writeBehindQueue != null) {
+            return writeBehindQueue.submitBooking(booking);
+        }
+        if (storageService == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        boolean stored = isNew ? storageService.saveBooking(booking) : storageService.updateBooking(booking);
+        return written(stored, "booking " + booking.getBookingId());
+    }
+    
+    private static CompletableFuture<Void> written(boolean stored, String entity) {
+        if (stored) {
+            return CompletableFuture.completedFuture(null);
         }
+        return CompletableFuture.failedFuture(new IllegalStateException("Could not store " + entity));
     }
 
 }
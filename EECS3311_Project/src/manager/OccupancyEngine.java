@@ -0,0 +1,317 @@
+package manager;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import booking.model.Booking;
+
+/**
+ * Busy/free bitmaps of every room, one bit per SLOT_MINUTES slot of each local day, for kiosk and
+ * search screens that ask about many rooms and days at once. A slot is busy when an active booking
+ * covers any part of it. Window checks and heatmaps combine whole 64-bit words of these bitmaps.
+ *
+ * The engine follows the room schedule index: bits are set as bookings are filed, and the days a
+ * dropped booking covered are recomputed from the bookings still in the index. Answers are at slot
+ * granularity; BookingManager's own checks remain the exact ones.
+ *
+ * Each room's bitmaps are locked on their own, so a query sees every room in a consistent state
+ * but a multi-room answer is not one snapshot of all rooms.
+ */
+public class OccupancyEngine implements RoomScheduleIndex.Listener {
+
+    public static final int SLOT_MINUTES = 15;
+    public static final int SLOTS_PER_DAY = 24 * 60 / SLOT_MINUTES;
+    private static final int WORDS_PER_DAY = (SLOTS_PER_DAY + 63) / 64;
+
+    private final RoomScheduleIndex schedule;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    // roomId -> epoch day -> busy slots (bit i of the day = slot i); days without bookings are absent.
+    // A room's day map is guarded by its own monitor.
+    private final Map<Integer, Map<Long, long[]>> busyDays = new ConcurrentHashMap<>();
+
+
+    OccupancyEngine(RoomScheduleIndex schedule) {
+        this.schedule = schedule;
+        schedule.addListener(this); // Fills the bitmaps
+    }
+
+    // ======= //
+    // QUERIES //
+    // ======= //
+
+    // True if none of the slots [startTime, endTime) touches is busy in the room.
+    public boolean isFree(int roomId, Date startTime, Date endTime) {
+        return isFree(busyDays.get(roomId), windowMasks(startTime, endTime));
+    }
+
+    // The rooms, of those given, with no busy slot in [startTime, endTime), in the given order.
+    // The window is turned into masks once; each room then costs one AND per word of each day.
+    public List<Integer> findFreeRooms(Collection<Integer> roomIds, Date startTime, Date endTime) {
+        Map<Long, long[]> window = windowMasks(startTime, endTime);
+        List<Integer> free = new ArrayList<>();
+        for (int roomId : roomIds) {
+            if (isFree(busyDays.get(roomId), window)) {
+                free.add(roomId);
+            }
+        }
+        return free;
+    }
+
+    // Busy slots of a room on a day (bit i = slot i, starting at midnight).
+    public long[] getBusySlots(int roomId, LocalDate day) {
+        Map<Long, long[]> days = busyDays.get(roomId);
+        if (days == null) {
+            return new long[WORDS_PER_DAY];
+        }
+        synchronized (days) {
+            long[] words = days.get(day.toEpochDay());
+            return words == null ? new long[WORDS_PER_DAY] : words.clone();
+        }
+    }
+
+    // Free/busy grid of the rooms over `days` days from firstDay.
+    public Heatmap getHeatmap(List<Integer> roomIds, LocalDate firstDay, int days) {
+        if (roomIds == null || firstDay == null) {
+            throw new IllegalArgumentException("Rooms and first day cannot be null.");
+        }
+        if (days <= 0) {
+            throw new IllegalArgumentException("Number of days must be positive.");
+        }
+        long first = firstDay.toEpochDay();
+        long[] words = new long[roomIds.size() * days * WORDS_PER_DAY];
+        for (int row = 0; row < roomIds.size(); row++) {
+            Map<Long, long[]> roomDays = busyDays.get(roomIds.get(row));
+            if (roomDays == null) {
+                continue;
+            }
+            synchronized (roomDays) {
+                for (int day = 0; day < days; day++) {
+                    long[] busy = roomDays.get(first + day);
+                    if (busy != null) {
+                        System.arraycopy(busy, 0, words, (row * days + day) * WORDS_PER_DAY, WORDS_PER_DAY);
+                    }
+                }
+            }
+        }
+        return new Heatmap(new ArrayList<>(roomIds), firstDay, days, words);
+    }
+
+    private static boolean isFree(Map<Long, long[]> roomDays, Map<Long, long[]> window) {
+        if (roomDays == null) {
+            return true;
+        }
+        synchronized (roomDays) {
+            for (Map.Entry<Long, long[]> day : window.entrySet()) {
+                long[] busy = roomDays.get(day.getKey());
+                if (busy == null) {
+                    continue;
+                }
+                long[] mask = day.getValue();
+                for (int w = 0; w < WORDS_PER_DAY; w++) {
+                    if ((busy[w] & mask[w]) != 0) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // Slots [startTime, endTime) touches, per epoch day.
+    private Map<Long, long[]> windowMasks(Date startTime, Date endTime) {
+        if (startTime == null || endTime == null) {
+            throw new IllegalArgumentException("Start and end times cannot be null.");
+        }
+        if (!startTime.before(endTime)) {
+            throw new IllegalArgumentException("Start time must be before end time.");
+        }
+        Map<Long, long[]> masks = new HashMap<>();
+        mark(masks, startTime.getTime(), endTime.getTime(), Long.MIN_VALUE, Long.MAX_VALUE);
+        return masks;
+    }
+
+    // ============== //
+    // INDEX LISTENER //
+    // ============== //
+
+    // Called with the room's schedule locked, so a room's changes arrive one at a time and its
+    // schedule cannot change while the engine reads it back.
+    @Override
+    public void bookingFiled(int roomId, long start, long end) {
+        Map<Long, long[]> roomDays = busyDays.computeIfAbsent(roomId, id -> new HashMap<>());
+        synchronized (roomDays) {
+            mark(roomDays, start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+    }
+
+    // Another booking may share a slot with the dropped one, so its days are rebuilt from the index.
+    @Override
+    public void bookingUnfiled(int roomId, long start, long end) {
+        Map<Long, long[]> roomDays = busyDays.get(roomId);
+        if (roomDays == null) {
+            return;
+        }
+        long lastDay = dayOf(end - 1);
+        for (long day = dayOf(start); day <= lastDay; day++) {
+            long dayStart = startOfDay(day);
+            long dayEnd = startOfDay(day + 1);
+            List<Booking> remaining = schedule.findOverlapping(roomId, dayStart, dayEnd);
+            synchronized (roomDays) {
+                roomDays.remove(day);
+                for (Booking booking : remaining) {
+                    mark(roomDays, booking.getStartTime().getTime(), booking.getEndTime().getTime(), dayStart, dayEnd);
+                }
+            }
+        }
+        synchronized (roomDays) {
+            if (roomDays.isEmpty()) {
+                busyDays.remove(roomId, roomDays);
+            }
+        }
+    }
+
+    // Called with the whole index locked.
+    @Override
+    public void scheduleRebuilt() {
+        busyDays.clear();
+        for (Booking booking : schedule.getActiveBookings()) {
+            bookingFiled(booking.getRoom().getRoomId(), booking.getStartTime().getTime(), booking.getEndTime().getTime());
+        }
+    }
+
+    // ======= //
+    // BITMAPS //
+    // ======= //
+
+    // Sets the bits of the slots [start, end) touches, clipped to [clipFrom, clipTo).
+    private void mark(Map<Long, long[]> days, long start, long end, long clipFrom, long clipTo) {
+        start = Math.max(start, clipFrom);
+        end = Math.min(end, clipTo);
+        if (start >= end) {
+            return;
+        }
+        long firstDay = dayOf(start);
+        long lastDay = dayOf(end - 1);
+        int firstSlot = slotOf(start);
+        int lastSlot = slotOf(end - 1); // Slot holding the booking's last millisecond
+        for (long day = firstDay; day <= lastDay; day++) {
+            long[] words = days.computeIfAbsent(day, d -> new long[WORDS_PER_DAY]);
+            setRange(words, day == firstDay ? firstSlot : 0, day == lastDay ? lastSlot : SLOTS_PER_DAY - 1);
+        }
+    }
+
+    // Sets bits from..to (inclusive) a word at a time.
+    private static void setRange(long[] words, int from, int to) {
+        for (int w = from >>> 6; w <= to >>> 6; w++) {
+            int low = Math.max(from, w << 6) & 63;
+            int high = Math.min(to, (w << 6) + 63) & 63;
+            words[w] |= (-1L >>> (63 - (high - low))) << low;
+        }
+    }
+
+    private long dayOf(long millis) {
+        return Instant.ofEpochMilli(millis).atZone(zone).toLocalDate().toEpochDay();
+    }
+
+    private int slotOf(long millis) {
+        ZonedDateTime time = Instant.ofEpochMilli(millis).atZone(zone);
+        return (time.getHour() * 60 + time.getMinute()) / SLOT_MINUTES;
+    }
+
+    private long startOfDay(long epochDay) {
+        return LocalDate.ofEpochDay(epochDay).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Free/busy grid of some rooms over consecutive days, copied out of the engine so it can be
+     * read without locking. Rows follow the order of the room ids it was built for.
+     */
+    public static final class Heatmap {
+
+        private final List<Integer> roomIds;
+        private final LocalDate firstDay;
+        private final int days;
+        // [row][day][word], flattened
+        private final long[] words;
+
+
+        private Heatmap(List<Integer> roomIds, LocalDate firstDay, int days, long[] words) {
+            this.roomIds = roomIds;
+            this.firstDay = firstDay;
+            this.days = days;
+            this.words = words;
+        }
+
+        public List<Integer> getRoomIds() {
+            return new ArrayList<>(roomIds);
+        }
+
+        public LocalDate getFirstDay() {
+            return firstDay;
+        }
+
+        public int getDays() {
+            return days;
+        }
+
+        public boolean isBusy(int row, int day, int slot) {
+            if (slot < 0 || slot >= SLOTS_PER_DAY) {
+                throw new IllegalArgumentException("Slot must be between 0 and " + (SLOTS_PER_DAY - 1) + ".");
+            }
+            return (words[offset(row, day) + (slot >>> 6)] & (1L << slot)) != 0;
+        }
+
+        public int getFreeSlotCount(int row, int day) {
+            int offset = offset(row, day);
+            int busy = 0;
+            for (int w = 0; w < WORDS_PER_DAY; w++) {
+                busy += Long.bitCount(words[offset + w]);
+            }
+            return SLOTS_PER_DAY - busy;
+        }
+
+        // Slots of the day in which at least one of the rooms is free: the complement of the AND of all rows.
+        public long[] getSlotsWithFreeRoom(int day) {
+            long[] allBusy = new long[WORDS_PER_DAY];
+            Arrays.fill(allBusy, -1L);
+            for (int row = 0; row < roomIds.size(); row++) {
+                int offset = offset(row, day);
+                for (int w = 0; w < WORDS_PER_DAY; w++) {
+                    allBusy[w] &= words[offset + w];
+                }
+            }
+            long[] free = new long[WORDS_PER_DAY];
+            for (int w = 0; w < WORDS_PER_DAY; w++) {
+                free[w] = ~allBusy[w];
+            }
+            clearUnusedBits(free);
+            return free;
+        }
+
+        private int offset(int row, int day) {
+            if (row < 0 || row >= roomIds.size() || day < 0 || day >= days) {
+                throw new IllegalArgumentException("No such row or day in the heatmap.");
+            }
+            return (row * days + day) * WORDS_PER_DAY;
+        }
+
+        // Clears the bits past the last slot of a day.
+        private static void clearUnusedBits(long[] dayWords) {
+            int used = SLOTS_PER_DAY - (WORDS_PER_DAY - 1) * 64;
+            if (used < 64) {
+                dayWords[WORDS_PER_DAY - 1] &= (1L << used) - 1;
+            }
+        }
+    }
+}
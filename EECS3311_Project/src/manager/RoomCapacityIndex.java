@@ -0,0 +1,84 @@
+package manager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import manager.room.Room;
+
+/**
+ * Rooms grouped by status and ordered by capacity, so "rooms of a status with at least N seats"
+ * is a tailMap view walked smallest first instead of a filter over every room.
+ * A room whose status or capacity changes must be passed to reindex.
+ */
+class RoomCapacityIndex {
+
+    // Where a room was filed, so it can be found again after its fields change
+    private static final class FiledKey {
+        final String status;
+        final int capacity;
+
+        FiledKey(String status, int capacity) {
+            this.status = status;
+            this.capacity = capacity;
+        }
+    }
+
+    // status -> capacity -> rooms of that capacity, in the order they were added
+    private final Map<String, TreeMap<Integer, List<Room>>> byStatus = new HashMap<>();
+    private final Map<Room, FiledKey> filedKeys = new HashMap<>();
+
+
+    synchronized void rebuild(Collection<Room> rooms) {
+        byStatus.clear();
+        filedKeys.clear();
+        for (Room room : rooms) {
+            add(room);
+        }
+    }
+
+    // Files a room under its current status and capacity. Rooms already in the index are ignored.
+    synchronized void add(Room room) {
+        if (filedKeys.containsKey(room)) {
+            return;
+        }
+        FiledKey key = new FiledKey(room.getStatus(), room.getCapacity());
+        byStatus.computeIfAbsent(key.status, s -> new TreeMap<>())
+                .computeIfAbsent(key.capacity, c -> new ArrayList<>(1))
+                .add(room);
+        filedKeys.put(room, key);
+    }
+
+    // Files a room again after its status or capacity changed.
+    synchronized void reindex(Room room) {
+        FiledKey key = filedKeys.remove(room);
+        if (key != null) {
+            TreeMap<Integer, List<Room>> byCapacity = byStatus.get(key.status);
+            List<Room> sameCapacity = byCapacity.get(key.capacity);
+            sameCapacity.remove(room);
+            if (sameCapacity.isEmpty()) {
+                byCapacity.remove(key.capacity);
+            }
+        }
+        add(room);
+    }
+
+    // Rooms with the status and at least minCapacity seats, smallest first. The list is a copy,
+    // so callers may lock and book rooms while walking it.
+    synchronized List<Room> findRooms(String status, int minCapacity) {
+        List<Room> found = new ArrayList<>();
+        for (List<Room> sameCapacity : atLeast(status, minCapacity).values()) {
+            found.addAll(sameCapacity);
+        }
+        return found;
+    }
+
+    private NavigableMap<Integer, List<Room>> atLeast(String status, int minCapacity) {
+        TreeMap<Integer, List<Room>> byCapacity = byStatus.get(status);
+        return byCapacity == null ? new TreeMap<>() : byCapacity.tailMap(minCapacity, true);
+    }
+}
@@ -0,0 +1,236 @@
+package manager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import booking.model.Booking;
+import notifications.IBookingObserver;
+
+/**
+ * Active (CREATED or CHECKEDIN) bookings of each room, ordered by start time, so whether a room
+ * is free for a window is one range lookup instead of a scan over every booking ever made.
+ * The index observes the bookings it holds and drops them as soon as they are cancelled,
+ * completed or expired. A booking whose times change must be passed to reindex.
+ *
+ * Each room's schedule has its own lock, so rooms are filed and checked in parallel. Rebuilds
+ * take the whole index. Listeners hear about every booking filed or dropped, called with that
+ * room's schedule locked (so a room's changes arrive in order) and may read the index back;
+ * a listener must not hold its own lock while calling into the index.
+ */
+class RoomScheduleIndex implements IBookingObserver {
+
+    // Told about changes to the index, in the order they happen
+    interface Listener {
+        // An active booking of the room now covers [start, end)
+        void bookingFiled(int roomId, long start, long end);
+
+        // The booking that covered [start, end) in the room is no longer active (or is being refiled)
+        void bookingUnfiled(int roomId, long start, long end);
+
+        // The whole index was replaced
+        void scheduleRebuilt();
+    }
+
+    // Active bookings of one room by start time (a list per start, in case stored data overlaps).
+    // Guarded by its own monitor.
+    private static final class RoomSchedule {
+        final TreeMap<Long, List<Booking>> byStart = new TreeMap<>();
+        // Number of filed bookings of each length, so the longest is known exactly as bookings come and go
+        final TreeMap<Long, Integer> lengthCounts = new TreeMap<>();
+
+        // Longest filed booking: no booking starting earlier than `start - longest` can reach `start`
+        long longestMillis() {
+            return lengthCounts.isEmpty() ? 0 : lengthCounts.lastKey();
+        }
+    }
+
+    // Schedules are created on first use and only dropped by rebuild
+    private final Map<Integer, RoomSchedule> schedules = new ConcurrentHashMap<>();
+    // {start, end} each booking was filed with, so it can be found again if its fields change.
+    // An entry only changes with its room's schedule locked.
+    private final Map<Booking, long[]> filedTimes = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Read lock for single-room work, write lock to swap the whole contents
+    private final ReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+
+
+    // Registers a listener and hands it the current contents through scheduleRebuilt.
+    void addListener(Listener listener) {
+        rebuildLock.writeLock().lock();
+        try {
+            listeners.add(listener);
+            listener.scheduleRebuilt();
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+    }
+
+    // Replaces the index contents with the active bookings of the list.
+    void rebuild(Collection<Booking> bookings) {
+        rebuildLock.writeLock().lock();
+        try {
+            for (Booking booking : filedTimes.keySet()) {
+                booking.detach(this);
+            }
+            schedules.clear();
+            filedTimes.clear();
+            for (Booking booking : bookings) {
+                file(booking, false);
+            }
+            for (Listener listener : listeners) {
+                listener.scheduleRebuilt();
+            }
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+    }
+
+    // Files a booking under its room if it is active. Bookings already in the index are ignored.
+    void add(Booking booking) {
+        rebuildLock.readLock().lock();
+        try {
+            file(booking, true);
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    // Files a booking again after its start or end time changed.
+    void reindex(Booking booking) {
+        rebuildLock.readLock().lock();
+        try {
+            synchronized (scheduleOf(booking.getRoom().getRoomId())) {
+                unfile(booking);
+                file(booking, true);
+            }
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    private RoomSchedule scheduleOf(int roomId) {
+        return schedules.computeIfAbsent(roomId, id -> new RoomSchedule());
+    }
+
+    private void file(Booking booking, boolean notify) {
+        if (!isActive(booking)) {
+            return;
+        }
+        int roomId = booking.getRoom().getRoomId();
+        RoomSchedule schedule = scheduleOf(roomId);
+        synchronized (schedule) {
+            if (filedTimes.containsKey(booking)) {
+                return;
+            }
+            long start = booking.getStartTime().getTime();
+            long end = booking.getEndTime().getTime();
+            schedule.byStart.computeIfAbsent(start, s -> new ArrayList<>(1)).add(booking);
+            schedule.lengthCounts.merge(end - start, 1, Integer::sum);
+            filedTimes.put(booking, new long[] {start, end});
+            booking.attach(this);
+            if (notify) {
+                for (Listener listener : listeners) {
+                    listener.bookingFiled(roomId, start, end);
+                }
+            }
+        }
+    }
+
+    // Takes a booking out of its room's schedule, leaving the observer attached.
+    private void unfile(Booking booking) {
+        int roomId = booking.getRoom().getRoomId();
+        RoomSchedule schedule = schedules.get(roomId);
+        if (schedule == null) {
+            return;
+        }
+        synchronized (schedule) {
+            long[] times = filedTimes.remove(booking);
+            if (times == null) {
+                return;
+            }
+            List<Booking> sameStart = schedule.byStart.get(times[0]);
+            sameStart.remove(booking);
+            if (sameStart.isEmpty()) {
+                schedule.byStart.remove(times[0]);
+            }
+            schedule.lengthCounts.computeIfPresent(times[1] - times[0], (length, count) -> count == 1 ? null : count - 1);
+            for (Listener listener : listeners) {
+                listener.bookingUnfiled(roomId, times[0], times[1]);
+            }
+        }
+    }
+
+    // True if no active booking of the room overlaps [startTime, endTime). O(log n) in the room's bookings.
+    boolean isFree(int roomId, Date startTime, Date endTime) {
+        return findOverlapping(roomId, startTime.getTime(), endTime.getTime(), true).isEmpty();
+    }
+
+    // Active bookings of the room that overlap [start, end), in start order.
+    List<Booking> findOverlapping(int roomId, long start, long end) {
+        return findOverlapping(roomId, start, end, false);
+    }
+
+    // All active bookings.
+    List<Booking> getActiveBookings() {
+        rebuildLock.readLock().lock();
+        try {
+            return new ArrayList<>(filedTimes.keySet());
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    private List<Booking> findOverlapping(int roomId, long start, long end, boolean firstOnly) {
+        List<Booking> overlapping = new ArrayList<>(1);
+        rebuildLock.readLock().lock();
+        try {
+            RoomSchedule schedule = schedules.get(roomId);
+            if (schedule == null) {
+                return overlapping;
+            }
+            synchronized (schedule) {
+                // Only bookings starting in [start - longest, end) can overlap; normally zero or one of them
+                for (List<Booking> sameStart : schedule.byStart.subMap(start - schedule.longestMillis(), true, end, false).values()) {
+                    for (Booking booking : sameStart) {
+                        if (booking.getEndTime().getTime() > start) {
+                            overlapping.add(booking);
+                            if (firstOnly) {
+                                return overlapping;
+                            }
+                        }
+                    }
+                }
+            }
+            return overlapping;
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    // Drops bookings that left the active states. Runs while the booking iterates its observers,
+    // so the index stays attached; it ignores further updates of a booking it does not hold.
+    @Override
+    public void update(Booking booking, String message) {
+        if (!isActive(booking)) {
+            rebuildLock.readLock().lock();
+            try {
+                unfile(booking);
+            } finally {
+                rebuildLock.readLock().unlock();
+            }
+        }
+    }
+
+    private static boolean isActive(Booking booking) {
+        String status = booking.getStatus();
+        return !(status.equals("CANCELLED") || status.equals("EXPIRED") || status.equals("COMPLETED"));
+    }
+}
@@ -0,0 +1,352 @@
+package storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import accounts.model.*;
+import booking.model.Booking;
+import manager.room.Room;
+import pricing.money.Money;
+
+/**
+ * Compact binary image of all users, rooms and bookings, used to skip CSV parsing at startup.
+ * Every string is written once to a dictionary and referenced by index; ids and counts are
+ * varints, timestamps are epoch millis (end time as a delta from start), and booking states
+ * and account types are ordinals. The file ends with a CRC32 of everything before it, and
+ * a file that fails the check (or has another version) is treated as absent.
+ */
+public class BinarySnapshot {
+
+    private static final int MAGIC = 0x424B534E; // "BKSN"
+    private static final int VERSION = 1;
+    private static final int CRC_BYTES = 8;
+
+    // State ordinals; the position in this array is what gets stored
+    private static final String[] BOOKING_STATUSES = {"CREATED", "CHECKEDIN", "COMPLETED", "CANCELLED", "EXPIRED"};
+    private static final AccountType[] ACCOUNT_TYPES = AccountType.values();
+
+    // User flag bits
+    private static final int VERIFIED = 1;
+    private static final int SUPER_ADMIN = 2;
+    // Booking flag bits (Money fields are nullable)
+    private static final int HAS_TOTAL = 1;
+    private static final int HAS_DEPOSIT = 2;
+
+    private final List<UserAccount> users;
+    private final List<Room> rooms;
+    private final List<Booking> bookings;
+
+
+    private BinarySnapshot(List<UserAccount> users, List<Room> rooms, List<Booking> bookings) {
+        this.users = users;
+        this.rooms = rooms;
+        this.bookings = bookings;
+    }
+
+    public List<UserAccount> getUsers() { return users; }
+    public List<Room> getRooms() { return rooms; }
+    public List<Booking> getBookings() { return bookings; }
+
+    // ======= //
+    // WRITING //
+    // ======= //
+
+    // Writes the snapshot to a temp file and moves it into place, so readers never see a partial file.
+    public static void write(File file, List<UserAccount> users, List<Room> rooms, List<Booking> bookings)
+            throws IOException {
+        Map<String, Integer> dictionary = buildDictionary(users, rooms, bookings);
+
+        // Unique temp name, so concurrent writers never interleave in one file
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024), crc))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+
+                writeBody(out, dictionary, users, rooms, bookings);
+
+                out.flush();
+                // The checksum covers every byte written before it
+                long checksum = crc.getValue();
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out.write((int) (checksum >>> shift) & 0xFF);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete(); // Only still there if writing or the move failed
+        }
+    }
+
+    // Dictionary, then users, rooms and bookings, each section prefixed with its count.
+    private static void writeBody(DataOutputStream out, Map<String, Integer> dictionary, List<UserAccount> users,
+            List<Room> rooms, List<Booking> bookings) throws IOException {
+        writeVarInt(out, dictionary.size());
+        for (String value : dictionary.keySet()) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+
+        writeVarInt(out, users.size());
+        for (UserAccount user : users) {
+            writeSignedVarInt(out, user.getUserId());
+            writeString(out, dictionary, user.getEmail());
+            writeString(out, dictionary, user.password);
+            out.writeByte(user.getAccountType().ordinal());
+            int flags = (user.isVerified() ? VERIFIED : 0)
+                    | (user instanceof AdminAccount && ((AdminAccount) user).isSuperAdmin() ? SUPER_ADMIN : 0);
+            out.writeByte(flags);
+            writeString(out, dictionary, user.getStatus());
+            writeString(out, dictionary, user.getOrganizationId());
+            writeString(out, dictionary, user.getStudentNumber());
+        }
+
+        writeVarInt(out, rooms.size());
+        for (Room room : rooms) {
+            writeSignedVarInt(out, room.getRoomId());
+            writeString(out, dictionary, room.getBuilding());
+            writeString(out, dictionary, room.getRoomNumber());
+            writeSignedVarInt(out, room.getCapacity());
+            writeString(out, dictionary, room.getStatus());
+        }
+
+        writeVarInt(out, bookings.size());
+        for (Booking booking : bookings) {
+            writeSignedVarInt(out, booking.getBookingId());
+            writeSignedVarInt(out, booking.getUser().getUserId());
+            writeSignedVarInt(out, booking.getRoom().getRoomId());
+            long start = booking.getStartTime().getTime();
+            writeSignedVarLong(out, start);
+            writeSignedVarLong(out, booking.getEndTime().getTime() - start);
+            out.writeByte(statusOrdinal(booking.getStatus()));
+
+            Money total = booking.getTotalAmount();
+            Money deposit = booking.getDepositAmount();
+            out.writeByte((total != null ? HAS_TOTAL : 0) | (deposit != null ? HAS_DEPOSIT : 0));
+            if (total != null) {
+                out.writeDouble(total.getAmount());
+                writeString(out, dictionary, total.getCurrency());
+            }
+            if (deposit != null) {
+                out.writeDouble(deposit.getAmount());
+                writeString(out, dictionary, deposit.getCurrency());
+            }
+        }
+    }
+
+    // Assigns each distinct non-null string an index, in first-use order.
+    private static Map<String, Integer> buildDictionary(List<UserAccount> users, List<Room> rooms,
+            List<Booking> bookings) {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (UserAccount user : users) {
+            addToDictionary(dictionary, user.getEmail());
+            addToDictionary(dictionary, user.password);
+            addToDictionary(dictionary, user.getStatus());
+            addToDictionary(dictionary, user.getOrganizationId());
+            addToDictionary(dictionary, user.getStudentNumber());
+        }
+        for (Room room : rooms) {
+            addToDictionary(dictionary, room.getBuilding());
+            addToDictionary(dictionary, room.getRoomNumber());
+            addToDictionary(dictionary, room.getStatus());
+        }
+        for (Booking booking : bookings) {
+            if (booking.getTotalAmount() != null) {
+                addToDictionary(dictionary, booking.getTotalAmount().getCurrency());
+            }
+            if (booking.getDepositAmount() != null) {
+                addToDictionary(dictionary, booking.getDepositAmount().getCurrency());
+            }
+        }
+        return dictionary;
+    }
+
+    private static void addToDictionary(Map<String, Integer> dictionary, String value) {
+        if (value != null && !dictionary.containsKey(value)) {
+            dictionary.put(value, dictionary.size());
+        }
+    }
+
+    // Index 0 means null; dictionary entry i is stored as i + 1.
+    private static void writeString(DataOutputStream out, Map<String, Integer> dictionary, String value)
+            throws IOException {
+        writeVarInt(out, value == null ? 0 : dictionary.get(value) + 1);
+    }
+
+    private static int statusOrdinal(String status) {
+        for (int i = 0; i < BOOKING_STATUSES.length; i++) {
+            if (BOOKING_STATUSES[i].equalsIgnoreCase(status)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown booking status: " + status);
+    }
+
+    // Unsigned LEB128: 7 bits per byte, high bit set on every byte but the last.
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    // Zigzag encoding keeps small negative numbers short.
+    private static void writeSignedVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarLong(out, ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+    }
+
+    private static void writeSignedVarLong(DataOutputStream out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    // ======= //
+    // READING //
+    // ======= //
+
+    // Reads a snapshot, or returns null if the file is missing, corrupt or from another version.
+    public static BinarySnapshot read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            if (bytes.length < 5 + CRC_BYTES) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - CRC_BYTES);
+            if (buffer.getLong(bytes.length - CRC_BYTES) != crc.getValue()) {
+                System.err.println("Snapshot checksum mismatch, ignoring " + file);
+                return null;
+            }
+            buffer.limit(bytes.length - CRC_BYTES);
+            if (buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+                System.err.println("Unsupported snapshot format, ignoring " + file);
+                return null;
+            }
+            return decode(buffer);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static BinarySnapshot decode(ByteBuffer in) {
+        String[] dictionary = new String[readVarInt(in)];
+        for (int i = 0; i < dictionary.length; i++) {
+            int length = readVarInt(in);
+            dictionary[i] = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        }
+
+        int userCount = readVarInt(in);
+        List<UserAccount> users = new ArrayList<>(userCount);
+        Map<Integer, UserAccount> usersById = new HashMap<>(userCount * 2);
+        for (int i = 0; i < userCount; i++) {
+            int userId = readSignedVarInt(in);
+            String email = readString(in, dictionary);
+            String password = readString(in, dictionary);
+            AccountType accountType = ACCOUNT_TYPES[in.get()];
+            int flags = in.get();
+            String status = readString(in, dictionary);
+            String organizationId = readString(in, dictionary);
+            String studentNumber = readString(in, dictionary);
+            UserAccount user = EntityRestorer.restoreUser(userId, email, password, accountType,
+                    (flags & VERIFIED) != 0, status, organizationId, studentNumber, (flags & SUPER_ADMIN) != 0);
+            if (user != null) {
+                users.add(user);
+                usersById.put(userId, user);
+            }
+        }
+
+        int roomCount = readVarInt(in);
+        List<Room> rooms = new ArrayList<>(roomCount);
+        Map<Integer, Room> roomsById = new HashMap<>(roomCount * 2);
+        for (int i = 0; i < roomCount; i++) {
+            Room room = new Room(readSignedVarInt(in), readString(in, dictionary), readString(in, dictionary),
+                    readSignedVarInt(in), readString(in, dictionary));
+            rooms.add(room);
+            roomsById.put(room.getRoomId(), room);
+        }
+
+        int bookingCount = readVarInt(in);
+        List<Booking> bookings = new ArrayList<>(bookingCount);
+        for (int i = 0; i < bookingCount; i++) {
+            int bookingId = readSignedVarInt(in);
+            UserAccount user = usersById.get(readSignedVarInt(in));
+            Room room = roomsById.get(readSignedVarInt(in));
+            long start = readSignedVarLong(in);
+            long end = start + readSignedVarLong(in);
+            String status = BOOKING_STATUSES[in.get()];
+            int flags = in.get();
+            Money total = (flags & HAS_TOTAL) != 0 ? new Money(in.getDouble(), readString(in, dictionary)) : null;
+            Money deposit = (flags & HAS_DEPOSIT) != 0 ? new Money(in.getDouble(), readString(in, dictionary)) : null;
+
+            if (user == null || room == null) {
+                System.err.println("Could not find user or room for booking: " + bookingId);
+                continue;
+            }
+            Booking booking = new Booking(bookingId, new Date(start), new Date(end), total, deposit, user, room);
+            EntityRestorer.restoreBookingState(booking, status);
+            bookings.add(booking);
+        }
+
+        if (in.hasRemaining()) {
+            throw new IllegalStateException("Trailing bytes in snapshot");
+        }
+        return new BinarySnapshot(users, rooms, bookings);
+    }
+
+    private static String readString(ByteBuffer in, String[] dictionary) {
+        int index = readVarInt(in);
+        return index == 0 ? null : dictionary[index - 1];
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        return (int) readVarLong(in);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint in snapshot");
+    }
+
+    private static int readSignedVarInt(ByteBuffer in) {
+        int raw = readVarInt(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    private static long readSignedVarLong(ByteBuffer in) {
+        long raw = readVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+}
@@ -0,0 +1,359 @@
+package storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import booking.model.Booking;
+import pricing.money.Money;
+
+/**
+ * Read-only columnar archive of bookings for reporting.
+ * Each column (ids, times, status, amounts in cents) is stored contiguously and memory-mapped,
+ * so scans and aggregates run over primitive buffers without creating Booking objects or
+ * copying the data onto the heap. Amounts are summed as stored; currencies are not converted.
+ *
+ * File layout (little-endian): 32-byte header (magic, version, row count), then the columns
+ * bookingId, userId, roomId (int), startTime, endTime (long millis), totalCents, depositCents
+ * (long) and status (byte ordinal), each starting on an 8-byte boundary.
+ */
+public class BookingArchive {
+
+    private static final int MAGIC = 0x424B4341; // "BKCA"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // Status ordinals, in the order they are stored
+    private static final String[] BOOKING_STATUSES = {"CREATED", "CHECKEDIN", "COMPLETED", "CANCELLED", "EXPIRED"};
+    // Bookings that hold their room: CREATED, CHECKEDIN and COMPLETED
+    public static final int OCCUPYING_STATUSES = 0b00111;
+    public static final int ALL_STATUSES = 0b11111;
+
+    private final int rowCount;
+    private final IntBuffer bookingIds;
+    private final IntBuffer userIds;
+    private final IntBuffer roomIds;
+    private final LongBuffer startTimes;
+    private final LongBuffer endTimes;
+    private final LongBuffer totalCents;
+    private final LongBuffer depositCents;
+    private final ByteBuffer statuses;
+
+
+    private BookingArchive(FileChannel channel, int rowCount) throws IOException {
+        this.rowCount = rowCount;
+        long offset = HEADER_SIZE;
+        bookingIds = map(channel, offset, rowCount * 4L).asIntBuffer();
+        offset = align(offset + rowCount * 4L);
+        userIds = map(channel, offset, rowCount * 4L).asIntBuffer();
+        offset = align(offset + rowCount * 4L);
+        roomIds = map(channel, offset, rowCount * 4L).asIntBuffer();
+        offset = align(offset + rowCount * 4L);
+        startTimes = map(channel, offset, rowCount * 8L).asLongBuffer();
+        offset += rowCount * 8L;
+        endTimes = map(channel, offset, rowCount * 8L).asLongBuffer();
+        offset += rowCount * 8L;
+        totalCents = map(channel, offset, rowCount * 8L).asLongBuffer();
+        offset += rowCount * 8L;
+        depositCents = map(channel, offset, rowCount * 8L).asLongBuffer();
+        offset += rowCount * 8L;
+        statuses = map(channel, offset, rowCount);
+    }
+
+    // ======= //
+    // OPENING //
+    // ======= //
+
+    // Maps an archive file. The mapping stays valid after the file channel is closed.
+    public static BookingArchive open(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ORDER);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a booking archive: " + path);
+            }
+            int rowCount = header.getInt();
+            if (channel.size() < fileSize(rowCount)) {
+                throw new IOException("Booking archive is truncated: " + path);
+            }
+            return new BookingArchive(channel, rowCount);
+        }
+    }
+
+    // Writes every booking of the storage service, including ones archived to cold storage,
+    // to a new archive, replacing any existing file.
+    public static void build(IStorageService source, String path) throws IOException {
+        try (Stream<Booking> bookings = source.streamBookingHistory()) {
+            write(bookings.iterator(), path);
+        }
+    }
+
+    // Writes the bookings column by column to a temporary file and moves it into place.
+    public static void write(Iterator<Booking> bookings, String path) throws IOException {
+        Columns columns = new Columns();
+        while (bookings.hasNext()) {
+            columns.add(bookings.next());
+        }
+
+        File target = new File(path);
+        File directory = target.getAbsoluteFile().getParentFile();
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        File temp = File.createTempFile(target.getName(), ".tmp", directory);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ORDER);
+                header.putInt(MAGIC).putInt(VERSION).putInt(columns.size);
+                out.write(header.array());
+                writeInts(out, columns.bookingIds, columns.size);
+                writeInts(out, columns.userIds, columns.size);
+                writeInts(out, columns.roomIds, columns.size);
+                writeLongs(out, columns.startTimes, columns.size);
+                writeLongs(out, columns.endTimes, columns.size);
+                writeLongs(out, columns.totalCents, columns.size);
+                writeLongs(out, columns.depositCents, columns.size);
+                out.write(columns.statuses, 0, columns.size);
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    // ======= //
+    // COLUMNS //
+    // ======= //
+
+    public int size() {
+        return rowCount;
+    }
+
+    public int getBookingId(int row) {
+        return bookingIds.get(row);
+    }
+
+    public int getUserId(int row) {
+        return userIds.get(row);
+    }
+
+    public int getRoomId(int row) {
+        return roomIds.get(row);
+    }
+
+    public long getStartTime(int row) {
+        return startTimes.get(row);
+    }
+
+    public long getEndTime(int row) {
+        return endTimes.get(row);
+    }
+
+    public String getStatus(int row) {
+        return BOOKING_STATUSES[statuses.get(row)];
+    }
+
+    public long getTotalCents(int row) {
+        return totalCents.get(row);
+    }
+
+    public long getDepositCents(int row) {
+        return depositCents.get(row);
+    }
+
+    // ===== //
+    // SCANS //
+    // ===== //
+
+    // Builds a status mask for the scan methods, e.g. statusMask("COMPLETED", "CHECKEDIN").
+    public static int statusMask(String... statusNames) {
+        int mask = 0;
+        for (String status : statusNames) {
+            int ordinal = Arrays.asList(BOOKING_STATUSES).indexOf(status.toUpperCase());
+            if (ordinal < 0) {
+                throw new IllegalArgumentException("Unknown booking status: " + status);
+            }
+            mask |= 1 << ordinal;
+        }
+        return mask;
+    }
+
+    // Rows of bookings that overlap [from, to) and have a status in the mask, in archive order.
+    public int[] findRows(long from, long to, int statusMask) {
+        int[] rows = new int[16];
+        int count = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (startTimes.get(row) < to && endTimes.get(row) > from && (statusMask >> statuses.get(row) & 1) != 0) {
+                if (count == rows.length) {
+                    rows = Arrays.copyOf(rows, count * 2);
+                }
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    public int countOverlapping(long from, long to, int statusMask) {
+        int count = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (startTimes.get(row) < to && endTimes.get(row) > from && (statusMask >> statuses.get(row) & 1) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Sum of total amounts, in cents, of bookings that start in [from, to) with a status in the mask.
+    public long sumTotalCents(long from, long to, int statusMask) {
+        long sum = 0;
+        for (int row = 0; row < rowCount; row++) {
+            long start = startTimes.get(row);
+            if (start >= from && start < to && (statusMask >> statuses.get(row) & 1) != 0) {
+                sum += totalCents.get(row);
+            }
+        }
+        return sum;
+    }
+
+    // Total amounts in cents per userId, for bookings that start in [from, to) with a status in the mask.
+    // Grouping by account type is a lookup of each key in the user table.
+    public Map<Integer, Long> sumTotalCentsByUser(long from, long to, int statusMask) {
+        Map<Integer, Long> sums = new HashMap<>();
+        for (int row = 0; row < rowCount; row++) {
+            long start = startTimes.get(row);
+            if (start >= from && start < to && (statusMask >> statuses.get(row) & 1) != 0) {
+                sums.merge(userIds.get(row), totalCents.get(row), Long::sum);
+            }
+        }
+        return sums;
+    }
+
+    // Booked milliseconds per roomId inside [from, to), with each booking clipped to the window.
+    // Only bookings holding their room (OCCUPYING_STATUSES) count. Overlapping bookings are added up.
+    public Map<Integer, Long> bookedMillisByRoom(long from, long to) {
+        Map<Integer, Long> booked = new HashMap<>();
+        for (int row = 0; row < rowCount; row++) {
+            long start = Math.max(startTimes.get(row), from);
+            long end = Math.min(endTimes.get(row), to);
+            if (start < end && (OCCUPYING_STATUSES >> statuses.get(row) & 1) != 0) {
+                booked.merge(roomIds.get(row), end - start, Long::sum);
+            }
+        }
+        return booked;
+    }
+
+    // Fraction of [from, to) each room is booked, from 0.0 up (overlaps can push it past 1.0).
+    public Map<Integer, Double> utilizationByRoom(long from, long to) {
+        if (to <= from) {
+            throw new IllegalArgumentException("Window end must be after its start");
+        }
+        Map<Integer, Double> utilization = new HashMap<>();
+        double window = to - from;
+        for (Map.Entry<Integer, Long> entry : bookedMillisByRoom(from, to).entrySet()) {
+            utilization.put(entry.getKey(), entry.getValue() / window);
+        }
+        return utilization;
+    }
+
+    // ======= //
+    // HELPERS //
+    // ======= //
+
+    private static MappedByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        buffer.order(ORDER);
+        return buffer;
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static long fileSize(int rowCount) {
+        long offset = HEADER_SIZE;
+        for (int i = 0; i < 3; i++) {
+            offset = align(offset + rowCount * 4L);
+        }
+        return offset + rowCount * 8L * 4 + rowCount;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(count * 4).order(ORDER);
+        buffer.asIntBuffer().put(values, 0, count);
+        out.write(buffer.array());
+        // Pad to the next 8-byte boundary
+        if (count % 2 != 0) {
+            out.writeInt(0);
+        }
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(count * 8).order(ORDER);
+        buffer.asLongBuffer().put(values, 0, count);
+        out.write(buffer.array());
+    }
+
+    private static long toCents(Money money) {
+        return money == null ? 0 : Math.round(money.getAmount() * 100);
+    }
+
+    // Growable primitive columns used while writing
+    private static class Columns {
+        int size;
+        int[] bookingIds = new int[1024];
+        int[] userIds = new int[1024];
+        int[] roomIds = new int[1024];
+        long[] startTimes = new long[1024];
+        long[] endTimes = new long[1024];
+        long[] totalCents = new long[1024];
+        long[] depositCents = new long[1024];
+        byte[] statuses = new byte[1024];
+
+        void add(Booking booking) {
+            if (size == bookingIds.length) {
+                int capacity = size * 2;
+                bookingIds = Arrays.copyOf(bookingIds, capacity);
+                userIds = Arrays.copyOf(userIds, capacity);
+                roomIds = Arrays.copyOf(roomIds, capacity);
+                startTimes = Arrays.copyOf(startTimes, capacity);
+                endTimes = Arrays.copyOf(endTimes, capacity);
+                totalCents = Arrays.copyOf(totalCents, capacity);
+                depositCents = Arrays.copyOf(depositCents, capacity);
+                statuses = Arrays.copyOf(statuses, capacity);
+            }
+            int ordinal = Arrays.asList(BOOKING_STATUSES).indexOf(booking.getStatus().toUpperCase());
+            if (ordinal < 0) {
+                throw new IllegalArgumentException("Unknown booking status: " + booking.getStatus());
+            }
+            bookingIds[size] = booking.getBookingId();
+            userIds[size] = booking.getUser().getUserId();
+            roomIds[size] = booking.getRoom().getRoomId();
+            startTimes[size] = booking.getStartTime().getTime();
+            endTimes[size] = booking.getEndTime().getTime();
+            totalCents[size] = toCents(booking.getTotalAmount());
+            depositCents[size] = toCents(booking.getDepositAmount());
+            statuses[size] = (byte) ordinal;
+            size++;
+        }
+    }
+}
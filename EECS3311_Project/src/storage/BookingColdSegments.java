@@ -0,0 +1,253 @@
+package storage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip-compressed CSV segments of finished bookings moved out of bookings.csv.
+ * Every archive run writes one new segment and segments are never changed afterwards, so they
+ * are only read when booking history is asked for. A segment's name carries the lowest and
+ * highest booking id in it ("cold-<minId>-<maxId>-<createdMillis>.csv.gz"), so a lookup by id
+ * only decompresses the segments whose range contains the id. A booking saved again after it was
+ * archived is archived again in a later segment; the newest segment's row is the current one.
+ *
+ * A new segment is published under a ".pending" name before its rows leave the hot file and gets
+ * its final name after. A pending segment left by a crash is finished by the owner on startup.
+ */
+public class BookingColdSegments {
+
+    private static final String SEGMENT_PREFIX = "cold-";
+    private static final String SEGMENT_SUFFIX = ".csv.gz";
+    private static final String PENDING_SUFFIX = ".pending";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final CSVSchema schema;
+
+
+    // The directory is created when the first segment is written
+    public BookingColdSegments(String directory, CSVSchema schema) {
+        this.directory = new File(directory);
+        this.schema = schema;
+    }
+
+    // ======= //
+    // WRITING //
+    // ======= //
+
+    // Starts a new segment. Rows go to a temp file until publishPending is called.
+    public SegmentWriter openSegment() throws IOException {
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        return new SegmentWriter();
+    }
+
+    // Gives a pending segment its final name, once its rows are gone from the hot file.
+    public synchronized void commit(File pending) throws IOException {
+        String name = pending.getName();
+        File segment = new File(directory, name.substring(0, name.length() - PENDING_SUFFIX.length()));
+        Files.move(pending.toPath(), segment.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Segments whose archive run did not finish, oldest first.
+    public synchronized List<File> getPendingSegments() {
+        return listFiles(SEGMENT_SUFFIX + PENDING_SUFFIX);
+    }
+
+    // Deletes every segment.
+    public synchronized void clear() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(SEGMENT_PREFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    // Rows of one archive run. Closing the writer without publishing discards the segment.
+    public final class SegmentWriter implements Closeable {
+
+        private final File temp;
+        private final PrintWriter writer;
+        private final long created = System.currentTimeMillis();
+        private int minId = Integer.MAX_VALUE;
+        private int maxId = Integer.MIN_VALUE;
+        private int rowCount;
+        private File published;
+
+        private SegmentWriter() throws IOException {
+            this.temp = new File(directory, SEGMENT_PREFIX + created + TEMP_SUFFIX);
+            this.writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(temp), BUFFER_SIZE), StandardCharsets.UTF_8)));
+            writer.println(schema.getHeader());
+        }
+
+        public void write(int bookingId, String line) {
+            writer.println(line);
+            minId = Math.min(minId, bookingId);
+            maxId = Math.max(maxId, bookingId);
+            rowCount++;
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        // Completes the segment and moves it to its pending name. Returns the pending file.
+        public File publishPending() throws IOException {
+            writer.close();
+            if (writer.checkError()) {
+                throw new IOException("Write to " + temp + " failed");
+            }
+            File pending = new File(directory,
+                    SEGMENT_PREFIX + minId + "-" + maxId + "-" + created + SEGMENT_SUFFIX + PENDING_SUFFIX);
+            Files.move(temp.toPath(), pending.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            published = pending;
+            return pending;
+        }
+
+        @Override
+        public void close() {
+            if (published == null) {
+                writer.close();
+                temp.delete();
+            }
+        }
+    }
+
+    // ======= //
+    // READING //
+    // ======= //
+
+    // Streams every archived row, newest segment first, upgraded to the current schema.
+    // Segments are opened one at a time as the stream reaches them. The caller must close the stream.
+    public Stream<String> streamLines() {
+        List<File> segments = getSegments();
+        Collections.reverse(segments);
+        return segments.stream().flatMap(this::streamSegment);
+    }
+
+    // Returns the newest archived row of a booking, reading only segments whose id range contains it.
+    public String findLine(int bookingId) {
+        List<File> segments = getSegments();
+        Collections.reverse(segments);
+        for (File segment : segments) {
+            long[] range = idRangeOf(segment);
+            if (bookingId < range[0] || bookingId > range[1]) {
+                continue;
+            }
+            try (Stream<String> lines = streamSegment(segment)) {
+                String line = lines.filter(row -> CSVTokenizer.parseLeadingInt(row) == bookingId)
+                        .findFirst()
+                        .orElse(null);
+                if (line != null) {
+                    return line;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Ids of the bookings in a segment (pending or not).
+    public Set<Integer> readBookingIds(File segment) {
+        Set<Integer> ids = new HashSet<>();
+        try (Stream<String> lines = streamSegment(segment)) {
+            lines.forEach(line -> ids.add(CSVTokenizer.parseLeadingInt(line)));
+        }
+        return ids;
+    }
+
+    // Finished segments, oldest first.
+    public synchronized List<File> getSegments() {
+        return listFiles(SEGMENT_SUFFIX);
+    }
+
+    // Compressed size of all finished segments.
+    public long getTotalBytes() {
+        long total = 0;
+        for (File segment : getSegments()) {
+            total += segment.length();
+        }
+        return total;
+    }
+
+    private Stream<String> streamSegment(File segment) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(segment), BUFFER_SIZE), StandardCharsets.UTF_8));
+            UnaryOperator<String> upgrade;
+            try {
+                upgrade = schema.upgradeFrom(schema.versionOf(reader.readLine()));
+            } catch (IOException | RuntimeException e) {
+                reader.close();
+                throw e;
+            }
+            Stream<String> lines = reader.lines()
+                    .filter(line -> !line.trim().isEmpty())
+                    .onClose(() -> {
+                        try {
+                            reader.close();
+                        } catch (IOException e) {
+                            System.err.println("Error closing cold booking segment: " + e.getMessage());
+                        }
+                    });
+            return upgrade == null ? lines : lines.map(upgrade);
+        } catch (IOException e) {
+            System.err.println("Error reading cold booking segment " + segment + ": " + e.getMessage());
+            return Stream.empty();
+        }
+    }
+
+    // Segment files with the given suffix, in creation order.
+    private List<File> listFiles(String suffix) {
+        List<File> segments = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(suffix) && parseName(name) != null) {
+                    segments.add(file);
+                }
+            }
+        }
+        segments.sort(Comparator.comparingLong(file -> parseName(file.getName())[2]));
+        return segments;
+    }
+
+    private static long[] idRangeOf(File segment) {
+        return parseName(segment.getName());
+    }
+
+    // {minId, maxId, createdMillis} from a segment name, or null if the name is not one of ours.
+    private static long[] parseName(String name) {
+        int end = name.indexOf(SEGMENT_SUFFIX);
+        if (end < 0) {
+            return null;
+        }
+        String[] parts = name.substring(SEGMENT_PREFIX.length(), end).split("-");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new long[] {Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package storage;
+
+// How CSVStorageService lays out booking data on disk.
+public enum BookingFileLayout {
+	// Every change rewrites bookings.csv in place.
+	SINGLE_FILE,
+	// Changes are appended to bookings.journal and folded into bookings.csv in the background.
+	JOURNALED,
+	// Bookings are split into one file per month of their start time under bookings/, so
+	// range reads and updates only touch the months involved.
+	PARTITIONED,
+	// Bookings are fixed-width binary records in bookings.dat; an update overwrites one record in place.
+	FIXED_WIDTH
+}
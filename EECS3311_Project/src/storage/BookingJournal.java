@@ -0,0 +1,450 @@
+package storage;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of booking changes layered over the base bookings file.
+ * Each journal line is either an upsert ("U,<booking csv line>") or a delete ("D,<bookingId>").
+ * A version record ("V,<schema version>") precedes the first upsert this instance appends to a
+ * journal file and applies to the upserts after it; upserts before any version record are version 0.
+ * Reads merge the journal over the base file, upgrading old rows of either to the current
+ * schema; once the journal passes the compaction threshold it is folded into a new base file
+ * on a background thread.
+ */
+public class BookingJournal {
+
+    private static final String UPSERT = "U";
+    private static final String DELETE = "D";
+    private static final String VERSION = "V";
+    private static final long DEFAULT_COMPACTION_THRESHOLD = 1024 * 1024; // 1 MB
+
+    private final String baseFile;
+    private final String journalFile;
+    private final String compactingFile;
+    private final CSVSchema schema;
+    private long compactionThreshold;
+
+    // Guards the journal files and the base file swap
+    private final Object lock = new Object();
+    // Serializes compaction runs
+    private final Object compactionLock = new Object();
+    private final ExecutorService compactor;
+    private boolean compactionScheduled;
+    // Bumped whenever the base file is replaced outside of compaction
+    private long generation;
+    // Ids currently stored (base + journal), loaded lazily on first delete
+    private Set<Integer> liveIds;
+    // Whether the journal file has a version record from this instance; reset when the file is rotated away
+    private boolean versionWritten;
+
+
+    public BookingJournal(String baseFile, String journalFile, CSVSchema schema) {
+        this.baseFile = baseFile;
+        this.journalFile = journalFile;
+        this.compactingFile = journalFile + ".compacting";
+        this.schema = schema;
+        this.compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "booking-journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setCompactionThreshold(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Compaction threshold must be positive.");
+        }
+        this.compactionThreshold = bytes;
+    }
+
+    public long getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    // ======= //
+    // WRITING //
+    // ======= //
+
+    // Records an insert or update of a booking.
+    public void appendUpsert(int bookingId, String bookingLine) throws IOException {
+        synchronized (lock) {
+            append(UPSERT + "," + bookingLine);
+            if (liveIds != null) {
+                liveIds.add(bookingId);
+            }
+        }
+        maybeScheduleCompaction();
+    }
+
+    // Records many upserts with a single append.
+    public void appendUpserts(Map<Integer, String> bookingLines) throws IOException {
+        synchronized (lock) {
+            try (PrintWriter writer = openJournal()) {
+                for (String line : bookingLines.values()) {
+                    writer.println(UPSERT + "," + line);
+                }
+                checkWritten(writer);
+            }
+            if (liveIds != null) {
+                liveIds.addAll(bookingLines.keySet());
+            }
+        }
+        maybeScheduleCompaction();
+    }
+
+    // Records an update of a stored booking. Returns false (and writes nothing) if it is not stored.
+    public boolean appendUpdate(int bookingId, String bookingLine) throws IOException {
+        synchronized (lock) {
+            if (!getLiveIds().contains(bookingId)) {
+                return false;
+            }
+            append(UPSERT + "," + bookingLine);
+        }
+        maybeScheduleCompaction();
+        return true;
+    }
+
+    // Records a delete. Returns false (and writes nothing) if the booking is not stored.
+    public boolean appendDelete(int bookingId) throws IOException {
+        synchronized (lock) {
+            if (!getLiveIds().contains(bookingId)) {
+                return false;
+            }
+            append(DELETE + "," + bookingId);
+            liveIds.remove(bookingId);
+        }
+        maybeScheduleCompaction();
+        return true;
+    }
+
+    // Records the deletes of the stored bookings among the ids with a single append.
+    // Returns how many were stored.
+    public int appendDeletes(Collection<Integer> bookingIds) throws IOException {
+        int deleted = 0;
+        synchronized (lock) {
+            Set<Integer> live = getLiveIds();
+            List<Integer> stored = new ArrayList<>();
+            for (int bookingId : bookingIds) {
+                if (live.contains(bookingId)) {
+                    stored.add(bookingId);
+                }
+            }
+            if (stored.isEmpty()) {
+                return 0;
+            }
+            try (PrintWriter writer = openJournal()) {
+                for (int bookingId : stored) {
+                    writer.println(DELETE + "," + bookingId);
+                }
+                checkWritten(writer);
+            }
+            live.removeAll(stored);
+            deleted = stored.size();
+        }
+        maybeScheduleCompaction();
+        return deleted;
+    }
+
+    private void append(String record) throws IOException {
+        try (PrintWriter writer = openJournal()) {
+            writer.println(record);
+            checkWritten(writer);
+        }
+    }
+
+    // Opens the journal for appending, first stamping the schema version the rows that follow are in.
+    // Called with the lock held.
+    private PrintWriter openJournal() throws IOException {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(journalFile, true)));
+        if (!versionWritten) {
+            writer.println(VERSION + "," + schema.getCurrentVersion());
+            versionWritten = true;
+        }
+        return writer;
+    }
+
+    // PrintWriter swallows write errors; this turns them back into an IOException.
+    private void checkWritten(PrintWriter writer) throws IOException {
+        if (writer.checkError()) {
+            versionWritten = false; // The version record may not have reached the file either
+            throw new IOException("Write to " + journalFile + " failed");
+        }
+    }
+
+    // True if a journal (or a compaction cut short) exists at the path.
+    public static boolean exists(String journalFile) {
+        return new File(journalFile).exists() || new File(journalFile + ".compacting").exists();
+    }
+
+    // Drops all journal records. Called whenever the base file is rewritten from scratch.
+    public void clear() {
+        synchronized (lock) {
+            new File(journalFile).delete();
+            new File(compactingFile).delete();
+            liveIds = null;
+            versionWritten = false;
+            generation++;
+        }
+    }
+
+    // ======= //
+    // READING //
+    // ======= //
+
+    // Returns the base file's data lines with all journal records applied, in file order.
+    public List<String> readMergedLines() {
+        try (Stream<String> lines = streamMergedLines()) {
+            return lines.collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    // Opens the base file and reads the journal together, so both reflect the same point in time.
+    public Snapshot openSnapshot() throws IOException {
+        synchronized (lock) {
+            return new Snapshot(FileChannel.open(Paths.get(baseFile), StandardOpenOption.READ), readOverlay());
+        }
+    }
+
+    // Lazily streams the merged lines. The caller must close the stream.
+    // The journal is snapshotted up front, so a compaction swap mid-stream does not affect the result.
+    public Stream<String> streamMergedLines() {
+        synchronized (lock) {
+            return mergeLines(openBase(), readOverlay());
+        }
+    }
+
+    // Replaces or drops base lines that have a journal record; journal-only bookings go at the end.
+    // Base lines are upgraded from the version in the base file's header.
+    private Stream<String> mergeLines(BufferedReader base, Map<Integer, String> overlay) {
+        if (base == null) {
+            return overlay.values().stream().filter(Objects::nonNull);
+        }
+        UnaryOperator<String> upgrade;
+        try {
+            upgrade = schema.upgradeFrom(schema.versionOf(base.readLine()));
+        } catch (IOException e) {
+            closeBase(base);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            closeBase(base);
+            throw e;
+        }
+        Stream<String> baseLines = base.lines()
+                .filter(line -> !line.trim().isEmpty())
+                .map(line -> {
+                    int id = parseBookingId(line);
+                    if (overlay.containsKey(id)) {
+                        return overlay.remove(id);
+                    }
+                    return upgrade == null ? line : upgrade.apply(line);
+                })
+                .filter(Objects::nonNull);
+        // flatMap defers reading the leftovers until the base lines are exhausted
+        Stream<String> journalOnly = Stream.of(overlay)
+                .flatMap(remaining -> remaining.values().stream().filter(Objects::nonNull));
+        return Stream.concat(baseLines, journalOnly).onClose(() -> closeBase(base));
+    }
+
+    private static void closeBase(BufferedReader base) {
+        try {
+            base.close();
+        } catch (IOException e) {
+            System.err.println("Error closing bookings file: " + e.getMessage());
+        }
+    }
+
+    // Latest journal record per booking id (null value = deleted), compacting file first.
+    // Upserts are upgraded to the current schema.
+    private Map<Integer, String> readOverlay() {
+        Map<Integer, String> overlay = new LinkedHashMap<>();
+        readJournalFile(compactingFile, overlay);
+        readJournalFile(journalFile, overlay);
+        return overlay;
+    }
+
+    private void readJournalFile(String path, Map<Integer, String> overlay) {
+        File file = new File(path);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            // Journals written before version records existed hold version 0 rows
+            UnaryOperator<String> upgrade = schema.upgradeFrom(0);
+            String record;
+            while ((record = reader.readLine()) != null) {
+                int comma = record.indexOf(',');
+                if (comma < 0) {
+                    continue; // Torn final write
+                }
+                String type = record.substring(0, comma);
+                String payload = record.substring(comma + 1);
+                try {
+                    if (UPSERT.equals(type)) {
+                        String row = upgrade == null ? payload : upgrade.apply(payload);
+                        overlay.put(parseBookingId(row), row);
+                    } else if (VERSION.equals(type)) {
+                        upgrade = schema.upgradeFrom(schema.checkVersion(Integer.parseInt(payload.trim()), path));
+                    } else if (DELETE.equals(type)) {
+                        overlay.put(Integer.parseInt(payload.trim()), null);
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping malformed journal record: " + record);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading booking journal: " + e.getMessage());
+        }
+    }
+
+    private BufferedReader openBase() {
+        try {
+            return new BufferedReader(new FileReader(baseFile));
+        } catch (IOException e) {
+            System.err.println("Error reading bookings file: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private Set<Integer> getLiveIds() {
+        if (liveIds == null) {
+            liveIds = new HashSet<>();
+            try (Stream<String> lines = streamMergedLines()) {
+                lines.forEach(line -> liveIds.add(parseBookingId(line)));
+            }
+        }
+        return liveIds;
+    }
+
+    // The booking id is always the first, unquoted column.
+    static int parseBookingId(String bookingLine) {
+        return CSVTokenizer.parseLeadingInt(bookingLine);
+    }
+
+    // Base file channel plus the journal records to apply over it (null value = deleted).
+    public static class Snapshot implements Closeable {
+        private final FileChannel base;
+        private final Map<Integer, String> overlay;
+
+        private Snapshot(FileChannel base, Map<Integer, String> overlay) {
+            this.base = base;
+            this.overlay = Collections.unmodifiableMap(overlay);
+        }
+
+        public FileChannel getBase() { return base; }
+        public Map<Integer, String> getOverlay() { return overlay; }
+
+        @Override
+        public void close() throws IOException {
+            base.close();
+        }
+    }
+
+    // ========== //
+    // COMPACTION //
+    // ========== //
+
+    private void maybeScheduleCompaction() {
+        synchronized (lock) {
+            if (compactionScheduled || new File(journalFile).length() < compactionThreshold) {
+                return;
+            }
+            compactionScheduled = true;
+        }
+        compactor.submit(() -> {
+            try {
+                compactNow();
+            } finally {
+                synchronized (lock) {
+                    compactionScheduled = false;
+                }
+            }
+        });
+    }
+
+    // Folds the journal into a new base file. Appends made while this runs go to a fresh journal.
+    public void compactNow() {
+        synchronized (compactionLock) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        long startGeneration;
+        synchronized (lock) {
+            File journal = new File(journalFile);
+            File compacting = new File(compactingFile);
+            // A leftover compacting file (from a crash) is folded first; the journal waits for the next run
+            if (!compacting.exists()) {
+                if (!journal.exists() || journal.length() == 0) {
+                    return;
+                }
+                if (!journal.renameTo(compacting)) {
+                    System.err.println("Could not rotate booking journal for compaction.");
+                    return;
+                }
+                versionWritten = false; // The next append starts a new journal file
+            }
+            startGeneration = generation;
+        }
+
+        // Merge outside the lock so writers are never blocked on the rewrite
+        Map<Integer, String> overlay = new LinkedHashMap<>();
+        readJournalFile(compactingFile, overlay);
+        File temp = new File(baseFile + ".tmp");
+        try (Stream<String> merged = mergeLines(openBase(), overlay);
+                PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(temp)))) {
+            writer.println(schema.getHeader());
+            merged.forEach(writer::println);
+            if (writer.checkError()) {
+                throw new IOException("Write to " + temp + " failed");
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // The compacting file stays, so the next run folds it again
+            System.err.println("Error compacting booking journal: " + e.getMessage());
+            temp.delete();
+            return;
+        }
+
+        synchronized (lock) {
+            if (generation != startGeneration) {
+                temp.delete(); // Base was cleared or replaced meanwhile
+                return;
+            }
+            try {
+                Files.move(temp.toPath(), Paths.get(baseFile),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                new File(compactingFile).delete();
+                System.out.println("Compacted booking journal into " + baseFile);
+            } catch (IOException e) {
+                System.err.println("Error replacing bookings file: " + e.getMessage());
+            }
+        }
+    }
+
+    // Compacts whatever is pending and stops the background thread.
+    public void shutdown() {
+        compactor.shutdown();
+        compactNow();
+        compactNow(); // Second pass folds a journal left behind by a leftover compacting file
+    }
+}
@@ -0,0 +1,323 @@
+package storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persisted secondary indexes of a bookings CSV file: userId -> row offsets and roomId -> row offsets.
+ * The index file stores one (userId, roomId, offset) entry per row, after a header stamped with the
+ * CSV file's length and modification time. Appended rows are added with one small append; a stamp
+ * that no longer matches the CSV file (any rewrite) makes the index rebuild itself on next use.
+ *
+ * Index file layout: int magic, int version, long csvLength, long csvLastModified, long reserved,
+ * then 16-byte entries (int userId, int roomId, long offset).
+ */
+public class BookingOffsetIndex {
+
+    private static final int MAGIC = 0x424B4958; // "BKIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int ENTRY_SIZE = 16;
+    private static final int STAMP_POSITION = 8;
+    // Bytes read per row lookup; longer rows are read again with a bigger buffer
+    private static final int ROW_READ_SIZE = 256;
+    // Column states while scanning
+    private static final int EMPTY = 0;
+    private static final int DIGITS = 1;
+    private static final int INVALID = 2;
+
+    private final File csvFile;
+    private final File indexFile;
+
+    // Null until loaded or after invalidate()
+    private Map<Integer, OffsetList> offsetsByUser;
+    private Map<Integer, OffsetList> offsetsByRoom;
+
+
+    public BookingOffsetIndex(String csvFile, String indexFile) {
+        this.csvFile = new File(csvFile);
+        this.indexFile = new File(indexFile);
+    }
+
+    // ======= //
+    // LOOKUPS //
+    // ======= //
+
+    // Reads the rows of one user's bookings, in file order.
+    public List<String> findLinesByUser(int userId) throws IOException {
+        return readLines(getIndex(true).get(userId));
+    }
+
+    // Reads the rows of one room's bookings, in file order.
+    public List<String> findLinesByRoom(int roomId) throws IOException {
+        return readLines(getIndex(false).get(roomId));
+    }
+
+    // ======= //
+    // WRITING //
+    // ======= //
+
+    // Records a row just appended at `offset`. Only valid if the index matched the file before the append;
+    // otherwise the index is dropped and rebuilt later.
+    public synchronized void rowAppended(long offset, int userId, int roomId, long lengthBefore, long modifiedBefore) {
+        if (offsetsByUser == null || !stampMatches(lengthBefore, modifiedBefore)) {
+            invalidate();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+            entry.putInt(userId).putInt(roomId).putLong(offset).flip();
+            writeFully(channel, entry, channel.size());
+
+            // Stamp last, so a crash in between leaves a stale stamp (a rebuild), never a wrong index
+            ByteBuffer stamp = ByteBuffer.allocate(16);
+            stamp.putLong(csvFile.length()).putLong(csvFile.lastModified()).flip();
+            writeFully(channel, stamp, STAMP_POSITION);
+        } catch (IOException e) {
+            System.err.println("Error updating booking index: " + e.getMessage());
+            invalidate();
+            return;
+        }
+        offsetsByUser.computeIfAbsent(userId, id -> new OffsetList()).add(offset);
+        offsetsByRoom.computeIfAbsent(roomId, id -> new OffsetList()).add(offset);
+    }
+
+    // Forgets the index after a rewrite of the CSV file; the next lookup rebuilds it.
+    public synchronized void invalidate() {
+        offsetsByUser = null;
+        offsetsByRoom = null;
+        indexFile.delete();
+    }
+
+    // Rebuilds the index from the CSV file now.
+    public synchronized void rebuild() throws IOException {
+        offsetsByUser = new HashMap<>();
+        offsetsByRoom = new HashMap<>();
+        long length = csvFile.length();
+        long lastModified = csvFile.lastModified();
+
+        File temp = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        try {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(csvFile), 1 << 16);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(length);
+                out.writeLong(lastModified);
+                out.writeLong(0);
+                scanRows(in, (userId, roomId, offset) -> {
+                    out.writeInt(userId);
+                    out.writeInt(roomId);
+                    out.writeLong(offset);
+                    add(userId, roomId, offset);
+                });
+            }
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            offsetsByUser = null;
+            offsetsByRoom = null;
+            throw e;
+        } finally {
+            temp.delete();
+        }
+    }
+
+    // ======= //
+    // HELPERS //
+    // ======= //
+
+    // Loads the index from its file if the stamp still matches the CSV file, otherwise rebuilds it.
+    private synchronized Map<Integer, OffsetList> getIndex(boolean byUser) throws IOException {
+        if (offsetsByUser != null && !stampMatches(csvFile.length(), csvFile.lastModified())) {
+            offsetsByUser = null; // Changed by someone else
+        }
+        if (offsetsByUser == null && !load()) {
+            rebuild();
+        }
+        return byUser ? offsetsByUser : offsetsByRoom;
+    }
+
+    // True if the index file's stamp matches the given CSV length and modification time.
+    private boolean stampMatches(long length, long lastModified) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+            in.readInt();
+            in.readInt();
+            return in.readLong() == length && in.readLong() == lastModified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private boolean load() {
+        if (!indexFile.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != csvFile.length() || in.readLong() != csvFile.lastModified()) {
+                return false;
+            }
+            in.readLong(); // Reserved
+            offsetsByUser = new HashMap<>();
+            offsetsByRoom = new HashMap<>();
+            long entries = (indexFile.length() - HEADER_SIZE) / ENTRY_SIZE;
+            for (long i = 0; i < entries; i++) {
+                add(in.readInt(), in.readInt(), in.readLong());
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error reading booking index, rebuilding it: " + e.getMessage());
+            offsetsByUser = null;
+            offsetsByRoom = null;
+            return false;
+        }
+    }
+
+    private void add(int userId, int roomId, long offset) {
+        offsetsByUser.computeIfAbsent(userId, id -> new OffsetList()).add(offset);
+        offsetsByRoom.computeIfAbsent(roomId, id -> new OffsetList()).add(offset);
+    }
+
+    private List<String> readLines(OffsetList offsets) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (offsets == null) {
+            return lines;
+        }
+        long[] positions;
+        synchronized (this) {
+            positions = Arrays.copyOf(offsets.offsets, offsets.size);
+        }
+        try (FileChannel channel = FileChannel.open(csvFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(ROW_READ_SIZE);
+            for (long position : positions) {
+                String line = readLine(channel, position, buffer);
+                if (line != null) {
+                    lines.add(line);
+                }
+                if (buffer.capacity() > ROW_READ_SIZE) {
+                    buffer = ByteBuffer.allocate(ROW_READ_SIZE);
+                }
+            }
+        }
+        return lines;
+    }
+
+    // Reads the row starting at `position` with positioned reads, growing the buffer for long rows.
+    private static String readLine(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (true) {
+            int read = channel.read(buffer, position + buffer.position());
+            for (int i = 0; i < buffer.position(); i++) {
+                byte b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    return new String(buffer.array(), 0, i, StandardCharsets.UTF_8);
+                }
+            }
+            if (read < 0) {
+                // Last row without a newline
+                return buffer.position() == 0 ? null : new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+            }
+            if (!buffer.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+        }
+    }
+
+    private interface RowVisitor {
+        void visit(int userId, int roomId, long offset) throws IOException;
+    }
+
+    // Walks the CSV bytes once, reporting the offset and the userId and roomId columns of each row.
+    // Rows whose second or third column is not a plain non-negative integer are skipped.
+    private static void scanRows(InputStream in, RowVisitor visitor) throws IOException {
+        byte[] chunk = new byte[1 << 16];
+        long offset = 0;
+        long rowStart = 0;
+        boolean header = true;
+        int field = 0;
+        int value = 0;
+        int state = EMPTY;
+        int userId = -1;
+        int roomId = -1;
+        int read;
+        while ((read = in.read(chunk)) > 0) {
+            for (int i = 0; i < read; i++, offset++) {
+                byte b = chunk[i];
+                if (b == ',' || b == '\n') {
+                    if (field == 1) {
+                        userId = state == DIGITS ? value : -1;
+                    } else if (field == 2) {
+                        roomId = state == DIGITS ? value : -1;
+                    }
+                    field++;
+                    value = 0;
+                    state = EMPTY;
+                    if (b == '\n') {
+                        if (!header && userId >= 0 && roomId >= 0) {
+                            visitor.visit(userId, roomId, rowStart);
+                        }
+                        header = false;
+                        rowStart = offset + 1;
+                        field = 0;
+                        userId = -1;
+                        roomId = -1;
+                    }
+                } else if ((field == 1 || field == 2) && b != '\r') {
+                    if (b >= '0' && b <= '9' && state != INVALID) {
+                        value = value * 10 + (b - '0');
+                        state = DIGITS;
+                    } else {
+                        state = INVALID;
+                    }
+                }
+            }
+        }
+        // Last row without a trailing newline
+        if (field == 2) {
+            roomId = state == DIGITS ? value : -1;
+        }
+        if (!header && field >= 2 && userId >= 0 && roomId >= 0) {
+            visitor.visit(userId, roomId, rowStart);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // Growable list of row offsets
+    private static class OffsetList {
+        long[] offsets = new long[4];
+        int size;
+
+        void add(long offset) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package storage;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Booking rows split into one CSV segment per month of their start time.
+ * A small manifest records, for each segment, the latest end time of any booking in it,
+ * so range reads only open segments that can overlap the requested window. Writes
+ * rewrite only the segments that contain the changed bookings.
+ * Each segment's header carries the schema version of its rows; rows of older segments are
+ * upgraded as they are read, and the segment is brought to the current version when next rewritten.
+ */
+public class BookingPartitions {
+
+    private static final String SEGMENT_PREFIX = "bookings-";
+    private static final String SEGMENT_SUFFIX = ".csv";
+    private static final String MANIFEST_FILE = "manifest.csv";
+    private static final String MANIFEST_HEADER = "month,maxEndTime";
+    private static final int START_TIME_FIELD = 3;
+    private static final int END_TIME_FIELD = 4;
+
+    private final File directory;
+    private final CSVSchema schema;
+
+    // Latest end time (epoch millis) per segment; deletes leave it as is, so it may overestimate
+    private final TreeMap<YearMonth, Long> manifest = new TreeMap<>();
+    // Segment of every stored booking, loaded lazily on first use
+    private Map<Integer, YearMonth> segmentById;
+
+
+    public BookingPartitions(String directory, CSVSchema schema) {
+        this.directory = new File(directory);
+        this.schema = schema;
+        if (!this.directory.exists()) {
+            this.directory.mkdirs();
+        }
+        loadManifest();
+    }
+
+    // ======= //
+    // WRITING //
+    // ======= //
+
+    // Inserts or replaces booking rows, rewriting each affected segment once.
+    // A booking whose start time moved to another month is removed from its old segment.
+    public synchronized void upsert(Map<Integer, String> bookingLines) throws IOException {
+        Map<Integer, YearMonth> index = getSegmentIndex();
+        Map<YearMonth, Map<Integer, String>> changes = new TreeMap<>();
+        CSVTokenizer tokenizer = new CSVTokenizer();
+
+        for (Map.Entry<Integer, String> entry : bookingLines.entrySet()) {
+            tokenizer.reset(entry.getValue());
+            long start = tokenizer.getTimestamp(START_TIME_FIELD);
+            long end = tokenizer.getTimestamp(END_TIME_FIELD);
+            YearMonth month = monthOf(start);
+
+            changes.computeIfAbsent(month, m -> new LinkedHashMap<>()).put(entry.getKey(), entry.getValue());
+            YearMonth previous = index.get(entry.getKey());
+            if (previous != null && !previous.equals(month)) {
+                changes.computeIfAbsent(previous, m -> new LinkedHashMap<>()).put(entry.getKey(), null);
+            }
+            manifest.merge(month, end, Math::max);
+        }
+
+        // Widen the manifest before writing rows, so a crash in between leaves it too wide, never too narrow
+        writeManifest();
+        for (Map.Entry<YearMonth, Map<Integer, String>> change : changes.entrySet()) {
+            File segment = segmentFile(change.getKey());
+            if (!segment.exists()) {
+                createSegment(segment);
+            }
+            CSVStorageService.rewriteFile(segment.getPath(), schema, change.getValue());
+        }
+        for (Map.Entry<YearMonth, Map<Integer, String>> change : changes.entrySet()) {
+            for (Map.Entry<Integer, String> row : change.getValue().entrySet()) {
+                if (row.getValue() != null) {
+                    index.put(row.getKey(), change.getKey());
+                }
+            }
+        }
+    }
+
+    // Replaces a stored booking's row. Returns false (and writes nothing) if it is not stored.
+    public synchronized boolean update(int bookingId, String bookingLine) throws IOException {
+        if (!getSegmentIndex().containsKey(bookingId)) {
+            return false;
+        }
+        upsert(Collections.singletonMap(bookingId, bookingLine));
+        return true;
+    }
+
+    // Removes a booking from its segment. Returns false if it is not stored.
+    public synchronized boolean delete(int bookingId) throws IOException {
+        YearMonth month = getSegmentIndex().get(bookingId);
+        if (month == null) {
+            return false;
+        }
+        Map<Integer, String> removal = new HashMap<>();
+        removal.put(bookingId, null);
+        CSVStorageService.rewriteFile(segmentFile(month).getPath(), schema, removal);
+        segmentById.remove(bookingId);
+        return true;
+    }
+
+    // Removes many bookings, rewriting each affected segment once. Returns how many were stored.
+    public synchronized int deleteAll(Collection<Integer> bookingIds) throws IOException {
+        Map<Integer, YearMonth> index = getSegmentIndex();
+        Map<YearMonth, Map<Integer, String>> removals = new TreeMap<>();
+        for (int bookingId : bookingIds) {
+            YearMonth month = index.get(bookingId);
+            if (month != null) {
+                removals.computeIfAbsent(month, m -> new HashMap<>()).put(bookingId, null);
+            }
+        }
+        int deleted = 0;
+        for (Map.Entry<YearMonth, Map<Integer, String>> removal : removals.entrySet()) {
+            CSVStorageService.rewriteFile(segmentFile(removal.getKey()).getPath(), schema, removal.getValue());
+            index.keySet().removeAll(removal.getValue().keySet());
+            deleted += removal.getValue().size();
+        }
+        return deleted;
+    }
+
+    // Deletes every segment and the manifest.
+    public synchronized void clear() {
+        for (YearMonth month : listSegments()) {
+            segmentFile(month).delete();
+        }
+        new File(directory, MANIFEST_FILE).delete();
+        manifest.clear();
+        segmentById = new HashMap<>();
+    }
+
+    private void createSegment(File segment) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(segment))) {
+            writer.println(schema.getHeader());
+        }
+    }
+
+    // ======= //
+    // READING //
+    // ======= //
+
+    // Streams every booking row, oldest segment first. The caller must close the stream.
+    public Stream<String> streamLines() {
+        return streamSegments(getSegmentPaths());
+    }
+
+    // Streams the rows of segments that may hold bookings overlapping [from, to).
+    // Rows are not filtered individually; callers still check each booking's times.
+    public Stream<String> streamLines(long from, long to) {
+        return streamSegments(getSegmentPaths(from, to));
+    }
+
+    // Returns the stored row for a booking, reading only its segment.
+    public String findLine(int bookingId) {
+        YearMonth month;
+        synchronized (this) {
+            month = getSegmentIndex().get(bookingId);
+        }
+        if (month == null) {
+            return null;
+        }
+        try (Stream<String> lines = streamSegments(List.of(segmentFile(month).getPath()))) {
+            return lines.filter(line -> CSVTokenizer.parseLeadingInt(line) == bookingId)
+                    .findFirst()
+                    .orElse(null);
+        }
+    }
+
+    // Paths of all segments, oldest first.
+    public synchronized List<String> getSegmentPaths() {
+        List<String> paths = new ArrayList<>();
+        for (YearMonth month : listSegments()) {
+            paths.add(segmentFile(month).getPath());
+        }
+        return paths;
+    }
+
+    // Paths of the segments that can overlap [from, to), oldest first.
+    public synchronized List<String> getSegmentPaths(long from, long to) {
+        List<String> paths = new ArrayList<>();
+        for (YearMonth month : listSegments()) {
+            long monthStart = month.atDay(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            Long maxEnd = manifest.get(month);
+            // Missing manifest entries are read rather than skipped
+            if (monthStart < to && (maxEnd == null || maxEnd > from)) {
+                paths.add(segmentFile(month).getPath());
+            }
+        }
+        return paths;
+    }
+
+    // Row upgrade for a segment written in an older schema version, or null if it is current.
+    // For callers that read segment files directly rather than through streamLines.
+    public UnaryOperator<String> upgradeOf(String segmentPath) throws IOException {
+        return schema.upgradeFrom(schema.versionOf(new File(segmentPath)));
+    }
+
+    // Latest modification time of any segment or the manifest.
+    public long getLastModifiedTime() {
+        long latest = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                latest = Math.max(latest, file.lastModified());
+            }
+        }
+        return latest;
+    }
+
+    // Streams the rows of the segments, each upgraded from the version in its header.
+    private Stream<String> streamSegments(List<String> paths) {
+        return paths.stream().flatMap(path -> {
+            try {
+                BufferedReader reader = new BufferedReader(new FileReader(path));
+                UnaryOperator<String> upgrade;
+                try {
+                    upgrade = schema.upgradeFrom(schema.versionOf(reader.readLine()));
+                } catch (IOException | RuntimeException e) {
+                    reader.close();
+                    throw e;
+                }
+                Stream<String> lines = reader.lines()
+                        .filter(line -> !line.trim().isEmpty())
+                        .onClose(() -> {
+                            try {
+                                reader.close();
+                            } catch (IOException e) {
+                                System.err.println("Error closing booking segment: " + e.getMessage());
+                            }
+                        });
+                return upgrade == null ? lines : lines.map(upgrade);
+            } catch (FileNotFoundException e) {
+                return Stream.empty(); // Removed by a concurrent clear
+            } catch (IOException e) {
+                System.err.println("Error reading booking segment " + path + ": " + e.getMessage());
+                return Stream.empty();
+            }
+        });
+    }
+
+    // Builds the id -> segment index from the leading column of every row.
+    private Map<Integer, YearMonth> getSegmentIndex() {
+        if (segmentById == null) {
+            segmentById = new HashMap<>();
+            for (YearMonth month : listSegments()) {
+                try (Stream<String> lines = streamSegments(List.of(segmentFile(month).getPath()))) {
+                    lines.forEach(line -> segmentById.put(CSVTokenizer.parseLeadingInt(line), month));
+                }
+            }
+        }
+        return segmentById;
+    }
+
+    // ======== //
+    // MANIFEST //
+    // ======== //
+
+    // Loads the manifest, rebuilding it from the segments if it is missing.
+    private void loadManifest() {
+        File file = new File(directory, MANIFEST_FILE);
+        if (!file.exists()) {
+            rebuildManifest();
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            reader.readLine(); // Header
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comma = line.indexOf(',');
+                if (comma > 0) {
+                    manifest.put(YearMonth.parse(line.substring(0, comma)),
+                            Long.parseLong(line.substring(comma + 1).trim()));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading booking manifest, rebuilding it: " + e.getMessage());
+            rebuildManifest();
+        }
+    }
+
+    private void rebuildManifest() {
+        manifest.clear();
+        CSVTokenizer tokenizer = new CSVTokenizer();
+        for (YearMonth month : listSegments()) {
+            try (Stream<String> lines = streamSegments(List.of(segmentFile(month).getPath()))) {
+                lines.forEach(line -> {
+                    tokenizer.reset(line);
+                    manifest.merge(month, tokenizer.getTimestamp(END_TIME_FIELD), Math::max);
+                });
+            } catch (RuntimeException e) {
+                System.err.println("Error scanning booking segment " + month + ": " + e.getMessage());
+            }
+        }
+        try {
+            writeManifest();
+        } catch (IOException e) {
+            System.err.println("Error writing booking manifest: " + e.getMessage());
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        File file = new File(directory, MANIFEST_FILE);
+        File temp = new File(directory, MANIFEST_FILE + ".tmp");
+        try (PrintWriter writer = new PrintWriter(new FileWriter(temp))) {
+            writer.println(MANIFEST_HEADER);
+            for (Map.Entry<YearMonth, Long> entry : manifest.entrySet()) {
+                writer.println(entry.getKey() + "," + entry.getValue());
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ======= //
+    // HELPERS //
+    // ======= //
+
+    // Months that have a segment file, oldest first.
+    private List<YearMonth> listSegments() {
+        List<YearMonth> months = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) {
+            return months;
+        }
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    months.add(YearMonth.parse(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (RuntimeException e) {
+                    // Not a segment name
+                }
+            }
+        }
+        months.sort(null);
+        return months;
+    }
+
+    private File segmentFile(YearMonth month) {
+        return new File(directory, SEGMENT_PREFIX + month + SEGMENT_SUFFIX);
+    }
+
+    private static YearMonth monthOf(long epochMillis) {
+        return YearMonth.from(Instant.ofEpochMilli(epochMillis).atZone(ZoneId.systemDefault()));
+    }
+}
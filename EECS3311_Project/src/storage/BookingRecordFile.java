@@ -0,0 +1,358 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import accounts.model.UserAccount;
+import booking.model.Booking;
+import manager.room.Room;
+import pricing.money.Money;
+
+/**
+ * Bookings stored as fixed-width binary records, one slot per booking.
+ * An in-memory id-to-slot index (built by one scan on open) lets an update overwrite its
+ * record with a single positioned write, and a delete clear one flag byte. Freed slots
+ * are reused by later inserts, so the file only grows when every slot is taken.
+ *
+ * File header (16 bytes): magic, format version, record size, and the version of the booking CSV
+ * schema whose columns the records hold (0 in files written before it was stamped).
+ *
+ * Record layout (64 bytes, big-endian):
+ *   0 flags, 1 status ordinal, 4 bookingId, 8 userId, 12 roomId, 16 startTime, 24 endTime,
+ *   32 totalAmount, 40 depositAmount, 48 totalCurrency (8 ASCII bytes), 56 depositCurrency
+ */
+public class BookingRecordFile {
+
+    private static final int MAGIC = 0x424B5246; // "BKRF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 64;
+    // Records read per positioned read during scans
+    private static final int SCAN_BATCH = 1024;
+
+    private static final byte LIVE = 1;
+    private static final byte FREE = 0;
+    private static final int CURRENCY_BYTES = 8;
+
+    // State ordinals; the position in this array is what gets stored
+    private static final String[] BOOKING_STATUSES = {"CREATED", "CHECKEDIN", "COMPLETED", "CANCELLED", "EXPIRED"};
+
+    /**
+     * Column values of one booking record. Scans reuse a single instance, so copy what you keep.
+     */
+    public static class Record {
+        public int bookingId;
+        public int userId;
+        public int roomId;
+        public long startTime;
+        public long endTime;
+        public String status;
+        public double totalAmount;
+        public String totalCurrency;
+        public double depositAmount;
+        public String depositCurrency;
+
+        // Takes the booking's columns; missing Money values are stored as 0.0 CAD, as in the CSV files.
+        public static Record of(Booking booking) {
+            Record record = new Record();
+            record.bookingId = booking.getBookingId();
+            record.userId = booking.getUser().getUserId();
+            record.roomId = booking.getRoom().getRoomId();
+            record.startTime = booking.getStartTime().getTime();
+            record.endTime = booking.getEndTime().getTime();
+            record.status = booking.getStatus();
+            Money total = booking.getTotalAmount();
+            Money deposit = booking.getDepositAmount();
+            record.totalAmount = total != null ? total.getAmount() : 0.0;
+            record.totalCurrency = total != null ? total.getCurrency() : "CAD";
+            record.depositAmount = deposit != null ? deposit.getAmount() : 0.0;
+            record.depositCurrency = deposit != null ? deposit.getCurrency() : "CAD";
+            return record;
+        }
+
+        // Rebuilds the booking, or returns null if its user or room is missing.
+        public Booking toBooking(Map<Integer, UserAccount> usersById, Map<Integer, Room> roomsById) {
+            UserAccount user = usersById.get(userId);
+            Room room = roomsById.get(roomId);
+            if (user == null || room == null) {
+                System.err.println("Could not find user or room for booking: " + bookingId);
+                return null;
+            }
+            Booking booking = new Booking(bookingId, new Date(startTime), new Date(endTime),
+                    new Money(totalAmount, totalCurrency), new Money(depositAmount, depositCurrency), user, room);
+            EntityRestorer.restoreBookingState(booking, status);
+            return booking;
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    // Slot of every live booking
+    private final Map<Integer, Integer> slotById = new HashMap<>();
+    // Tombstoned slots, reused before the file is extended
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private int slotCount;
+    private int schemaVersion;
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_SIZE);
+
+
+    // Opens the record file and indexes its live records. A new file is created stamped with
+    // `schemaVersion`; an existing one keeps the version it was written with.
+    public BookingRecordFile(String path, int schemaVersion) throws IOException {
+        this.file = new File(path);
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            this.schemaVersion = schemaVersion;
+            writeHeader();
+        } else {
+            checkHeader();
+        }
+        buildIndex();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(schemaVersion).flip();
+        writeFully(header, 0);
+    }
+
+    private void checkHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != RECORD_SIZE) {
+            throw new IOException("Not a booking record file: " + file);
+        }
+        schemaVersion = header.getInt();
+    }
+
+    // Version of the booking CSV schema the records follow.
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    // Scans every slot once; a torn record at the end of the file is ignored.
+    private void buildIndex() throws IOException {
+        slotCount = (int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE);
+        ByteBuffer batch = ByteBuffer.allocate(SCAN_BATCH * RECORD_SIZE);
+        for (int first = 0; first < slotCount; first += SCAN_BATCH) {
+            int count = Math.min(SCAN_BATCH, slotCount - first);
+            batch.clear().limit(count * RECORD_SIZE);
+            readFully(batch, offsetOf(first));
+            for (int i = 0; i < count; i++) {
+                int base = i * RECORD_SIZE;
+                if (batch.get(base) == LIVE) {
+                    slotById.put(batch.getInt(base + 4), first + i);
+                } else {
+                    freeSlots.add(first + i);
+                }
+            }
+        }
+    }
+
+    // ======= //
+    // WRITING //
+    // ======= //
+
+    // Inserts or overwrites a booking's record with one positioned write.
+    public synchronized void put(Record record) throws IOException {
+        recordBuffer.clear();
+        encode(record, recordBuffer);
+        recordBuffer.flip();
+
+        Integer slot = slotById.get(record.bookingId);
+        if (slot == null) {
+            slot = freeSlots.isEmpty() ? slotCount : freeSlots.poll();
+        }
+        writeFully(recordBuffer, offsetOf(slot));
+
+        if (slot == slotCount) {
+            slotCount++;
+        }
+        slotById.put(record.bookingId, slot);
+    }
+
+    // Overwrites a stored booking's record. Returns false (and writes nothing) if it is not stored.
+    public synchronized boolean replace(Record record) throws IOException {
+        if (!slotById.containsKey(record.bookingId)) {
+            return false;
+        }
+        put(record);
+        return true;
+    }
+
+    // Marks a booking's slot free. Returns false if it is not stored.
+    public synchronized boolean delete(int bookingId) throws IOException {
+        Integer slot = slotById.get(bookingId);
+        if (slot == null) {
+            return false;
+        }
+        ByteBuffer flag = ByteBuffer.allocate(1).put(FREE);
+        flag.flip();
+        writeFully(flag, offsetOf(slot));
+        slotById.remove(bookingId);
+        freeSlots.add(slot);
+        return true;
+    }
+
+    // Drops every record.
+    public synchronized void clear() throws IOException {
+        channel.truncate(HEADER_SIZE);
+        slotById.clear();
+        freeSlots.clear();
+        slotCount = 0;
+    }
+
+    // Flushes written records to the storage device.
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static void encode(Record record, ByteBuffer buffer) {
+        buffer.put(LIVE);
+        buffer.put((byte) statusOrdinal(record.status));
+        buffer.putShort((short) 0); // Padding
+        buffer.putInt(record.bookingId);
+        buffer.putInt(record.userId);
+        buffer.putInt(record.roomId);
+        buffer.putLong(record.startTime);
+        buffer.putLong(record.endTime);
+        buffer.putDouble(record.totalAmount);
+        buffer.putDouble(record.depositAmount);
+        putCurrency(buffer, record.totalCurrency);
+        putCurrency(buffer, record.depositCurrency);
+    }
+
+    private static void putCurrency(ByteBuffer buffer, String currency) {
+        byte[] bytes = currency.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length > CURRENCY_BYTES) {
+            throw new IllegalArgumentException("Currency code too long for record: " + currency);
+        }
+        buffer.put(bytes);
+        for (int i = bytes.length; i < CURRENCY_BYTES; i++) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static int statusOrdinal(String status) {
+        for (int i = 0; i < BOOKING_STATUSES.length; i++) {
+            if (BOOKING_STATUSES[i].equalsIgnoreCase(status)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown booking status: " + status);
+    }
+
+    // ======= //
+    // READING //
+    // ======= //
+
+    // Reads one booking's record with a single positioned read, or returns null.
+    public synchronized Record get(int bookingId) throws IOException {
+        Integer slot = slotById.get(bookingId);
+        if (slot == null) {
+            return null;
+        }
+        recordBuffer.clear();
+        readFully(recordBuffer, offsetOf(slot));
+        recordBuffer.flip();
+        Record record = new Record();
+        decode(recordBuffer, record);
+        return record;
+    }
+
+    // Visits every live record in slot order, reading SCAN_BATCH slots at a time.
+    // The same Record instance is passed for every call.
+    public synchronized void forEach(Consumer<Record> visitor) throws IOException {
+        ByteBuffer batch = ByteBuffer.allocate(SCAN_BATCH * RECORD_SIZE);
+        Record record = new Record();
+        for (int first = 0; first < slotCount; first += SCAN_BATCH) {
+            int count = Math.min(SCAN_BATCH, slotCount - first);
+            batch.clear().limit(count * RECORD_SIZE);
+            readFully(batch, offsetOf(first));
+            for (int i = 0; i < count; i++) {
+                batch.position(i * RECORD_SIZE);
+                if (batch.get(i * RECORD_SIZE) == LIVE) {
+                    decode(batch, record);
+                    visitor.accept(record);
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return slotById.size();
+    }
+
+    public long lastModified() {
+        return file.lastModified();
+    }
+
+    private static void decode(ByteBuffer buffer, Record record) {
+        buffer.get(); // Flags
+        record.status = BOOKING_STATUSES[buffer.get()];
+        buffer.getShort();
+        record.bookingId = buffer.getInt();
+        record.userId = buffer.getInt();
+        record.roomId = buffer.getInt();
+        record.startTime = buffer.getLong();
+        record.endTime = buffer.getLong();
+        record.totalAmount = buffer.getDouble();
+        record.depositAmount = buffer.getDouble();
+        record.totalCurrency = getCurrency(buffer);
+        record.depositCurrency = getCurrency(buffer);
+    }
+
+    private static String getCurrency(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = 0;
+        while (length < CURRENCY_BYTES && buffer.get(start + length) != 0) {
+            length++;
+        }
+        // The common code is returned as a constant instead of a new String per record
+        String currency = length == 3 && buffer.get(start) == 'C' && buffer.get(start + 1) == 'A'
+                && buffer.get(start + 2) == 'D'
+                ? "CAD"
+                : new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.US_ASCII);
+        buffer.position(start + CURRENCY_BYTES);
+        return currency;
+    }
+
+    // ======= //
+    // HELPERS //
+    // ======= //
+
+    private static long offsetOf(int slot) {
+        return HEADER_SIZE + (long) slot * RECORD_SIZE;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,678 @@
+package storage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import accounts.model.AccountType;
+import accounts.model.AdminAccount;
+import accounts.model.UserAccount;
+import booking.model.Booking;
+import manager.room.Room;
+
+/**
+ * Moves users, rooms and bookings between a storage service and export files, one file per
+ * entity type, as JSON Lines (one flat object per line) or gzip-compressed CSV in the data-file format.
+ * Records are streamed: bookings are read through streamBookingHistory, which includes archived
+ * bookings, and written as they arrive, and imports read one line at a time, so memory use does
+ * not grow with the number of bookings (users and rooms are loaded whole, as bookings need them anyway).
+ *
+ * Exports write the three files in parallel. Imports save users and rooms in parallel, then
+ * bookings, always in batches through saveAllX. After each batch the number of records consumed
+ * is written to a checkpoint file next to the import files, so an interrupted import run again
+ * on the same directory skips what is already stored. The checkpoint is removed once the import ends.
+ * A batch the storage does not save stops the import with an IllegalStateException.
+ */
+public class BulkDataTransfer {
+
+    public enum Format {
+        JSON_LINES(".jsonl"),
+        CSV_GZIP(".csv.gz");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private static final int DEFAULT_BATCH_SIZE = 5000;
+    private static final String CHECKPOINT_FILE = "import.checkpoint";
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    private static final String USERS = "users";
+    private static final String ROOMS = "rooms";
+    private static final String BOOKINGS = "bookings";
+
+    // How a column's values are written to and read from JSON
+    private enum ColumnType {
+        INT, DECIMAL, BOOLEAN, TEXT, TIMESTAMP
+    }
+
+    private static final ColumnType[] USER_COLUMNS = {ColumnType.INT, ColumnType.TEXT, ColumnType.TEXT,
+            ColumnType.TEXT, ColumnType.BOOLEAN, ColumnType.TEXT, ColumnType.TEXT, ColumnType.TEXT, ColumnType.BOOLEAN};
+    private static final ColumnType[] ROOM_COLUMNS = {ColumnType.INT, ColumnType.TEXT, ColumnType.TEXT,
+            ColumnType.INT, ColumnType.TEXT};
+    private static final ColumnType[] BOOKING_COLUMNS = {ColumnType.INT, ColumnType.INT, ColumnType.INT,
+            ColumnType.TIMESTAMP, ColumnType.TIMESTAMP, ColumnType.TEXT, ColumnType.DECIMAL, ColumnType.TEXT,
+            ColumnType.DECIMAL, ColumnType.TEXT};
+
+    // JSON keys are the CSV header names
+    private static final String[] USER_NAMES = CSVStorageService.USER_SCHEMA.getColumns().split(",");
+    private static final String[] ROOM_NAMES = CSVStorageService.ROOM_SCHEMA.getColumns().split(",");
+    private static final String[] BOOKING_NAMES = CSVStorageService.BOOKING_SCHEMA.getColumns().split(",");
+
+    private final IStorageService storage;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+
+    public BulkDataTransfer(IStorageService storage) {
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage service cannot be null");
+        }
+        this.storage = storage;
+    }
+
+    // Records per saveAllX call during imports, and per checkpoint.
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    // ====== //
+    // EXPORT //
+    // ====== //
+
+    // Writes users, rooms and bookings to users<ext>, rooms<ext> and bookings<ext> in the directory,
+    // replacing existing files.
+    public void exportTo(String directory, Format format) throws IOException {
+        File dir = new File(directory);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create export directory " + directory);
+        }
+
+        List<TransferTask> tasks = new ArrayList<>();
+        tasks.add(() -> exportUsers(new File(dir, USERS + format.getExtension()), format));
+        tasks.add(() -> exportRooms(new File(dir, ROOMS + format.getExtension()), format));
+        tasks.add(() -> exportBookings(new File(dir, BOOKINGS + format.getExtension()), format));
+        runInParallel(tasks);
+    }
+
+    private void exportUsers(File file, Format format) throws IOException {
+        try (Writer writer = openWriter(file, format)) {
+            if (format == Format.CSV_GZIP) {
+                writeLine(writer, CSVStorageService.getUserCSVHeader());
+            }
+            for (UserAccount user : storage.loadAllUsers()) {
+                writeLine(writer, format == Format.CSV_GZIP
+                        ? CSVStorageService.userToCSV(user, true)
+                        : toJson(USER_NAMES, USER_COLUMNS, userValues(user)));
+            }
+        }
+    }
+
+    private void exportRooms(File file, Format format) throws IOException {
+        try (Writer writer = openWriter(file, format)) {
+            if (format == Format.CSV_GZIP) {
+                writeLine(writer, CSVStorageService.getRoomCSVHeader());
+            }
+            for (Room room : storage.loadAllRooms()) {
+                writeLine(writer, format == Format.CSV_GZIP
+                        ? CSVStorageService.roomToCSV(room)
+                        : toJson(ROOM_NAMES, ROOM_COLUMNS, roomValues(room)));
+            }
+        }
+    }
+
+    private void exportBookings(File file, Format format) throws IOException {
+        try (Writer writer = openWriter(file, format);
+                Stream<Booking> bookings = storage.streamBookingHistory()) {
+            if (format == Format.CSV_GZIP) {
+                writeLine(writer, CSVStorageService.getBookingCSVHeader());
+            }
+            Iterator<Booking> iterator = bookings.iterator();
+            while (iterator.hasNext()) {
+                Booking booking = iterator.next();
+                writeLine(writer, format == Format.CSV_GZIP
+                        ? CSVStorageService.bookingToCSV(booking)
+                        : toJson(BOOKING_NAMES, BOOKING_COLUMNS, bookingValues(BookingRecordFile.Record.of(booking))));
+            }
+        }
+    }
+
+    // ====== //
+    // IMPORT //
+    // ====== //
+
+    // Saves the records of the directory's export files into storage, resuming from its checkpoint
+    // if an earlier import of the directory was interrupted. Missing files are skipped.
+    public void importFrom(String directory, Format format) throws IOException {
+        File dir = new File(directory);
+        if (!dir.isDirectory()) {
+            throw new IOException("Import directory " + directory + " does not exist");
+        }
+        Checkpoint checkpoint = new Checkpoint(new File(dir, CHECKPOINT_FILE), format);
+
+        List<TransferTask> tasks = new ArrayList<>();
+        tasks.add(() -> importFile(new File(dir, USERS + format.getExtension()), format, USERS, checkpoint,
+                BulkDataTransfer::toUser, storage::saveAllUsers, CSVStorageService.USER_SCHEMA, USER_NAMES, USER_COLUMNS));
+        tasks.add(() -> importFile(new File(dir, ROOMS + format.getExtension()), format, ROOMS, checkpoint,
+                BulkDataTransfer::toRoom, storage::saveAllRooms, CSVStorageService.ROOM_SCHEMA, ROOM_NAMES, ROOM_COLUMNS));
+        runInParallel(tasks);
+
+        // Bookings refer to users and rooms, so those must be stored first
+        Map<Integer, UserAccount> usersById = new HashMap<>();
+        for (UserAccount user : storage.loadAllUsers()) {
+            usersById.put(user.getUserId(), user);
+        }
+        Map<Integer, Room> roomsById = new HashMap<>();
+        for (Room room : storage.loadAllRooms()) {
+            roomsById.put(room.getRoomId(), room);
+        }
+        importFile(new File(dir, BOOKINGS + format.getExtension()), format, BOOKINGS, checkpoint,
+                values -> toBookingRecord(values).toBooking(usersById, roomsById), storage::saveAllBookings,
+                CSVStorageService.BOOKING_SCHEMA, BOOKING_NAMES, BOOKING_COLUMNS);
+
+        checkpoint.delete();
+    }
+
+    // Reads the file's records past the checkpoint and saves them batch by batch.
+    // Records that cannot be parsed, or whose entity cannot be built (a booking of an unknown user or
+    // room), are reported, skipped and counted. CSV rows of an older schema version are upgraded.
+    // A batch that saveAll does not store stops the import with an IllegalStateException before the
+    // checkpoint moves past it, so a later run retries it.
+    private <T> void importFile(File file, Format format, String entity, Checkpoint checkpoint,
+            Function<Object[], T> toEntity, Predicate<List<T>> saveAll, CSVSchema schema, String[] names,
+            ColumnType[] types) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        long alreadyImported = checkpoint.get(entity);
+        long records = 0;
+        long skipped = 0;
+        List<T> batch = new ArrayList<>(batchSize);
+        CSVTokenizer tokenizer = new CSVTokenizer();
+
+        try (BufferedReader reader = openReader(file, format)) {
+            UnaryOperator<String> upgrade = null;
+            if (format == Format.CSV_GZIP) {
+                // The header gives the schema version of the rows
+                upgrade = schema.upgradeFrom(schema.versionOf(reader.readLine()));
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || records++ < alreadyImported) {
+                    continue;
+                }
+                T item = null;
+                try {
+                    Object[] values = format == Format.CSV_GZIP
+                            ? fromCSV(tokenizer.reset(upgrade == null ? line : upgrade.apply(line)), types)
+                            : fromJson(parseJsonObject(line), names, types);
+                    item = toEntity.apply(values);
+                } catch (RuntimeException e) {
+                    System.err.println("Error parsing " + entity + " record " + records + ": " + e.getMessage());
+                }
+                if (item != null) {
+                    batch.add(item);
+                } else {
+                    skipped++;
+                }
+                if (batch.size() == batchSize) {
+                    saveBatch(saveAll, batch, entity, records);
+                    checkpoint.set(entity, records);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            saveBatch(saveAll, batch, entity, records);
+        }
+        checkpoint.set(entity, records);
+        long read = records - Math.min(records, alreadyImported);
+        System.out.println("Imported " + (read - skipped) + " " + entity
+                + (skipped > 0 ? ", skipped " + skipped : ""));
+    }
+
+    private static <T> void saveBatch(Predicate<List<T>> saveAll, List<T> batch, String entity, long records) {
+        if (!saveAll.test(batch)) {
+            throw new IllegalStateException("Storage did not save the " + entity + " batch ending at record " + records);
+        }
+    }
+
+    // ============= //
+    // ENTITY VALUES //
+    // ============= //
+
+    private static Object[] userValues(UserAccount user) {
+        boolean superAdmin = user instanceof AdminAccount && ((AdminAccount) user).isSuperAdmin();
+        return new Object[] {user.getUserId(), user.getEmail(), user.password, user.getAccountType().name(),
+                user.isVerified(), user.getStatus(), user.getOrganizationId(), user.getStudentNumber(), superAdmin};
+    }
+
+    private static UserAccount toUser(Object[] values) {
+        return EntityRestorer.restoreUser((Integer) values[0], (String) values[1], (String) values[2],
+                AccountType.valueOf((String) values[3]), (Boolean) values[4], (String) values[5],
+                (String) values[6], (String) values[7], (Boolean) values[8]);
+    }
+
+    private static Object[] roomValues(Room room) {
+        return new Object[] {room.getRoomId(), room.getBuilding(), room.getRoomNumber(), room.getCapacity(),
+                room.getStatus()};
+    }
+
+    private static Room toRoom(Object[] values) {
+        return new Room((Integer) values[0], (String) values[1], (String) values[2], (Integer) values[3],
+                (String) values[4]);
+    }
+
+    private static Object[] bookingValues(BookingRecordFile.Record record) {
+        return new Object[] {record.bookingId, record.userId, record.roomId, record.startTime, record.endTime,
+                record.status, record.totalAmount, record.totalCurrency, record.depositAmount, record.depositCurrency};
+    }
+
+    private static BookingRecordFile.Record toBookingRecord(Object[] values) {
+        BookingRecordFile.Record record = new BookingRecordFile.Record();
+        record.bookingId = (Integer) values[0];
+        record.userId = (Integer) values[1];
+        record.roomId = (Integer) values[2];
+        record.startTime = (Long) values[3];
+        record.endTime = (Long) values[4];
+        record.status = (String) values[5];
+        record.totalAmount = (Double) values[6];
+        record.totalCurrency = (String) values[7];
+        record.depositAmount = (Double) values[8];
+        record.depositCurrency = (String) values[9];
+        return record;
+    }
+
+    // Reads a tokenized CSV row as typed values.
+    private static Object[] fromCSV(CSVTokenizer tokenizer, ColumnType[] types) {
+        if (tokenizer.fieldCount() < types.length) {
+            throw new IllegalArgumentException("Expected " + types.length + " columns, found " + tokenizer.fieldCount());
+        }
+        Object[] values = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i]) {
+                case INT:
+                    values[i] = tokenizer.getInt(i);
+                    break;
+                case DECIMAL:
+                    values[i] = tokenizer.getDouble(i);
+                    break;
+                case BOOLEAN:
+                    values[i] = tokenizer.getBoolean(i);
+                    break;
+                case TIMESTAMP:
+                    values[i] = tokenizer.getTimestamp(i);
+                    break;
+                default:
+                    values[i] = tokenizer.getString(i);
+            }
+        }
+        return values;
+    }
+
+    // ==== //
+    // JSON //
+    // ==== //
+
+    // Timestamps are written as ISO-8601 instants, nulls as JSON null.
+    private static String toJson(String[] names, ColumnType[] types, Object[] values) {
+        StringBuilder sb = new StringBuilder(128).append('{');
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            appendJsonString(sb, names[i]).append(':');
+            Object value = values[i];
+            if (value == null) {
+                sb.append("null");
+            } else if (types[i] == ColumnType.TEXT) {
+                appendJsonString(sb, (String) value);
+            } else if (types[i] == ColumnType.TIMESTAMP) {
+                appendJsonString(sb, Instant.ofEpochMilli((Long) value).toString());
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    private static StringBuilder appendJsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"');
+    }
+
+    // Converts the parsed JSON members to typed values in column order. Missing members are null.
+    private static Object[] fromJson(Map<String, Object> members, String[] names, ColumnType[] types) {
+        Object[] values = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            Object member = members.get(names[i]);
+            if (member == null) {
+                if (types[i] != ColumnType.TEXT) {
+                    throw new IllegalArgumentException("Missing value for " + names[i]);
+                }
+                continue;
+            }
+            String text = member.toString();
+            switch (types[i]) {
+                case INT:
+                    values[i] = Integer.parseInt(text);
+                    break;
+                case DECIMAL:
+                    values[i] = Double.parseDouble(text);
+                    break;
+                case BOOLEAN:
+                    values[i] = Boolean.parseBoolean(text);
+                    break;
+                case TIMESTAMP:
+                    values[i] = Instant.parse(text).toEpochMilli();
+                    break;
+                default:
+                    values[i] = text;
+            }
+        }
+        return values;
+    }
+
+    // Parses one flat JSON object. Strings are unescaped, numbers are kept as their text,
+    // true/false become Booleans and null stays null. Nested objects and arrays are rejected.
+    private static Map<String, Object> parseJsonObject(String json) {
+        Map<String, Object> members = new LinkedHashMap<>();
+        int[] position = {skipWhitespace(json, 0)};
+        expect(json, position, '{');
+        if (peek(json, position) == '}') {
+            position[0]++;
+            return members;
+        }
+        while (true) {
+            String name = parseJsonString(json, position);
+            expect(json, position, ':');
+            position[0] = skipWhitespace(json, position[0]);
+            members.put(name, parseJsonValue(json, position));
+            position[0] = skipWhitespace(json, position[0]);
+            char next = peek(json, position);
+            position[0]++;
+            if (next == '}') {
+                return members;
+            }
+            if (next != ',') {
+                throw new IllegalArgumentException("Expected ',' or '}' at " + (position[0] - 1));
+            }
+        }
+    }
+
+    private static Object parseJsonValue(String json, int[] position) {
+        char c = peek(json, position);
+        if (c == '"') {
+            return parseJsonString(json, position);
+        }
+        int start = position[0];
+        int end = start;
+        while (end < json.length() && ",}] \t\r\n".indexOf(json.charAt(end)) < 0) {
+            end++;
+        }
+        String literal = json.substring(start, end);
+        position[0] = end;
+        switch (literal) {
+            case "null":
+                return null;
+            case "true":
+                return Boolean.TRUE;
+            case "false":
+                return Boolean.FALSE;
+            default:
+                if (literal.isEmpty() || "-0123456789".indexOf(literal.charAt(0)) < 0) {
+                    throw new IllegalArgumentException("Unsupported JSON value at " + start);
+                }
+                return literal;
+        }
+    }
+
+    private static String parseJsonString(String json, int[] position) {
+        expect(json, position, '"');
+        StringBuilder sb = new StringBuilder();
+        int i = position[0];
+        while (true) {
+            if (i >= json.length()) {
+                throw new IllegalArgumentException("Unterminated JSON string");
+            }
+            char c = json.charAt(i++);
+            if (c == '"') {
+                break;
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (i >= json.length()) {
+                throw new IllegalArgumentException("Unterminated JSON string");
+            }
+            char escaped = json.charAt(i++);
+            switch (escaped) {
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 > json.length()) {
+                        throw new IllegalArgumentException("Bad unicode escape in JSON string");
+                    }
+                    sb.append((char) Integer.parseInt(json.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                default:
+                    sb.append(escaped); // \" \\ \/
+            }
+        }
+        position[0] = i;
+        return sb.toString();
+    }
+
+    private static void expect(String json, int[] position, char expected) {
+        position[0] = skipWhitespace(json, position[0]);
+        if (peek(json, position) != expected) {
+            throw new IllegalArgumentException("Expected '" + expected + "' at " + position[0]);
+        }
+        position[0]++;
+    }
+
+    private static char peek(String json, int[] position) {
+        if (position[0] >= json.length()) {
+            throw new IllegalArgumentException("Unexpected end of JSON");
+        }
+        return json.charAt(position[0]);
+    }
+
+    private static int skipWhitespace(String json, int position) {
+        while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    // ======= //
+    // HELPERS //
+    // ======= //
+
+    private interface TransferTask {
+        void run() throws IOException;
+    }
+
+    // Runs the tasks on their own threads and rethrows the first failure.
+    private static void runInParallel(List<TransferTask> tasks) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size(), r -> {
+            Thread thread = new Thread(r, "bulk-transfer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (TransferTask task : tasks) {
+                futures.add(executor.submit(() -> {
+                    task.run();
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Bulk transfer interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Writer openWriter(File file, Format format) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        if (format == Format.CSV_GZIP) {
+            out = new GZIPOutputStream(out, IO_BUFFER_SIZE);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), IO_BUFFER_SIZE);
+    }
+
+    private static BufferedReader openReader(File file, Format format) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (format == Format.CSV_GZIP) {
+            in = new GZIPInputStream(in, IO_BUFFER_SIZE);
+        }
+        Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        return new BufferedReader(reader, IO_BUFFER_SIZE);
+    }
+
+    private static void writeLine(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    // Records consumed per entity type, saved after every batch
+    private static class Checkpoint {
+        private static final String FORMAT_KEY = "format";
+
+        private final File file;
+        private final Properties progress = new Properties();
+
+        Checkpoint(File file, Format format) throws IOException {
+            this.file = file;
+            if (file.exists()) {
+                try (InputStream in = new FileInputStream(file)) {
+                    progress.load(in);
+                }
+                String savedFormat = progress.getProperty(FORMAT_KEY);
+                if (!format.name().equals(savedFormat)) {
+                    throw new IllegalStateException("Checkpoint " + file + " belongs to a " + savedFormat
+                            + " import; delete it to start over");
+                }
+            }
+            progress.setProperty(FORMAT_KEY, format.name());
+        }
+
+        synchronized long get(String entity) {
+            return Long.parseLong(progress.getProperty(entity, "0"));
+        }
+
+        // Written to a temp file and moved into place, so a crash leaves the old or the new checkpoint
+        synchronized void set(String entity, long records) throws IOException {
+            progress.setProperty(entity, Long.toString(records));
+            File temp = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(temp)) {
+                progress.store(out, "Bulk import progress: records consumed per file");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        synchronized void delete() {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package storage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Column layout history of one kind of CSV data file.
+ * Version 0 is the original header, which carries no version. Every later version stamps its
+ * number in front of the column names ("#v1;userId,email,...") and comes with a step that
+ * converts a row of the previous version, so a file of any older version can be read by
+ * upgrading its rows and rewritten in the current layout.
+ */
+public final class CSVSchema {
+
+    private static final String VERSION_PREFIX = "#v";
+    private static final char VERSION_END = ';';
+
+    // Index = version
+    private final List<String> columns = new ArrayList<>();
+    private final List<UnaryOperator<String>> steps = new ArrayList<>();
+
+
+    // Starts the history with the unversioned header of version 0.
+    public CSVSchema(String originalColumns) {
+        columns.add(originalColumns);
+        steps.add(UnaryOperator.identity());
+    }
+
+    // Adds the next version: its column names and how to turn a row of the version before into one of it.
+    public CSVSchema addVersion(String versionColumns, UnaryOperator<String> upgradeRow) {
+        if (upgradeRow == null) {
+            throw new IllegalArgumentException("Row upgrade cannot be null");
+        }
+        columns.add(versionColumns);
+        steps.add(upgradeRow);
+        return this;
+    }
+
+    public int getCurrentVersion() {
+        return columns.size() - 1;
+    }
+
+    // Column names of the current version, comma separated
+    public String getColumns() {
+        return columns.get(getCurrentVersion());
+    }
+
+    // Header line for files written in the current version.
+    public String getHeader() {
+        int version = getCurrentVersion();
+        return version == 0 ? getColumns() : VERSION_PREFIX + version + VERSION_END + getColumns();
+    }
+
+    // Version a header line was written with. Throws IllegalStateException for a version newer than
+    // this code knows, since its rows cannot be read correctly.
+    public int versionOf(String headerLine) {
+        if (headerLine == null || !headerLine.startsWith(VERSION_PREFIX)) {
+            return 0;
+        }
+        int end = headerLine.indexOf(VERSION_END);
+        int version;
+        try {
+            version = Integer.parseInt(headerLine.substring(VERSION_PREFIX.length(), end < 0 ? headerLine.length() : end));
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Invalid CSV header: " + headerLine);
+        }
+        return checkVersion(version, headerLine);
+    }
+
+    // Returns a version stamped outside a header line (journal records, binary files), or throws
+    // IllegalStateException if it is negative or newer than this code knows. `source` names it in the message.
+    public int checkVersion(int version, String source) {
+        if (version < 0 || version > getCurrentVersion()) {
+            throw new IllegalStateException("CSV data is version " + version + " but only versions up to "
+                    + getCurrentVersion() + " are known: " + source);
+        }
+        return version;
+    }
+
+    // Version of a file from its first line (an empty or missing file counts as current).
+    public int versionOf(File file) throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return getCurrentVersion();
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            return versionOf(reader.readLine());
+        }
+    }
+
+    // Converts a row of the given version to the current one, or returns null if it is already current.
+    public UnaryOperator<String> upgradeFrom(int version) {
+        if (version >= getCurrentVersion()) {
+            return null;
+        }
+        UnaryOperator<String> upgrade = UnaryOperator.identity();
+        for (int next = version + 1; next <= getCurrentVersion(); next++) {
+            UnaryOperator<String> before = upgrade;
+            UnaryOperator<String> step = steps.get(next);
+            upgrade = row -> step.apply(before.apply(row));
+        }
+        return upgrade;
+    }
+}
@@ -1,39 +1,414 @@
 package storage;
 
 import java.io.*;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import accounts.model.*;
 import booking.model.Booking;
-import booking.state.*;
 import manager.room.Room;
 import pricing.money.Money;
 
 
-public class CSVStorageService implements IStorageService {
+public class CSVStorageService implements IStorageService, StorageIOCounters {
     
-    // File paths for CSV storage
-    private static final String DATA_DIRECTORY = "data";
-    private static final String USERS_FILE = DATA_DIRECTORY + "/users.csv";
-    private static final String ROOMS_FILE = DATA_DIRECTORY + "/rooms.csv";
-    private static final String BOOKINGS_FILE = DATA_DIRECTORY + "/bookings.csv";
+    // Default directory for CSV storage
+    private static final String DEFAULT_DATA_DIRECTORY = "data";
     
-    // Date format for storing dates in CSV
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    // Date format for storing dates in CSV (immutable, so safe to share between threads)
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
     
     // CSV delimiters
     private static final String DELIMITER = ",";
     private static final String NULL_PLACEHOLDER = "NULL";
     
+    // Frequent column values, reused by the tokenizer instead of allocating a String per row
+    private static final String[] ACCOUNT_TYPE_NAMES = {"STUDENT", "FACULTY", "STAFF", "PARTNER", "ADMIN"};
+    private static final String[] USER_STATUSES = {"ACTIVE"};
+    private static final String[] ROOM_STATUSES = {"Enabled", "Disabled", "Maintenance", "Available"};
+    private static final String[] BOOKING_STATUSES = {"CREATED", "CHECKEDIN", "COMPLETED", "CANCELLED", "EXPIRED"};
+    private static final String[] CURRENCIES = {"CAD"};
+    
+    // Column layouts of the data files. Version 1 keeps the original columns and stamps the version in the header.
+    private static final String USER_COLUMNS =
+            "userId,email,password,accountType,verified,status,organizationId,studentNumber,isSuperAdmin";
+    private static final String ROOM_COLUMNS = "roomId,building,roomNumber,capacity,status";
+    private static final String BOOKING_COLUMNS =
+            "bookingId,userId,roomId,startTime,endTime,status,totalAmount,totalCurrency,depositAmount,depositCurrency";
+    static final CSVSchema USER_SCHEMA = new CSVSchema(USER_COLUMNS).addVersion(USER_COLUMNS, UnaryOperator.identity());
+    static final CSVSchema ROOM_SCHEMA = new CSVSchema(ROOM_COLUMNS).addVersion(ROOM_COLUMNS, UnaryOperator.identity());
+    static final CSVSchema BOOKING_SCHEMA =
+            new CSVSchema(BOOKING_COLUMNS).addVersion(BOOKING_COLUMNS, UnaryOperator.identity());
+    
+    // Booking layout (journal and partitions only exist in their own layouts)
+    private volatile BookingFileLayout bookingLayout = BookingFileLayout.SINGLE_FILE;
+    private BookingJournal bookingJournal;
+    private BookingPartitions bookingPartitions;
+    private BookingRecordFile bookingRecords;
+    
+    // Parallel loader for loadAllX (null = read on the calling thread)
+    private ParallelCSVLoader parallelLoader;
+    
+    // Cross-process write locks and change counters (null = this process is the only writer)
+    private volatile SharedDataDirectory sharedDirectory;
+    
+    // File paths for CSV storage
+    private final String dataDirectory;
+    private final String usersFile;
+    private final String roomsFile;
+    private final String bookingsFile;
+    private final String bookingsJournalFile;
+    private final String bookingsPartitionDirectory;
+    private final String bookingsRecordFile;
+    
+    // userId/roomId -> row offsets of bookings.csv, used in the SINGLE_FILE layout
+    private final BookingOffsetIndex bookingIndex;
+    
+    // Finished bookings moved out of bookings.csv, and how long after their end they move (0 = never)
+    private final BookingColdSegments coldSegments;
+    private volatile long coldStorageAgeMillis;
+    
+    // One lock per file. Reads share it; read-modify-write operations hold it exclusively.
+    // Rewrites go to a temp file that is renamed over the original, so an open reader never sees half a file.
+    // Lock order: bookings before users before rooms.
+    private final ReentrantReadWriteLock usersLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock roomsLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock bookingsLock = new ReentrantReadWriteLock();
+    
+    // Schema version state of each CSV file, and the thread migrating old ones
+    private final SchemaState userSchemaState;
+    private final SchemaState roomSchemaState;
+    private final SchemaState bookingSchemaState;
+    private Thread schemaMigrator;
+    
+    // File I/O done by this service since it was created (journal, segment and record file I/O not included)
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder rowsParsed = new LongAdder();
+    
     
     public CSVStorageService() {
+        this(DEFAULT_DATA_DIRECTORY);
+    }
+    
+    // Stores the CSV files under the given directory instead of ./data
+    public CSVStorageService(String dataDirectory) {
+        if (dataDirectory == null || dataDirectory.trim().isEmpty()) {
+            throw new IllegalArgumentException("Data directory cannot be empty");
+        }
+        this.dataDirectory = dataDirectory;
+        this.usersFile = dataDirectory + "/users.csv";
+        this.roomsFile = dataDirectory + "/rooms.csv";
+        this.bookingsFile = dataDirectory + "/bookings.csv";
+        this.bookingsJournalFile = dataDirectory + "/bookings.journal";
+        this.bookingsPartitionDirectory = dataDirectory + "/bookings";
+        this.bookingsRecordFile = dataDirectory + "/bookings.dat";
+        this.bookingIndex = new BookingOffsetIndex(bookingsFile, dataDirectory + "/bookings.idx");
+        this.coldSegments = new BookingColdSegments(dataDirectory + "/bookings-cold", BOOKING_SCHEMA);
+        this.userSchemaState = new SchemaState(usersFile, USER_SCHEMA, usersLock, SharedDataDirectory.Entity.USERS);
+        this.roomSchemaState = new SchemaState(roomsFile, ROOM_SCHEMA, roomsLock, SharedDataDirectory.Entity.ROOMS);
+        this.bookingSchemaState = new SchemaState(bookingsFile, BOOKING_SCHEMA, bookingsLock,
+                SharedDataDirectory.Entity.BOOKINGS);
         initialize();
     }
     
+    // Switches how bookings are written. Stored bookings move with the layout: leaving JOURNALED
+    // folds the journal back into bookings.csv, and PARTITIONED and FIXED_WIDTH move bookings.csv's rows
+    // into their own files (and back when left).
+    public void setBookingFileLayout(BookingFileLayout layout) {
+        if (layout == null) {
+            throw new IllegalArgumentException("Booking file layout cannot be null");
+        }
+        bookingsLock.writeLock().lock();
+        try {
+            if (sharedDirectory != null && layout != BookingFileLayout.SINGLE_FILE) {
+                throw new IllegalStateException("Only the SINGLE_FILE layout can be shared between processes");
+            }
+            // The other layouts copy bookings.csv's rows as they are, so they must be current
+            migrateLocked(bookingSchemaState);
+            changeBookingFileLayout(layout);
+        } finally {
+            bookingsLock.writeLock().unlock();
+        }
+    }
+    
+    private void changeBookingFileLayout(BookingFileLayout layout) {
+        if (layout == bookingLayout) {
+            return;
+        }
+        if (bookingLayout == BookingFileLayout.JOURNALED) {
+            bookingJournal.shutdown();
+            bookingJournal = null;
+        }
+        if (bookingLayout == BookingFileLayout.PARTITIONED) {
+            movePartitionsToBookingsFile();
+            bookingPartitions = null;
+        }
+        if (bookingLayout == BookingFileLayout.FIXED_WIDTH) {
+            moveRecordsToBookingsFile();
+            bookingRecords = null;
+        }
+        if (layout == BookingFileLayout.JOURNALED) {
+            bookingJournal = new BookingJournal(bookingsFile, bookingsJournalFile, BOOKING_SCHEMA);
+        }
+        if (layout == BookingFileLayout.PARTITIONED) {
+            bookingPartitions = new BookingPartitions(bookingsPartitionDirectory, BOOKING_SCHEMA);
+            moveBookingsFileToPartitions();
+        }
+        if (layout == BookingFileLayout.FIXED_WIDTH) {
+            try {
+                bookingRecords = openBookingRecords();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open " + bookingsRecordFile + ": " + e.getMessage(), e);
+            }
+            moveBookingsFileToRecords();
+        }
+        bookingIndex.invalidate(); // bookings.csv was rewritten (or will be by the journal)
+        bookingLayout = layout;
+    }
+    
+    // Opens the record file, first converting it if its records follow an older schema version: each
+    // record is turned into the row it held in that version, upgraded, and parsed back. The converted
+    // records go to a new file that then replaces the old one, so a crash leaves one or the other.
+    private BookingRecordFile openBookingRecords() throws IOException {
+        int current = BOOKING_SCHEMA.getCurrentVersion();
+        BookingRecordFile records = new BookingRecordFile(bookingsRecordFile, current);
+        UnaryOperator<String> upgrade;
+        try {
+            upgrade = BOOKING_SCHEMA.upgradeFrom(
+                    BOOKING_SCHEMA.checkVersion(records.getSchemaVersion(), bookingsRecordFile));
+        } catch (RuntimeException e) {
+            records.close();
+            throw e;
+        }
+        if (upgrade == null) {
+            return records;
+        }
+        
+        File temp = new File(bookingsRecordFile + ".tmp");
+        temp.delete(); // Left by a conversion cut short
+        BookingRecordFile converted = new BookingRecordFile(temp.getPath(), current);
+        CSVTokenizer tokenizer = new CSVTokenizer();
+        try {
+            records.forEach(record -> {
+                try {
+                    converted.put(csvToRecord(upgrade.apply(recordToCSV(record)), tokenizer));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            converted.force();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            converted.close();
+            records.close();
+        }
+        Files.move(temp.toPath(), Paths.get(bookingsRecordFile),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Migrated " + bookingsRecordFile + " to schema version " + current);
+        return new BookingRecordFile(bookingsRecordFile, current);
+    }
+    
+    // Moves the rows of bookings.csv into the month segments and leaves bookings.csv with just its header.
+    private void moveBookingsFileToPartitions() {
+        Map<Integer, String> rows = new LinkedHashMap<>();
+        try (Stream<String> lines = streamBookingsFileLines()) {
+            lines.forEach(line -> rows.put(CSVTokenizer.parseLeadingInt(line), line));
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            bookingPartitions.upsert(rows);
+            writeHeaderOnly(bookingsFile, getBookingCSVHeader());
+            System.out.println("Partitioned " + rows.size() + " bookings by month");
+        } catch (IOException e) {
+            System.err.println("Error partitioning bookings: " + e.getMessage());
+        }
+    }
+    
+    // Converts the rows of bookings.csv into fixed-width records and leaves bookings.csv with just its header.
+    private void moveBookingsFileToRecords() {
+        CSVTokenizer tokenizer = new CSVTokenizer();
+        int[] moved = {0};
+        try (Stream<String> lines = streamBookingsFileLines()) {
+            lines.forEach(line -> {
+                try {
+                    bookingRecords.put(csvToRecord(line, tokenizer));
+                    moved[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (moved[0] > 0) {
+                writeHeaderOnly(bookingsFile, getBookingCSVHeader());
+                System.out.println("Converted " + moved[0] + " bookings to fixed-width records");
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error converting bookings: " + e.getMessage());
+        }
+    }
+    
+    // Writes every record back into bookings.csv and deletes the record file.
+    private void moveRecordsToBookingsFile() {
+        Map<Integer, String> rows = new LinkedHashMap<>();
+        try {
+            bookingRecords.forEach(record -> rows.put(record.bookingId, recordToCSV(record)));
+            if (!rows.isEmpty()) {
+                rewrite(bookingsFile, getBookingCSVHeader(), rows);
+            }
+            bookingRecords.close();
+            new File(bookingsRecordFile).delete();
+        } catch (IOException e) {
+            System.err.println("Error converting booking records: " + e.getMessage());
+        }
+    }
+    
+    // Merges every month segment back into bookings.csv and removes the segments.
+    private void movePartitionsToBookingsFile() {
+        Map<Integer, String> rows = new LinkedHashMap<>();
+        try (Stream<String> lines = bookingPartitions.streamLines()) {
+            lines.forEach(line -> rows.put(CSVTokenizer.parseLeadingInt(line), line));
+        }
+        try {
+            if (!rows.isEmpty()) {
+                rewrite(bookingsFile, getBookingCSVHeader(), rows);
+            }
+            bookingPartitions.clear();
+        } catch (IOException e) {
+            System.err.println("Error merging booking partitions: " + e.getMessage());
+        }
+    }
+    
+    public BookingFileLayout getBookingFileLayout() {
+        return bookingLayout;
+    }
+    
+    // Journal size (bytes) after which it is compacted in the background. JOURNALED layout only.
+    public void setJournalCompactionThreshold(long bytes) {
+        if (bookingJournal == null) {
+            throw new IllegalStateException("Booking journal is only available in JOURNALED layout");
+        }
+        bookingJournal.setCompactionThreshold(bytes);
+    }
+    
+    // Number of threads used by loadAllUsers/Rooms/Bookings. 1 reads sequentially.
+    public void setLoadParallelism(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Load parallelism must be positive");
+        }
+        if (parallelLoader != null) {
+            parallelLoader.shutdown();
+        }
+        parallelLoader = threads == 1 ? null : new ParallelCSVLoader(threads);
+    }
+    
+    public int getLoadParallelism() {
+        return parallelLoader == null ? 1 : parallelLoader.getParallelism();
+    }
+    
+    // How long after its end a COMPLETED, CANCELLED or EXPIRED booking may be moved to cold storage
+    // by archiveColdBookings. 0 disables archiving.
+    public void setColdStorageAge(long ageMillis) {
+        if (ageMillis < 0) {
+            throw new IllegalArgumentException("Cold storage age cannot be negative");
+        }
+        coldStorageAgeMillis = ageMillis;
+    }
+    
+    public long getColdStorageAge() {
+        return coldStorageAgeMillis;
+    }
+    
+    // Lets several processes write this data directory. Writes take a FileChannel lock per file and
+    // bump the file's generation counter, which getGenerations exposes for change detection.
+    // The other layouts keep in-memory indexes of their files, so sharing needs SINGLE_FILE.
+    public void setSharedAccess(boolean shared) {
+        bookingsLock.writeLock().lock();
+        usersLock.writeLock().lock();
+        roomsLock.writeLock().lock();
+        try {
+            if (shared == (sharedDirectory != null)) {
+                return;
+            }
+            if (!shared) {
+                closeSharedDirectory();
+                return;
+            }
+            if (bookingLayout != BookingFileLayout.SINGLE_FILE) {
+                throw new IllegalStateException("Only the SINGLE_FILE layout can be shared between processes");
+            }
+            sharedDirectory = new SharedDataDirectory(dataDirectory);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open the lock file in " + dataDirectory + ": " + e.getMessage(), e);
+        } finally {
+            roomsLock.writeLock().unlock();
+            usersLock.writeLock().unlock();
+            bookingsLock.writeLock().unlock();
+        }
+    }
+    
+    public boolean isSharedAccess() {
+        return sharedDirectory != null;
+    }
+    
+    private void closeSharedDirectory() {
+        try {
+            sharedDirectory.close();
+        } catch (IOException e) {
+            System.err.println("Error closing the lock file: " + e.getMessage());
+        }
+        sharedDirectory = null;
+    }
+    
+    // Folds any pending journal records into bookings.csv and stops background threads.
+    public void shutdown() {
+        if (bookingJournal != null) {
+            bookingJournal.shutdown();
+        }
+        if (parallelLoader != null) {
+            parallelLoader.shutdown();
+        }
+        if (bookingRecords != null) {
+            try {
+                bookingRecords.close();
+            } catch (IOException e) {
+                System.err.println("Error closing booking records: " + e.getMessage());
+            }
+        }
+        if (sharedDirectory != null) {
+            closeSharedDirectory();
+        }
+    }
+    
     // ============== //
     // INITIALIZATION
     // ============== //
@@ -41,16 +416,42 @@ public class CSVStorageService implements IStorageService {
     @Override
     public void initialize() {
         // Create data directory if it doesn't exist
-        File directory = new File(DATA_DIRECTORY);
+        File directory = new File(dataDirectory);
         if (!directory.exists()) {
             directory.mkdirs();
-            System.out.println("Created data directory: " + DATA_DIRECTORY);
+            System.out.println("Created data directory: " + dataDirectory);
         }
         
         // Create CSV files with headers if they don't exist
-        createFileWithHeader(USERS_FILE, getUserCSVHeader());
-        createFileWithHeader(ROOMS_FILE, getRoomCSVHeader());
-        createFileWithHeader(BOOKINGS_FILE, getBookingCSVHeader());
+        createFileWithHeader(usersFile, getUserCSVHeader());
+        createFileWithHeader(roomsFile, getRoomCSVHeader());
+        createFileWithHeader(bookingsFile, getBookingCSVHeader());
+        
+        detectSchemaVersions();
+        foldLeftoverJournal();
+        finishColdArchiving();
+    }
+    
+    // Folds a journal left by a JOURNALED run that never shut down into bookings.csv, whatever the
+    // layout now. Left in place, its records would be replayed over newer rows on the next switch to JOURNALED.
+    private void foldLeftoverJournal() {
+        if (!BookingJournal.exists(bookingsJournalFile)) {
+            return;
+        }
+        lockForWrite(bookingsLock, SharedDataDirectory.Entity.BOOKINGS); // Brings bookings.csv to the current schema
+        try {
+            if (bookingJournal != null) {
+                return; // The journal belongs to the current layout
+            }
+            new BookingJournal(bookingsFile, bookingsJournalFile, BOOKING_SCHEMA).shutdown();
+            File journal = new File(bookingsJournalFile);
+            if (journal.length() == 0) {
+                journal.delete(); // Empty journals are not compacted
+            }
+            bookingIndex.invalidate();
+        } finally {
+            unlockForWrite(bookingsLock, SharedDataDirectory.Entity.BOOKINGS);
+        }
     }
     
     
@@ -58,7 +459,7 @@ public class CSVStorageService implements IStorageService {
     private void createFileWithHeader(String filePath, String header) {
         File file = new File(filePath);
         if (!file.exists() || file.length() == 0) {
-            try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            try (PrintWriter writer = openWriter(filePath, false)) {
                 writer.println(header);
                 System.out.println("Created file: " + filePath);
             } catch (IOException e) {
@@ -67,22 +468,37 @@ public class CSVStorageService implements IStorageService {
         }
     }
     
+    // Truncates a CSV file to just its header.
+    private void writeHeaderOnly(String filePath, String header) throws IOException {
+        try (PrintWriter writer = openWriter(filePath, false)) {
+            writer.println(header);
+            checkWritten(writer, filePath);
+        }
+    }
+    
+    // PrintWriter swallows write errors; this turns them back into an IOException.
+    private static void checkWritten(PrintWriter writer, String filePath) throws IOException {
+        if (writer.checkError()) {
+            throw new IOException("Write to " + filePath + " failed");
+        }
+    }
+    
     
     // Returns the CSV header for users file.
-    private String getUserCSVHeader() {
-        return "userId,email,password,accountType,verified,status,organizationId,studentNumber,isSuperAdmin";
+    static String getUserCSVHeader() {
+        return USER_SCHEMA.getHeader();
     }
     
     
     // Returns the CSV header for rooms file.
-    private String getRoomCSVHeader() {
-        return "roomId,building,roomNumber,capacity,status";
+    static String getRoomCSVHeader() {
+        return ROOM_SCHEMA.getHeader();
     }
     
    
     // Returns the CSV header for bookings file.
-    private String getBookingCSVHeader() {
-        return "bookingId,userId,roomId,startTime,endTime,status,totalAmount,totalCurrency,depositAmount,depositCurrency";
+    static String getBookingCSVHeader() {
+        return BOOKING_SCHEMA.getHeader();
     }
     
     // =============== //
@@ -90,32 +506,65 @@ public class CSVStorageService implements IStorageService {
     // =============== //
     
     @Override
-    public void saveUser(UserAccount user) {
+    public boolean saveUser(UserAccount user) {
         if (user == null) {
             throw new IllegalArgumentException("User cannot be null");
         }
         
-        // Check if user already exists (update instead of duplicate)
-        if (findUserById(user.getUserId()) != null) {
-            updateUser(user);
-            return;
+        lockForWrite(usersLock, SharedDataDirectory.Entity.USERS);
+        try {
+            // Check if user already exists (update instead of duplicate)
+            if (findUserById(user.getUserId()) != null) {
+                return updateUser(user);
+            }
+            
+            try (PrintWriter writer = openWriter(usersFile, true)) {
+                writer.println(userToCSV(user, true));
+                checkWritten(writer, usersFile);
+                System.out.println("Saved user: " + user.getEmail());
+                return true;
+            } catch (IOException e) {
+                System.err.println("Error saving user: " + e.getMessage());
+                return false;
+            }
+        } finally {
+            unlockForWrite(usersLock, SharedDataDirectory.Entity.USERS);
+        }
+    }
+    
+
+    // Saves many users in one buffered pass over users.csv.
+    @Override
+    public boolean saveAllUsers(List<UserAccount> users) {
+        if (users == null) {
+            throw new IllegalArgumentException("Users cannot be null");
+        }
+        
+        Map<Integer, String> rows = new LinkedHashMap<>();
+        for (UserAccount user : users) {
+            rows.put(user.getUserId(), userToCSV(user, true));
         }
         
-        try (PrintWriter writer = new PrintWriter(new FileWriter(USERS_FILE, true))) {
-            writer.println(userToCSV(user));
-            System.out.println("Saved user: " + user.getEmail());
+        lockForWrite(usersLock, SharedDataDirectory.Entity.USERS);
+        try {
+            rewrite(usersFile, getUserCSVHeader(), rows);
+            System.out.println("Saved " + users.size() + " users");
+            return true;
         } catch (IOException e) {
-            System.err.println("Error saving user: " + e.getMessage());
+            System.err.println("Error saving users: " + e.getMessage());
+            return false;
+        } finally {
+            unlockForWrite(usersLock, SharedDataDirectory.Entity.USERS);
         }
     }
     
-
-    // Converts a UserAccount to CSV format.
-    private String userToCSV(UserAccount user) {
+    
+    // Converts a UserAccount to CSV format. Without the password, its column holds NULL.
+    static String userToCSV(UserAccount user, boolean withPassword) {
         StringBuilder sb = new StringBuilder();
         sb.append(user.getUserId()).append(DELIMITER);
         sb.append(escapeCSV(user.getEmail())).append(DELIMITER);
-        sb.append(escapeCSV(user.password)).append(DELIMITER);
+        sb.append(withPassword ? escapeCSV(user.password) : NULL_PLACEHOLDER).append(DELIMITER);
         sb.append(user.getAccountType().name()).append(DELIMITER);
         sb.append(user.isVerified()).append(DELIMITER);
         sb.append(escapeCSV(user.getStatus())).append(DELIMITER);
@@ -134,9 +583,18 @@ public class CSVStorageService implements IStorageService {
     
     @Override
     public List<UserAccount> loadAllUsers() {
+        if (parallelLoader != null) {
+            return loadInParallel(usersFile, usersLock, () -> {
+                CSVTokenizer tokenizer = new CSVTokenizer();
+                return line -> csvToUser(line, tokenizer);
+            });
+        }
+        
         List<UserAccount> users = new ArrayList<>();
+        CSVTokenizer tokenizer = new CSVTokenizer();
         
-        try (BufferedReader reader = new BufferedReader(new FileReader(USERS_FILE))) {
+        usersLock.readLock().lock();
+        try (BufferedReader reader = openReader(usersFile)) {
             String line;
             boolean isHeader = true;
             
@@ -147,7 +605,7 @@ public class CSVStorageService implements IStorageService {
                 }
                 
                 if (!line.trim().isEmpty()) {
-                    UserAccount user = csvToUser(line);
+                    UserAccount user = csvToUser(line, tokenizer);
                     if (user != null) {
                         users.add(user);
                     }
@@ -155,6 +613,8 @@ public class CSVStorageService implements IStorageService {
             }
         } catch (IOException e) {
             System.err.println("Error loading users: " + e.getMessage());
+        } finally {
+            usersLock.readLock().unlock();
         }
         
         return users;
@@ -162,54 +622,29 @@ public class CSVStorageService implements IStorageService {
     
     
     // Converts a CSV line to a UserAccount object.
-    private UserAccount csvToUser(String csvLine) {
+    private UserAccount csvToUser(String csvLine, CSVTokenizer tokenizer) {
+        rowsParsed.increment();
+        csvLine = userSchemaState.upgrade(csvLine);
         try {
-            String[] parts = parseCSVLine(csvLine);
+            tokenizer.reset(csvLine);
             
-            if (parts.length < 9) {
+            if (tokenizer.fieldCount() < 9) {
                 System.err.println("Invalid user CSV line: " + csvLine);
                 return null;
             }
             
-            int userId = Integer.parseInt(parts[0].trim());
-            String email = unescapeCSV(parts[1]);
-            String password = unescapeCSV(parts[2]);
-            AccountType accountType = AccountType.valueOf(parts[3].trim());
-            boolean verified = Boolean.parseBoolean(parts[4].trim());
-            String status = unescapeCSV(parts[5]);
-            String organizationId = nullRestore(parts[6]);
-            String studentNumber = nullRestore(parts[7]);
-            boolean isSuperAdmin = Boolean.parseBoolean(parts[8].trim());
-            
-            // Create appropriate account type
-            UserAccount user;
-            switch (accountType) {
-                case STUDENT:
-                    user = new StudentAccount(email, password, organizationId, studentNumber);
-                    break;
-                case FACULTY:
-                    user = new FacultyAccount(email, password, organizationId, studentNumber);
-                    break;
-                case STAFF:
-                    user = new StaffAccount(email, password, organizationId, studentNumber);
-                    break;
-                case PARTNER:
-                    user = new PartnerAccount(email, password, organizationId, studentNumber);
-                    break;
-                case ADMIN:
-                    user = new AdminAccount(email, password, organizationId, studentNumber, isSuperAdmin);
-                    break;
-                default:
-                    return null;
-            }
-            
-            // Set additional fields using reflection or direct access
-            user.userId = userId;
-            user.verified = verified;
-            user.status = status;
-            user.accountType = accountType;
+            int userId = tokenizer.getInt(0);
+            String email = tokenizer.getString(1);
+            String password = tokenizer.getString(2);
+            AccountType accountType = AccountType.valueOf(tokenizer.getString(3, ACCOUNT_TYPE_NAMES));
+            boolean verified = tokenizer.getBoolean(4);
+            String status = tokenizer.getString(5, USER_STATUSES);
+            String organizationId = tokenizer.getString(6);
+            String studentNumber = tokenizer.getString(7);
+            boolean isSuperAdmin = tokenizer.getBoolean(8);
             
-            return user;
+            return EntityRestorer.restoreUser(userId, email, password, accountType, verified, status,
+                    organizationId, studentNumber, isSuperAdmin);
             
         } catch (Exception e) {
             System.err.println("Error parsing user CSV: " + e.getMessage());
@@ -242,52 +677,50 @@ public class CSVStorageService implements IStorageService {
     
     
     // Updates an existing user in storage.
-    private void updateUser(UserAccount updatedUser) {
-        List<UserAccount> users = loadAllUsers();
-        
-        // Rewrite file with updated user
-        rewriteUsersFile(users, updatedUser);
-    }
-    
-    
-    // Rewrites the users file, replacing the user with matching ID.
-    private void rewriteUsersFile(List<UserAccount> users, UserAccount updatedUser) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(USERS_FILE))) {
-            writer.println(getUserCSVHeader());
-            
-            for (UserAccount user : users) {
-                if (user.getUserId() == updatedUser.getUserId()) {
-                    writer.println(userToCSV(updatedUser));
-                } else {
-                    writer.println(userToCSV(user));
-                }
-            }
+    private boolean updateUser(UserAccount updatedUser) {
+        lockForWrite(usersLock, SharedDataDirectory.Entity.USERS);
+        try {
+            rewrite(usersFile, getUserCSVHeader(),
+                    Collections.singletonMap(updatedUser.getUserId(), userToCSV(updatedUser, true)));
+            return true;
         } catch (IOException e) {
             System.err.println("Error updating user: " + e.getMessage());
+            return false;
+        } finally {
+            unlockForWrite(usersLock, SharedDataDirectory.Entity.USERS);
         }
     }
     
     @Override
     public boolean deleteUser(int userId) {
-        List<UserAccount> users = loadAllUsers();
-        boolean found = false;
-        
-        try (PrintWriter writer = new PrintWriter(new FileWriter(USERS_FILE))) {
-            writer.println(getUserCSVHeader());
-            
-            for (UserAccount user : users) {
-                if (user.getUserId() == userId) {
-                    found = true; // Skip this user (delete)
-                } else {
-                    writer.println(userToCSV(user));
-                }
-            }
+        lockForWrite(usersLock, SharedDataDirectory.Entity.USERS);
+        try {
+            // A null row drops the user
+            return rewrite(usersFile, getUserCSVHeader(), Collections.singletonMap(userId, null)) > 0;
         } catch (IOException e) {
             System.err.println("Error deleting user: " + e.getMessage());
             return false;
+        } finally {
+            unlockForWrite(usersLock, SharedDataDirectory.Entity.USERS);
+        }
+    }
+    
+    // Deletes many users in one pass over users.csv.
+    @Override
+    public boolean deleteAllUsers(Collection<Integer> userIds) {
+        if (userIds.isEmpty()) {
+            return true;
+        }
+        lockForWrite(usersLock, SharedDataDirectory.Entity.USERS);
+        try {
+            rewrite(usersFile, getUserCSVHeader(), removalsOf(userIds));
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error deleting users: " + e.getMessage());
+            return false;
+        } finally {
+            unlockForWrite(usersLock, SharedDataDirectory.Entity.USERS);
         }
-        
-        return found;
     }
     
     // =============== //
@@ -295,28 +728,61 @@ public class CSVStorageService implements IStorageService {
     // =============== //
     
     @Override
-    public void saveRoom(Room room) {
+    public boolean saveRoom(Room room) {
         if (room == null) {
             throw new IllegalArgumentException("Room cannot be null");
         }
         
-        // Check if room already exists (update instead)
-        if (findRoomById(room.getRoomId()) != null) {
-            updateRoom(room);
-            return;
+        lockForWrite(roomsLock, SharedDataDirectory.Entity.ROOMS);
+        try {
+            // Check if room already exists (update instead)
+            if (findRoomById(room.getRoomId()) != null) {
+                return updateRoom(room);
+            }
+            
+            try (PrintWriter writer = openWriter(roomsFile, true)) {
+                writer.println(roomToCSV(room));
+                checkWritten(writer, roomsFile);
+                System.out.println("Saved room: " + room.getRoomId());
+                return true;
+            } catch (IOException e) {
+                System.err.println("Error saving room: " + e.getMessage());
+                return false;
+            }
+        } finally {
+            unlockForWrite(roomsLock, SharedDataDirectory.Entity.ROOMS);
+        }
+    }
+    
+    
+    // Saves many rooms in one buffered pass over rooms.csv.
+    @Override
+    public boolean saveAllRooms(List<Room> rooms) {
+        if (rooms == null) {
+            throw new IllegalArgumentException("Rooms cannot be null");
+        }
+        
+        Map<Integer, String> rows = new LinkedHashMap<>();
+        for (Room room : rooms) {
+            rows.put(room.getRoomId(), roomToCSV(room));
         }
         
-        try (PrintWriter writer = new PrintWriter(new FileWriter(ROOMS_FILE, true))) {
-            writer.println(roomToCSV(room));
-            System.out.println("Saved room: " + room.getRoomId());
+        lockForWrite(roomsLock, SharedDataDirectory.Entity.ROOMS);
+        try {
+            rewrite(roomsFile, getRoomCSVHeader(), rows);
+            System.out.println("Saved " + rooms.size() + " rooms");
+            return true;
         } catch (IOException e) {
-            System.err.println("Error saving room: " + e.getMessage());
+            System.err.println("Error saving rooms: " + e.getMessage());
+            return false;
+        } finally {
+            unlockForWrite(roomsLock, SharedDataDirectory.Entity.ROOMS);
         }
     }
     
     
     // Converts a Room to CSV format.
-    private String roomToCSV(Room room) {
+    static String roomToCSV(Room room) {
         StringBuilder sb = new StringBuilder();
         sb.append(room.getRoomId()).append(DELIMITER);
         sb.append(escapeCSV(room.getBuilding())).append(DELIMITER);
@@ -328,9 +794,18 @@ public class CSVStorageService implements IStorageService {
     
     @Override
     public List<Room> loadAllRooms() {
+        if (parallelLoader != null) {
+            return loadInParallel(roomsFile, roomsLock, () -> {
+                CSVTokenizer tokenizer = new CSVTokenizer();
+                return line -> csvToRoom(line, tokenizer);
+            });
+        }
+        
         List<Room> rooms = new ArrayList<>();
+        CSVTokenizer tokenizer = new CSVTokenizer();
         
-        try (BufferedReader reader = new BufferedReader(new FileReader(ROOMS_FILE))) {
+        roomsLock.readLock().lock();
+        try (BufferedReader reader = openReader(roomsFile)) {
             String line;
             boolean isHeader = true;
             
@@ -341,7 +816,7 @@ public class CSVStorageService implements IStorageService {
                 }
                 
                 if (!line.trim().isEmpty()) {
-                    Room room = csvToRoom(line);
+                    Room room = csvToRoom(line, tokenizer);
                     if (room != null) {
                         rooms.add(room);
                     }
@@ -349,6 +824,8 @@ public class CSVStorageService implements IStorageService {
             }
         } catch (IOException e) {
             System.err.println("Error loading rooms: " + e.getMessage());
+        } finally {
+            roomsLock.readLock().unlock();
         }
         
         return rooms;
@@ -356,20 +833,22 @@ public class CSVStorageService implements IStorageService {
     
     
     // Converts a CSV line to a Room object.
-    private Room csvToRoom(String csvLine) {
+    private Room csvToRoom(String csvLine, CSVTokenizer tokenizer) {
+        rowsParsed.increment();
+        csvLine = roomSchemaState.upgrade(csvLine);
         try {
-            String[] parts = parseCSVLine(csvLine);
+            tokenizer.reset(csvLine);
             
-            if (parts.length < 5) {
+            if (tokenizer.fieldCount() < 5) {
                 System.err.println("Invalid room CSV line: " + csvLine);
                 return null;
             }
             
-            int roomId = Integer.parseInt(parts[0].trim());
-            String building = unescapeCSV(parts[1]);
-            String roomNumber = unescapeCSV(parts[2]);
-            int capacity = Integer.parseInt(parts[3].trim());
-            String status = unescapeCSV(parts[4]);
+            int roomId = tokenizer.getInt(0);
+            String building = tokenizer.getString(1);
+            String roomNumber = tokenizer.getString(2);
+            int capacity = tokenizer.getInt(3);
+            String status = tokenizer.getString(4, ROOM_STATUSES);
             
             return new Room(roomId, building, roomNumber, capacity, status);
             
@@ -389,46 +868,50 @@ public class CSVStorageService implements IStorageService {
         return null;
     }
     
+    // A room that is not stored is ignored.
     @Override
-    public void updateRoom(Room updatedRoom) {
-        List<Room> rooms = loadAllRooms();
-        
-        try (PrintWriter writer = new PrintWriter(new FileWriter(ROOMS_FILE))) {
-            writer.println(getRoomCSVHeader());
-            
-            for (Room room : rooms) {
-                if (room.getRoomId() == updatedRoom.getRoomId()) {
-                    writer.println(roomToCSV(updatedRoom));
-                } else {
-                    writer.println(roomToCSV(room));
-                }
-            }
+    public boolean updateRoom(Room updatedRoom) {
+        lockForWrite(roomsLock, SharedDataDirectory.Entity.ROOMS);
+        try {
+            return rewrite(roomsFile, getRoomCSVHeader(),
+                    Collections.singletonMap(updatedRoom.getRoomId(), roomToCSV(updatedRoom)), false) > 0;
         } catch (IOException e) {
             System.err.println("Error updating room: " + e.getMessage());
+            return false;
+        } finally {
+            unlockForWrite(roomsLock, SharedDataDirectory.Entity.ROOMS);
         }
     }
     
     @Override
     public boolean deleteRoom(int roomId) {
-        List<Room> rooms = loadAllRooms();
-        boolean found = false;
-        
-        try (PrintWriter writer = new PrintWriter(new FileWriter(ROOMS_FILE))) {
-            writer.println(getRoomCSVHeader());
-            
-            for (Room room : rooms) {
-                if (room.getRoomId() == roomId) {
-                    found = true;
-                } else {
-                    writer.println(roomToCSV(room));
-                }
-            }
+        lockForWrite(roomsLock, SharedDataDirectory.Entity.ROOMS);
+        try {
+            return rewrite(roomsFile, getRoomCSVHeader(), Collections.singletonMap(roomId, null)) > 0;
         } catch (IOException e) {
             System.err.println("Error deleting room: " + e.getMessage());
             return false;
+        } finally {
+            unlockForWrite(roomsLock, SharedDataDirectory.Entity.ROOMS);
+        }
+    }
+    
+    // Deletes many rooms in one pass over rooms.csv.
+    @Override
+    public boolean deleteAllRooms(Collection<Integer> roomIds) {
+        if (roomIds.isEmpty()) {
+            return true;
+        }
+        lockForWrite(roomsLock, SharedDataDirectory.Entity.ROOMS);
+        try {
+            rewrite(roomsFile, getRoomCSVHeader(), removalsOf(roomIds));
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error deleting rooms: " + e.getMessage());
+            return false;
+        } finally {
+            unlockForWrite(roomsLock, SharedDataDirectory.Entity.ROOMS);
         }
-        
-        return found;
     }
     
     // ================== //
@@ -436,127 +919,446 @@ public class CSVStorageService implements IStorageService {
     // ================== //
     
     @Override
-    public void saveBooking(Booking booking) {
+    public boolean saveBooking(Booking booking) {
         if (booking == null) {
             throw new IllegalArgumentException("Booking cannot be null");
         }
         
-        // Check if booking already exists (update instead)
-        if (findBookingById(booking.getBookingId()) != null) {
-            updateBooking(booking);
-            return;
+        Lock lock = lockBookingsForWrite();
+        try {
+            return saveBookingLocked(booking);
+        } finally {
+            unlockBookingsForWrite(lock);
+        }
+    }
+    
+    private boolean saveBookingLocked(Booking booking) {
+        // Journal records are upserts, so no existence check is needed
+        if (bookingLayout == BookingFileLayout.JOURNALED) {
+            return saveToJournal(Collections.singletonMap(booking.getBookingId(), bookingToCSV(booking)));
+        }
+        if (bookingLayout == BookingFileLayout.PARTITIONED) {
+            return saveToPartitions(Collections.singletonMap(booking.getBookingId(), bookingToCSV(booking)));
+        }
+        if (bookingLayout == BookingFileLayout.FIXED_WIDTH) {
+            return saveToRecords(Collections.singletonList(booking));
+        }
+        
+        // Check if booking already exists in bookings.csv (update instead); an archived one gets a new row
+        if (findBookingByIdLocked(booking.getBookingId()) != null) {
+            return updateBookingLocked(booking);
         }
         
-        try (PrintWriter writer = new PrintWriter(new FileWriter(BOOKINGS_FILE, true))) {
+        // The new row starts at the current end of the file
+        File file = new File(bookingsFile);
+        long lengthBefore = file.length();
+        long modifiedBefore = file.lastModified();
+        try (PrintWriter writer = openWriter(bookingsFile, true)) {
             writer.println(bookingToCSV(booking));
+            checkWritten(writer, bookingsFile);
             System.out.println("Saved booking: " + booking.getBookingId());
         } catch (IOException e) {
             System.err.println("Error saving booking: " + e.getMessage());
+            bookingIndex.invalidate();
+            return false;
         }
+        bookingIndex.rowAppended(lengthBefore, booking.getUser().getUserId(), booking.getRoom().getRoomId(),
+                lengthBefore, modifiedBefore);
+        return true;
     }
     
-    // Converts a Booking to CSV format.
-    private String bookingToCSV(Booking booking) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(booking.getBookingId()).append(DELIMITER);
-        sb.append(booking.getUser().getUserId()).append(DELIMITER);
-        sb.append(booking.getRoom().getRoomId()).append(DELIMITER);
-        sb.append(DATE_FORMAT.format(booking.getStartTime())).append(DELIMITER);
-        sb.append(DATE_FORMAT.format(booking.getEndTime())).append(DELIMITER);
-        sb.append(escapeCSV(booking.getStatus())).append(DELIMITER);
-        
-        // Handle nullable money fields
-        if (booking.getTotalAmount() != null) {
-            sb.append(booking.getTotalAmount().getAmount()).append(DELIMITER);
-            sb.append(escapeCSV(booking.getTotalAmount().getCurrency())).append(DELIMITER);
-        } else {
-            sb.append("0.0").append(DELIMITER);
-            sb.append("CAD").append(DELIMITER);
+    // Saves many bookings in one buffered pass (one journal append in JOURNALED layout).
+    @Override
+    public boolean saveAllBookings(List<Booking> bookings) {
+        if (bookings == null) {
+            throw new IllegalArgumentException("Bookings cannot be null");
         }
         
-        if (booking.getDepositAmount() != null) {
-            sb.append(booking.getDepositAmount().getAmount()).append(DELIMITER);
-            sb.append(escapeCSV(booking.getDepositAmount().getCurrency()));
-        } else {
-            sb.append("0.0").append(DELIMITER);
-            sb.append("CAD");
+        Lock lock = lockBookingsForWrite();
+        try {
+            return saveAllBookingsLocked(bookings);
+        } finally {
+            unlockBookingsForWrite(lock);
         }
-        
-        return sb.toString();
     }
     
-    @Override
-    public List<Booking> loadAllBookings() {
-        List<Booking> bookings = new ArrayList<>();
+    private boolean saveAllBookingsLocked(List<Booking> bookings) {
+        if (bookingLayout == BookingFileLayout.FIXED_WIDTH) {
+            return saveToRecords(bookings);
+        }
         
-        // Need users and rooms loaded first to reconstruct bookings
-        List<UserAccount> users = loadAllUsers();
-        List<Room> rooms = loadAllRooms();
+        Map<Integer, String> rows = new LinkedHashMap<>();
+        for (Booking booking : bookings) {
+            rows.put(booking.getBookingId(), bookingToCSV(booking));
+        }
         
-        try (BufferedReader reader = new BufferedReader(new FileReader(BOOKINGS_FILE))) {
-            String line;
-            boolean isHeader = true;
-            
-            while ((line = reader.readLine()) != null) {
-                if (isHeader) {
-                    isHeader = false;
-                    continue;
-                }
-                
-                if (!line.trim().isEmpty()) {
-                    Booking booking = csvToBooking(line, users, rooms);
-                    if (booking != null) {
-                        bookings.add(booking);
-                    }
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Error loading bookings: " + e.getMessage());
+        if (bookingLayout == BookingFileLayout.JOURNALED) {
+            return saveToJournal(rows);
+        }
+        if (bookingLayout == BookingFileLayout.PARTITIONED) {
+            return saveToPartitions(rows);
         }
         
-        return bookings;
+        try {
+            rewriteBookingsFile(rows);
+            System.out.println("Saved " + bookings.size() + " bookings");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving bookings: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    // Locks the bookings for a write. The journal, the partitions and the record file serialize their own
+    // writes, so in those layouts writers share the lock and only exclude a layout switch; rewriting
+    // bookings.csv needs the lock exclusively.
+    private Lock lockBookingsForWrite() {
+        while (true) {
+            BookingFileLayout layout = bookingLayout;
+            Lock lock = layout == BookingFileLayout.SINGLE_FILE ? bookingsLock.writeLock() : bookingsLock.readLock();
+            lock.lock();
+            if (bookingLayout == layout) {
+                try {
+                    beginSharedWrite(SharedDataDirectory.Entity.BOOKINGS);
+                } catch (RuntimeException e) {
+                    lock.unlock();
+                    throw e;
+                }
+                if (layout == BookingFileLayout.SINGLE_FILE) {
+                    try {
+                        migrateLocked(bookingSchemaState);
+                    } catch (RuntimeException e) {
+                        unlockBookingsForWrite(lock);
+                        throw e;
+                    }
+                }
+                return lock;
+            }
+            lock.unlock(); // The layout changed while waiting
+        }
+    }
+    
+    private void unlockBookingsForWrite(Lock lock) {
+        endSharedWrite(SharedDataDirectory.Entity.BOOKINGS);
+        lock.unlock();
+    }
+    
+    // Rewrites bookings.csv in the SINGLE_FILE layout. Row offsets move, so the offset index is dropped.
+    private int rewriteBookingsFile(Map<Integer, String> rows) throws IOException {
+        return rewriteBookingsFile(rows, true);
+    }
+    
+    private int rewriteBookingsFile(Map<Integer, String> rows, boolean appendUnmatched) throws IOException {
+        try {
+            return rewrite(bookingsFile, getBookingCSVHeader(), rows, appendUnmatched);
+        } finally {
+            bookingIndex.invalidate();
+        }
+    }
+    
+    // Appends upsert records to the journal (one append for many rows).
+    private boolean saveToJournal(Map<Integer, String> rows) {
+        try {
+            if (rows.size() == 1) {
+                Map.Entry<Integer, String> row = rows.entrySet().iterator().next();
+                bookingJournal.appendUpsert(row.getKey(), row.getValue());
+            } else {
+                bookingJournal.appendUpserts(rows);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error appending to booking journal: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    // Upserts rows into the month segments; only the months involved are rewritten.
+    private boolean saveToPartitions(Map<Integer, String> rows) {
+        try {
+            bookingPartitions.upsert(rows);
+            System.out.println("Saved " + rows.size() + " bookings");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving bookings: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    // Overwrites each booking's fixed-width record in place (one positioned write per booking).
+    private boolean saveToRecords(List<Booking> bookings) {
+        try {
+            for (Booking booking : bookings) {
+                bookingRecords.put(BookingRecordFile.Record.of(booking));
+            }
+            System.out.println("Saved " + bookings.size() + " bookings");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving bookings: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    // Converts a Booking to CSV format.
+    static String bookingToCSV(Booking booking) {
+        // Missing Money values become 0.0 CAD
+        return recordToCSV(BookingRecordFile.Record.of(booking));
     }
     
+    private static String recordToCSV(BookingRecordFile.Record record) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(record.bookingId).append(DELIMITER);
+        sb.append(record.userId).append(DELIMITER);
+        sb.append(record.roomId).append(DELIMITER);
+        sb.append(DATE_FORMAT.format(Instant.ofEpochMilli(record.startTime))).append(DELIMITER);
+        sb.append(DATE_FORMAT.format(Instant.ofEpochMilli(record.endTime))).append(DELIMITER);
+        sb.append(escapeCSV(record.status)).append(DELIMITER);
+        sb.append(record.totalAmount).append(DELIMITER);
+        sb.append(escapeCSV(record.totalCurrency)).append(DELIMITER);
+        sb.append(record.depositAmount).append(DELIMITER);
+        sb.append(escapeCSV(record.depositCurrency));
+        return sb.toString();
+    }
+    
+    // Parses a booking CSV line into record columns, without resolving its user and room.
+    private BookingRecordFile.Record csvToRecord(String csvLine, CSVTokenizer tokenizer) {
+        rowsParsed.increment();
+        tokenizer.reset(csvLine);
+        if (tokenizer.fieldCount() < 10) {
+            throw new IllegalArgumentException("Invalid booking CSV line: " + csvLine);
+        }
+        BookingRecordFile.Record record = new BookingRecordFile.Record();
+        record.bookingId = tokenizer.getInt(0);
+        record.userId = tokenizer.getInt(1);
+        record.roomId = tokenizer.getInt(2);
+        record.startTime = tokenizer.getTimestamp(3);
+        record.endTime = tokenizer.getTimestamp(4);
+        record.status = tokenizer.getString(5, BOOKING_STATUSES);
+        record.totalAmount = tokenizer.getDouble(6);
+        record.totalCurrency = tokenizer.getString(7, CURRENCIES);
+        record.depositAmount = tokenizer.getDouble(8);
+        record.depositCurrency = tokenizer.getString(9, CURRENCIES);
+        return record;
+    }
     
-    // Converts a CSV line to a Booking object.
-    // Requires users and rooms lists to reconstruct relationships.
-    private Booking csvToBooking(String csvLine, List<UserAccount> users, List<Room> rooms) {
+    @Override
+    public List<Booking> loadAllBookings() {
+        bookingsLock.readLock().lock();
         try {
-            String[] parts = parseCSVLine(csvLine);
+            if (parallelLoader != null) {
+                return loadBookingsInParallel();
+            }
             
-            if (parts.length < 10) {
-                System.err.println("Invalid booking CSV line: " + csvLine);
-                return null;
+            try (Stream<Booking> bookings = streamAllBookings()) {
+                return bookings.collect(Collectors.toCollection(ArrayList::new));
             }
+        } finally {
+            bookingsLock.readLock().unlock();
+        }
+    }
+    
+    
+    // Parallel version of loadAllBookings; returns the same bookings in the same order.
+    private List<Booking> loadBookingsInParallel() {
+        if (bookingLayout == BookingFileLayout.FIXED_WIDTH) {
+            return loadBookingsFromRecords(); // No text to parse
+        }
+        
+        Map<Integer, UserAccount> usersById = indexUsersById();
+        Map<Integer, Room> roomsById = indexRoomsById();
+        
+        if (bookingLayout == BookingFileLayout.SINGLE_FILE) {
+            return loadInParallel(bookingsFile, bookingsLock, () -> {
+                CSVTokenizer tokenizer = new CSVTokenizer();
+                return line -> csvToBooking(line, tokenizer, usersById, roomsById);
+            });
+        }
+        
+        if (bookingLayout == BookingFileLayout.PARTITIONED) {
+            List<Booking> bookings = new ArrayList<>();
+            for (String segment : bookingPartitions.getSegmentPaths()) {
+                UnaryOperator<String> upgrade;
+                try {
+                    upgrade = bookingPartitions.upgradeOf(segment);
+                } catch (IOException e) {
+                    System.err.println("Error loading " + segment + ": " + e.getMessage());
+                    continue;
+                }
+                bookings.addAll(loadInParallel(segment, bookingsLock, () -> {
+                    CSVTokenizer tokenizer = new CSVTokenizer();
+                    return line -> parseBooking(upgrade == null ? line : upgrade.apply(line), tokenizer,
+                            usersById, roomsById);
+                }));
+            }
+            return bookings;
+        }
+        
+        // Apply the journal line by line, then append bookings that only exist in the journal
+        try (BookingJournal.Snapshot snapshot = bookingJournal.openSnapshot()) {
+            Map<Integer, String> overlay = snapshot.getOverlay();
+            Set<Integer> replacedIds = ConcurrentHashMap.newKeySet();
             
-            int bookingId = Integer.parseInt(parts[0].trim());
-            int userId = Integer.parseInt(parts[1].trim());
-            int roomId = Integer.parseInt(parts[2].trim());
-            Date startTime = DATE_FORMAT.parse(parts[3].trim());
-            Date endTime = DATE_FORMAT.parse(parts[4].trim());
-            String status = unescapeCSV(parts[5]);
-            double totalAmount = Double.parseDouble(parts[6].trim());
-            String totalCurrency = unescapeCSV(parts[7]);
-            double depositAmount = Double.parseDouble(parts[8].trim());
-            String depositCurrency = unescapeCSV(parts[9]);
+            List<Booking> bookings = parallelLoader.load(snapshot.getBase(), () -> {
+                CSVTokenizer tokenizer = new CSVTokenizer();
+                return line -> {
+                    int bookingId = BookingJournal.parseBookingId(line);
+                    if (!overlay.containsKey(bookingId)) {
+                        return csvToBooking(line, tokenizer, usersById, roomsById);
+                    }
+                    replacedIds.add(bookingId);
+                    String replacement = overlay.get(bookingId); // Journal rows are already upgraded
+                    return replacement == null ? null : parseBooking(replacement, tokenizer, usersById, roomsById);
+                };
+            });
             
-            // Find the user and room
-            UserAccount user = null;
-            for (UserAccount u : users) {
-                if (u.getUserId() == userId) {
-                    user = u;
-                    break;
+            CSVTokenizer tokenizer = new CSVTokenizer();
+            for (Map.Entry<Integer, String> entry : overlay.entrySet()) {
+                if (entry.getValue() != null && !replacedIds.contains(entry.getKey())) {
+                    Booking booking = parseBooking(entry.getValue(), tokenizer, usersById, roomsById);
+                    if (booking != null) {
+                        bookings.add(booking);
+                    }
                 }
             }
+            return bookings;
+        } catch (IOException e) {
+            System.err.println("Error loading bookings: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+    
+    
+    // Lazily reconstructs bookings in file order. The caller must close the stream.
+    // Users and rooms are loaded once into id-keyed tables, so each line is resolved in O(1).
+    // The lock is only held while the files are opened; rewrites replace files rather than
+    // changing them, so the stream keeps reading the version it opened.
+    @Override
+    public Stream<Booking> streamAllBookings() {
+        bookingsLock.readLock().lock();
+        try {
+            if (bookingLayout == BookingFileLayout.FIXED_WIDTH) {
+                return loadBookingsFromRecords().stream();
+            }
             
-            Room room = null;
-            for (Room r : rooms) {
-                if (r.getRoomId() == roomId) {
-                    room = r;
-                    break;
+            Map<Integer, UserAccount> usersById = indexUsersById();
+            Map<Integer, Room> roomsById = indexRoomsById();
+            
+            // Streams are consumed sequentially, so one tokenizer serves the whole pass
+            CSVTokenizer tokenizer = new CSVTokenizer();
+            boolean bookingsFileLines = bookingLayout == BookingFileLayout.SINGLE_FILE;
+            return streamBookingLines()
+                    .map(line -> bookingsFileLines ? csvToBooking(line, tokenizer, usersById, roomsById)
+                            : parseBooking(line, tokenizer, usersById, roomsById))
+                    .filter(Objects::nonNull);
+        } finally {
+            bookingsLock.readLock().unlock();
+        }
+    }
+    
+    
+    // Reads every live record in slot order.
+    private List<Booking> loadBookingsFromRecords() {
+        Map<Integer, UserAccount> usersById = indexUsersById();
+        Map<Integer, Room> roomsById = indexRoomsById();
+        List<Booking> bookings = new ArrayList<>();
+        try {
+            bookingRecords.forEach(record -> {
+                Booking booking = record.toBooking(usersById, roomsById);
+                if (booking != null) {
+                    bookings.add(booking);
                 }
+            });
+        } catch (IOException e) {
+            System.err.println("Error loading bookings: " + e.getMessage());
+        }
+        return bookings;
+    }
+    
+    
+    private Map<Integer, UserAccount> indexUsersById() {
+        Map<Integer, UserAccount> usersById = new HashMap<>();
+        for (UserAccount user : loadAllUsers()) {
+            usersById.put(user.getUserId(), user);
+        }
+        return usersById;
+    }
+    
+    
+    private Map<Integer, Room> indexRoomsById() {
+        Map<Integer, Room> roomsById = new HashMap<>();
+        for (Room room : loadAllRooms()) {
+            roomsById.put(room.getRoomId(), room);
+        }
+        return roomsById;
+    }
+    
+    
+    // Streams the non-empty data lines of the bookings file, with the journal applied if enabled.
+    // Journal and partition rows come back in the current schema; bookings.csv rows as stored.
+    private Stream<String> streamBookingLines() {
+        if (bookingLayout == BookingFileLayout.JOURNALED) {
+            return bookingJournal.streamMergedLines();
+        }
+        if (bookingLayout == BookingFileLayout.PARTITIONED) {
+            return bookingPartitions.streamLines();
+        }
+        return streamBookingsFileLines();
+    }
+    
+    
+    private Stream<String> streamBookingsFileLines() {
+        try {
+            BufferedReader reader = openReader(bookingsFile);
+            return reader.lines()
+                    .skip(1) // Skip header row
+                    .filter(line -> !line.trim().isEmpty())
+                    .onClose(() -> {
+                        try {
+                            reader.close();
+                        } catch (IOException e) {
+                            System.err.println("Error closing bookings file: " + e.getMessage());
+                        }
+                    });
+        } catch (IOException e) {
+            System.err.println("Error loading bookings: " + e.getMessage());
+            return Stream.empty();
+        }
+    }
+    
+    
+    // Converts a CSV line read from bookings.csv to a Booking object, upgrading it from the file's version.
+    // Requires id-keyed users and rooms to reconstruct relationships.
+    private Booking csvToBooking(String csvLine, CSVTokenizer tokenizer,
+            Map<Integer, UserAccount> usersById, Map<Integer, Room> roomsById) {
+        return parseBooking(bookingSchemaState.upgrade(csvLine), tokenizer, usersById, roomsById);
+    }
+    
+    // Converts a CSV line already in the current schema to a Booking object.
+    private Booking parseBooking(String csvLine, CSVTokenizer tokenizer,
+            Map<Integer, UserAccount> usersById, Map<Integer, Room> roomsById) {
+        rowsParsed.increment();
+        try {
+            tokenizer.reset(csvLine);
+            
+            if (tokenizer.fieldCount() < 10) {
+                System.err.println("Invalid booking CSV line: " + csvLine);
+                return null;
             }
             
+            int bookingId = tokenizer.getInt(0);
+            int userId = tokenizer.getInt(1);
+            int roomId = tokenizer.getInt(2);
+            Date startTime = new Date(tokenizer.getTimestamp(3));
+            Date endTime = new Date(tokenizer.getTimestamp(4));
+            String status = tokenizer.getString(5, BOOKING_STATUSES);
+            double totalAmount = tokenizer.getDouble(6);
+            String totalCurrency = tokenizer.getString(7, CURRENCIES);
+            double depositAmount = tokenizer.getDouble(8);
+            String depositCurrency = tokenizer.getString(9, CURRENCIES);
+            
+            // Find the user and room
+            UserAccount user = usersById.get(userId);
+            Room room = roomsById.get(roomId);
+            
             if (user == null || room == null) {
                 System.err.println("Could not find user or room for booking: " + bookingId);
                 return null;
@@ -568,13 +1370,10 @@ public class CSVStorageService implements IStorageService {
             Booking booking = new Booking(bookingId, startTime, endTime, total, deposit, user, room);
             
             // Restore the correct state based on status
-            restoreBookingState(booking, status);
+            EntityRestorer.restoreBookingState(booking, status);
             
             return booking;
             
-        } catch (ParseException e) {
-            System.err.println("Error parsing booking date: " + e.getMessage());
-            return null;
         } catch (Exception e) {
             System.err.println("Error parsing booking CSV: " + e.getMessage());
             return null;
@@ -582,94 +1381,247 @@ public class CSVStorageService implements IStorageService {
     }
     
     
-    // Restores the booking's state based on the saved status string.
-    private void restoreBookingState(Booking booking, String status) {
-        switch (status.toUpperCase()) {
-            case "CREATED":
-                // Already in created state by default
-                break;
-            case "CHECKEDIN":
-                booking.setState(new CheckedInState());
-                break;
-            case "COMPLETED":
-                booking.setState(new CompletedState());
-                break;
-            case "CANCELLED":
-                booking.setState(new CancelledState());
-                break;
-            case "EXPIRED":
-                booking.setState(new ExpiredState());
-                break;
-            default:
-                System.err.println("Unknown booking status: " + status);
+    // Falls back to cold storage, reading only archived segments whose id range contains the booking.
+    @Override
+    public Booking findBookingById(int bookingId) {
+        bookingsLock.readLock().lock();
+        try {
+            Booking booking = findBookingByIdLocked(bookingId);
+            return booking != null ? booking : findArchivedBooking(bookingId);
+        } finally {
+            bookingsLock.readLock().unlock();
         }
     }
     
-    @Override
-    public Booking findBookingById(int bookingId) {
-        for (Booking booking : loadAllBookings()) {
-            if (booking.getBookingId() == bookingId) {
-                return booking;
+    private Booking findBookingByIdLocked(int bookingId) {
+        if (bookingLayout == BookingFileLayout.PARTITIONED) {
+            // Only the booking's own month segment is read
+            String line = bookingPartitions.findLine(bookingId);
+            return line == null ? null : parseBooking(line, new CSVTokenizer(), indexUsersById(), indexRoomsById());
+        }
+        if (bookingLayout == BookingFileLayout.FIXED_WIDTH) {
+            // One positioned read at the booking's slot
+            try {
+                BookingRecordFile.Record record = bookingRecords.get(bookingId);
+                return record == null ? null : record.toBooking(indexUsersById(), indexRoomsById());
+            } catch (IOException e) {
+                System.err.println("Error finding booking: " + e.getMessage());
+                return null;
             }
         }
-        return null;
+        
+        try (Stream<Booking> bookings = streamAllBookings()) {
+            return bookings.filter(booking -> booking.getBookingId() == bookingId)
+                    .findFirst()
+                    .orElse(null);
+        }
     }
     
+    // In SINGLE_FILE layout only the user's rows are read, found through the offset index.
     @Override
     public List<Booking> findBookingsByUserId(int userId) {
-        List<Booking> userBookings = new ArrayList<>();
-        
-        for (Booking booking : loadAllBookings()) {
-            if (booking.getUser().getUserId() == userId) {
-                userBookings.add(booking);
+        bookingsLock.readLock().lock();
+        try {
+            if (bookingLayout == BookingFileLayout.SINGLE_FILE) {
+                return toBookings(bookingIndex.findLinesByUser(userId));
+            }
+            try (Stream<Booking> bookings = streamAllBookings()) {
+                return bookings.filter(booking -> booking.getUser().getUserId() == userId)
+                        .collect(Collectors.toCollection(ArrayList::new));
             }
+        } catch (IOException e) {
+            System.err.println("Error finding bookings by user: " + e.getMessage());
+            return new ArrayList<>();
+        } finally {
+            bookingsLock.readLock().unlock();
         }
-        
-        return userBookings;
     }
     
+    // In SINGLE_FILE layout only the room's rows are read, found through the offset index.
     @Override
-    public void updateBooking(Booking updatedBooking) {
-        List<UserAccount> users = loadAllUsers();
-        List<Room> rooms = loadAllRooms();
-        List<Booking> bookings = loadAllBookings();
-        
-        try (PrintWriter writer = new PrintWriter(new FileWriter(BOOKINGS_FILE))) {
-            writer.println(getBookingCSVHeader());
+    public List<Booking> findBookingsByRoomId(int roomId) {
+        bookingsLock.readLock().lock();
+        try {
+            if (bookingLayout == BookingFileLayout.SINGLE_FILE) {
+                return toBookings(bookingIndex.findLinesByRoom(roomId));
+            }
+            return IStorageService.super.findBookingsByRoomId(roomId);
+        } catch (IOException e) {
+            System.err.println("Error finding bookings by room: " + e.getMessage());
+            return new ArrayList<>();
+        } finally {
+            bookingsLock.readLock().unlock();
+        }
+    }
+    
+    // Rebuilds the userId and roomId offset indexes of bookings.csv now instead of on the next lookup.
+    public void rebuildBookingIndexes() {
+        bookingsLock.readLock().lock();
+        try {
+            bookingIndex.rebuild();
+        } catch (IOException e) {
+            System.err.println("Error rebuilding booking indexes: " + e.getMessage());
+        } finally {
+            bookingsLock.readLock().unlock();
+        }
+    }
+    
+    private List<Booking> toBookings(List<String> lines) {
+        List<Booking> bookings = new ArrayList<>(lines.size());
+        if (lines.isEmpty()) {
+            return bookings;
+        }
+        Map<Integer, UserAccount> usersById = indexUsersById();
+        Map<Integer, Room> roomsById = indexRoomsById();
+        CSVTokenizer tokenizer = new CSVTokenizer();
+        for (String line : lines) {
+            bytesRead.add(line.length() + 1);
+            Booking booking = csvToBooking(line, tokenizer, usersById, roomsById);
+            if (booking != null) {
+                bookings.add(booking);
+            }
+        }
+        return bookings;
+    }
+    
+    // In PARTITIONED layout only the month segments that can overlap the window are read.
+    @Override
+    public List<Booking> findBookingsInRange(Date from, Date to) {
+        bookingsLock.readLock().lock();
+        try {
+            if (bookingLayout != BookingFileLayout.PARTITIONED) {
+                return IStorageService.super.findBookingsInRange(from, to);
+            }
             
-            for (Booking booking : bookings) {
-                if (booking.getBookingId() == updatedBooking.getBookingId()) {
-                    writer.println(bookingToCSV(updatedBooking));
-                } else {
-                    writer.println(bookingToCSV(booking));
-                }
+            Map<Integer, UserAccount> usersById = indexUsersById();
+            Map<Integer, Room> roomsById = indexRoomsById();
+            CSVTokenizer tokenizer = new CSVTokenizer();
+            try (Stream<String> lines = bookingPartitions.streamLines(from.getTime(), to.getTime())) {
+                return lines.map(line -> parseBooking(line, tokenizer, usersById, roomsById))
+                        .filter(booking -> booking != null && IStorageService.overlaps(booking, from, to))
+                        .collect(Collectors.toCollection(ArrayList::new));
+            }
+        } finally {
+            bookingsLock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public boolean updateBooking(Booking updatedBooking) {
+        Lock lock = lockBookingsForWrite();
+        try {
+            return updateBookingLocked(updatedBooking);
+        } finally {
+            unlockBookingsForWrite(lock);
+        }
+    }
+    
+    // A booking that is not stored is ignored, in every layout. One that is only in cold storage is
+    // saved again, and its new row shadows the archived one.
+    private boolean updateBookingLocked(Booking updatedBooking) {
+        int bookingId = updatedBooking.getBookingId();
+        String line = bookingToCSV(updatedBooking);
+        boolean updated;
+        try {
+            if (bookingLayout == BookingFileLayout.JOURNALED) {
+                updated = bookingJournal.appendUpdate(bookingId, line);
+            } else if (bookingLayout == BookingFileLayout.PARTITIONED) {
+                updated = bookingPartitions.update(bookingId, line);
+            } else if (bookingLayout == BookingFileLayout.FIXED_WIDTH) {
+                updated = bookingRecords.replace(BookingRecordFile.Record.of(updatedBooking));
+            } else {
+                updated = rewriteBookingsFile(Collections.singletonMap(bookingId, line), false) > 0;
             }
         } catch (IOException e) {
             System.err.println("Error updating booking: " + e.getMessage());
+            return false;
+        }
+        if (!updated && coldSegments.findLine(bookingId) != null) {
+            return saveBookingLocked(updatedBooking);
         }
+        return updated;
     }
     
     @Override
     public boolean deleteBooking(int bookingId) {
-        List<Booking> bookings = loadAllBookings();
-        boolean found = false;
+        Lock lock = lockBookingsForWrite();
+        try {
+            return deleteBookingLocked(bookingId);
+        } finally {
+            unlockBookingsForWrite(lock);
+        }
+    }
+    
+    private boolean deleteBookingLocked(int bookingId) {
+        if (bookingLayout == BookingFileLayout.JOURNALED) {
+            try {
+                return bookingJournal.appendDelete(bookingId);
+            } catch (IOException e) {
+                System.err.println("Error deleting booking: " + e.getMessage());
+                return false;
+            }
+        }
+        if (bookingLayout == BookingFileLayout.PARTITIONED) {
+            try {
+                return bookingPartitions.delete(bookingId);
+            } catch (IOException e) {
+                System.err.println("Error deleting booking: " + e.getMessage());
+                return false;
+            }
+        }
+        if (bookingLayout == BookingFileLayout.FIXED_WIDTH) {
+            try {
+                return bookingRecords.delete(bookingId); // Tombstones the slot
+            } catch (IOException e) {
+                System.err.println("Error deleting booking: " + e.getMessage());
+                return false;
+            }
+        }
         
-        try (PrintWriter writer = new PrintWriter(new FileWriter(BOOKINGS_FILE))) {
-            writer.println(getBookingCSVHeader());
-            
-            for (Booking booking : bookings) {
-                if (booking.getBookingId() == bookingId) {
-                    found = true;
-                } else {
-                    writer.println(bookingToCSV(booking));
+        try {
+            return rewriteBookingsFile(Collections.singletonMap(bookingId, null)) > 0;
+        } catch (IOException e) {
+            System.err.println("Error deleting booking: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    // Deletes many bookings with one write per file: one journal append, one rewrite per month
+    // segment or of bookings.csv, or one tombstone per fixed-width record.
+    @Override
+    public boolean deleteAllBookings(Collection<Integer> bookingIds) {
+        if (bookingIds.isEmpty()) {
+            return true;
+        }
+        Lock lock = lockBookingsForWrite();
+        try {
+            if (bookingLayout == BookingFileLayout.JOURNALED) {
+                bookingJournal.appendDeletes(bookingIds);
+            } else if (bookingLayout == BookingFileLayout.PARTITIONED) {
+                bookingPartitions.deleteAll(bookingIds);
+            } else if (bookingLayout == BookingFileLayout.FIXED_WIDTH) {
+                for (int bookingId : bookingIds) {
+                    bookingRecords.delete(bookingId);
                 }
+            } else {
+                rewriteBookingsFile(removalsOf(bookingIds));
             }
+            return true;
         } catch (IOException e) {
-            System.err.println("Error deleting booking: " + e.getMessage());
+            System.err.println("Error deleting bookings: " + e.getMessage());
             return false;
+        } finally {
+            unlockBookingsForWrite(lock);
         }
-        
-        return found;
+    }
+    
+    // Rows for rewriteFile that drop each of the ids.
+    private static Map<Integer, String> removalsOf(Collection<Integer> ids) {
+        Map<Integer, String> removals = new HashMap<>();
+        for (int id : ids) {
+            removals.put(id, null);
+        }
+        return removals;
     }
     
     // ================== //
@@ -677,35 +1629,616 @@ public class CSVStorageService implements IStorageService {
     // ================== //
     
     @Override
-    public void clearAll() {
+    public boolean clearAll() {
+        lockForWrite(bookingsLock, SharedDataDirectory.Entity.BOOKINGS);
+        lockForWrite(usersLock, SharedDataDirectory.Entity.USERS);
+        lockForWrite(roomsLock, SharedDataDirectory.Entity.ROOMS);
+        try {
+            return clearAllLocked();
+        } finally {
+            unlockForWrite(roomsLock, SharedDataDirectory.Entity.ROOMS);
+            unlockForWrite(usersLock, SharedDataDirectory.Entity.USERS);
+            unlockForWrite(bookingsLock, SharedDataDirectory.Entity.BOOKINGS);
+        }
+    }
+    
+    private boolean clearAllLocked() {
+        boolean cleared = true;
+        // Drop the journal first so an in-flight compaction cannot restore old bookings
+        if (bookingJournal != null) {
+            bookingJournal.clear();
+        }
+        bookingIndex.invalidate();
+        coldSegments.clear();
+        if (bookingPartitions != null) {
+            bookingPartitions.clear();
+        }
+        if (bookingRecords != null) {
+            try {
+                bookingRecords.clear();
+            } catch (IOException e) {
+                System.err.println("Error clearing booking records: " + e.getMessage());
+                cleared = false;
+            }
+        }
+        
         // Rewrite all files with headers
-    	try (PrintWriter writer = new PrintWriter(new FileWriter(USERS_FILE))) {
-            writer.println(getUserCSVHeader());
+    	try {
+            writeHeaderOnly(usersFile, getUserCSVHeader());
         } catch (IOException e) {
             System.err.println("Error clearing users file: " + e.getMessage());
+            cleared = false;
         }
         
-        try (PrintWriter writer = new PrintWriter(new FileWriter(ROOMS_FILE))) {
-            writer.println(getRoomCSVHeader());
+        try {
+            writeHeaderOnly(roomsFile, getRoomCSVHeader());
         } catch (IOException e) {
             System.err.println("Error clearing rooms file: " + e.getMessage());
+            cleared = false;
         }
         
-        try (PrintWriter writer = new PrintWriter(new FileWriter(BOOKINGS_FILE))) {
-            writer.println(getBookingCSVHeader());
+        try {
+            writeHeaderOnly(bookingsFile, getBookingCSVHeader());
         } catch (IOException e) {
             System.err.println("Error clearing bookings file: " + e.getMessage());
+            cleared = false;
         }
         
         System.out.println("All storage cleared.");
+        return cleared;
+    }
+    
+    // Latest modification time of any of the data files (journal included).
+    @Override
+    public long getLastModifiedTime() {
+        long latest = 0;
+        for (String path : new String[] {usersFile, roomsFile, bookingsFile,
+                bookingsJournalFile, bookingsJournalFile + ".compacting"}) {
+            latest = Math.max(latest, new File(path).lastModified());
+        }
+        if (bookingPartitions != null) {
+            latest = Math.max(latest, bookingPartitions.getLastModifiedTime());
+        }
+        if (bookingRecords != null) {
+            latest = Math.max(latest, bookingRecords.lastModified());
+        }
+        return latest;
+    }
+    
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+    
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+    
+    @Override
+    public long getRowsParsed() {
+        return rowsParsed.sum();
+    }
+    
+    // Counters of the writes made by every process sharing the directory, or null if sharing is off.
+    @Override
+    public DataGenerations getGenerations() {
+        SharedDataDirectory shared = sharedDirectory;
+        return shared == null ? null : shared.getGenerations();
+    }
+    
+    // Writes made through this service are told apart from other processes' by the shared directory.
+    @Override
+    public DataGenerations skipOwnWrites(DataGenerations since) {
+        SharedDataDirectory shared = sharedDirectory;
+        return shared == null ? since : shared.skipOwnWrites(since);
+    }
+    
+    // ================ //
+    // SCHEMA MIGRATION //
+    // ================ //
+    
+    // True while some data file is still in an older column layout.
+    public boolean isSchemaMigrationPending() {
+        return userSchemaState.isPending() || roomSchemaState.isPending() || bookingSchemaState.isPending();
+    }
+    
+    // Rewrites every file still in an older layout now, instead of waiting for the background migration.
+    public void migrateSchemaNow() {
+        for (SchemaState state : new SchemaState[] {userSchemaState, roomSchemaState, bookingSchemaState}) {
+            if (state.isPending()) {
+                lockForWrite(state.lock, state.entity); // Migrates the file
+                unlockForWrite(state.lock, state.entity);
+            }
+        }
+    }
+    
+    // Reads each file's schema version. Files in an older layout stay readable (rows are upgraded as
+    // they are parsed) and are rewritten in the current layout on a background thread; a write to
+    // such a file migrates it first, so old and new rows are never mixed in one file.
+    private void detectSchemaVersions() {
+        boolean pending = false;
+        for (SchemaState state : new SchemaState[] {userSchemaState, roomSchemaState, bookingSchemaState}) {
+            try {
+                state.detect();
+            } catch (IOException e) {
+                System.err.println("Error reading schema version of " + state.path + ": " + e.getMessage());
+            }
+            pending |= state.isPending();
+        }
+        synchronized (this) {
+            if (pending && (schemaMigrator == null || !schemaMigrator.isAlive())) {
+                schemaMigrator = new Thread(this::migrateInBackground, "csv-schema-migrator");
+                schemaMigrator.setDaemon(true);
+                schemaMigrator.start();
+            }
+        }
+    }
+    
+    // Converts each old file to a temp file without blocking anyone, then swaps it in under the file's
+    // write lock if nothing replaced the file meanwhile. Otherwise the version is read again and,
+    // if still old, the conversion is retried; after a few tries the next write migrates the file.
+    private void migrateInBackground() {
+        for (SchemaState state : new SchemaState[] {userSchemaState, roomSchemaState, bookingSchemaState}) {
+            for (int attempt = 0; attempt < 3 && state.isPending(); attempt++) {
+                File original = new File(state.path);
+                long length = original.length();
+                long lastModified = original.lastModified();
+                File temp;
+                try {
+                    // Rewrites replace the file by renaming, so reading it without the lock is safe
+                    temp = convertToCurrentVersion(state);
+                } catch (IOException e) {
+                    System.err.println("Error migrating " + state.path + ": " + e.getMessage());
+                    break;
+                }
+                
+                lockSchemaStateForWrite(state);
+                try {
+                    if (state.isPending() && original.length() == length && original.lastModified() == lastModified) {
+                        Files.move(temp.toPath(), original.toPath(),
+                                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        migrated(state);
+                    } else {
+                        state.detect(); // Written (and so migrated) meanwhile, possibly by another process
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error migrating " + state.path + ": " + e.getMessage());
+                } finally {
+                    temp.delete();
+                    unlockForWrite(state.lock, state.entity);
+                }
+            }
+        }
+    }
+    
+    // Brings the file to the current version while its write lock is held. The version is read again
+    // first, since another process may have migrated the file.
+    private void migrateLocked(SchemaState state) {
+        if (!state.isPending()) {
+            return;
+        }
+        try {
+            state.detect();
+            if (!state.isPending()) {
+                return;
+            }
+            File temp = convertToCurrentVersion(state);
+            try {
+                Files.move(temp.toPath(), Paths.get(state.path),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                temp.delete();
+            }
+            migrated(state);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot migrate " + state.path + " to the current schema: "
+                    + e.getMessage(), e);
+        }
+    }
+    
+    // Takes the file's write lock (and inter-process lock) without migrating it.
+    private void lockSchemaStateForWrite(SchemaState state) {
+        state.lock.writeLock().lock();
+        try {
+            beginSharedWrite(state.entity);
+        } catch (RuntimeException e) {
+            state.lock.writeLock().unlock();
+            throw e;
+        }
+    }
+    
+    // Streams the file's rows, upgraded, under the current header into a temp file and returns it.
+    private File convertToCurrentVersion(SchemaState state) throws IOException {
+        UnaryOperator<String> upgrade = state.upgrade;
+        File temp = new File(state.path + ".migrating");
+        try (BufferedReader reader = openReader(state.path);
+                PrintWriter writer = new PrintWriter(new BufferedWriter(
+                        new OutputStreamWriter(new CountingOutputStream(new FileOutputStream(temp)))))) {
+            writer.println(state.schema.getHeader());
+            reader.readLine(); // Skip old header
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    writer.println(upgrade == null ? line : upgrade.apply(line));
+                }
+            }
+            if (writer.checkError()) {
+                throw new IOException("Write to " + temp + " failed");
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        return temp;
+    }
+    
+    private void migrated(SchemaState state) {
+        state.upgrade = null;
+        if (state == bookingSchemaState) {
+            bookingIndex.invalidate(); // Header length changed, so every row moved
+        }
+        System.out.println("Migrated " + state.path + " to schema version " + state.schema.getCurrentVersion());
+    }
+    
+    private SchemaState schemaStateOf(SharedDataDirectory.Entity entity) {
+        switch (entity) {
+            case USERS:
+                return userSchemaState;
+            case ROOMS:
+                return roomSchemaState;
+            default:
+                return bookingSchemaState;
+        }
+    }
+    
+    // ============ //
+    // COLD STORAGE //
+    // ============ //
+    
+    // Moves finished bookings (COMPLETED, CANCELLED, EXPIRED) that ended longer than the cold storage
+    // age ago from bookings.csv into a new compressed cold segment, in one pass over the file.
+    // Returns how many bookings moved. SINGLE_FILE layout only.
+    // Archived bookings are left out of loadAllBookings, streamAllBookings and the findBookingsBy
+    // lookups; findBookingById and streamBookingHistory still find them. Segments are immutable, so
+    // saving an archived booking again stores a new row in bookings.csv that shadows the archived one,
+    // and deleting an archived booking is not possible.
+    public int archiveColdBookings() {
+        long age = coldStorageAgeMillis;
+        if (age <= 0) {
+            throw new IllegalStateException("Cold storage age is not set");
+        }
+        long cutoff = System.currentTimeMillis() - age;
+        
+        Lock lock = lockBookingsForWrite();
+        try {
+            if (bookingLayout != BookingFileLayout.SINGLE_FILE) {
+                throw new IllegalStateException("Cold storage is only available in the SINGLE_FILE layout");
+            }
+            int archived = archiveColdBookingsLocked(cutoff);
+            if (archived > 0) {
+                System.out.println("Moved " + archived + " bookings to cold storage");
+            }
+            return archived;
+        } catch (IOException e) {
+            System.err.println("Error archiving bookings: " + e.getMessage());
+            return 0;
+        } finally {
+            unlockBookingsForWrite(lock);
+        }
+    }
+    
+    // Splits bookings.csv into the rows that stay and a new cold segment. The segment is published as
+    // pending before the smaller bookings.csv replaces the old one, so a crash in between leaves rows
+    // in both places, which finishColdArchiving resolves on the next start; rows are never lost.
+    private int archiveColdBookingsLocked(long cutoff) throws IOException {
+        File hotTemp = new File(bookingsFile + ".archiving");
+        CSVTokenizer tokenizer = new CSVTokenizer();
+        try (BookingColdSegments.SegmentWriter segment = coldSegments.openSegment()) {
+            try (BufferedReader reader = openReader(bookingsFile);
+                    PrintWriter writer = new PrintWriter(new BufferedWriter(
+                            new OutputStreamWriter(new CountingOutputStream(new FileOutputStream(hotTemp)))))) {
+                writer.println(getBookingCSVHeader());
+                reader.readLine(); // Skip header (current: the write lock migrated the file)
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    if (isArchivable(line, tokenizer, cutoff)) {
+                        segment.write(CSVTokenizer.parseLeadingInt(line), line);
+                    } else {
+                        writer.println(line);
+                    }
+                }
+                if (writer.checkError()) {
+                    throw new IOException("Write to " + hotTemp + " failed");
+                }
+            }
+            if (segment.getRowCount() == 0) {
+                return 0;
+            }
+            
+            File pending = segment.publishPending();
+            try {
+                Files.move(hotTemp.toPath(), Paths.get(bookingsFile),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                bookingIndex.invalidate();
+            }
+            coldSegments.commit(pending);
+            return segment.getRowCount();
+        } finally {
+            hotTemp.delete();
+        }
+    }
+    
+    // True for a well-formed row of a finished booking that ended before the cutoff.
+    private static boolean isArchivable(String line, CSVTokenizer tokenizer, long cutoff) {
+        try {
+            tokenizer.reset(line);
+            if (tokenizer.fieldCount() < 10) {
+                return false;
+            }
+            CSVTokenizer.parseLeadingInt(line);
+            String status = tokenizer.getString(5, BOOKING_STATUSES);
+            return ("COMPLETED".equals(status) || "CANCELLED".equals(status) || "EXPIRED".equals(status))
+                    && tokenizer.getTimestamp(4) < cutoff;
+        } catch (RuntimeException e) {
+            return false; // Unreadable rows stay where they are
+        }
+    }
+    
+    // Finishes archive runs cut short by a crash: the rows of a pending segment are removed from
+    // bookings.csv (again, if they already were) and the segment is given its final name.
+    private void finishColdArchiving() {
+        if (coldSegments.getPendingSegments().isEmpty()) {
+            return;
+        }
+        Lock lock = lockBookingsForWrite();
+        try {
+            if (bookingLayout != BookingFileLayout.SINGLE_FILE) {
+                return;
+            }
+            for (File pending : coldSegments.getPendingSegments()) {
+                Map<Integer, String> removals = new HashMap<>();
+                for (int bookingId : coldSegments.readBookingIds(pending)) {
+                    removals.put(bookingId, null);
+                }
+                rewriteBookingsFile(removals);
+                coldSegments.commit(pending);
+            }
+        } catch (IOException e) {
+            System.err.println("Error finishing cold storage archive: " + e.getMessage());
+        } finally {
+            unlockBookingsForWrite(lock);
+        }
+    }
+    
+    // Every booking ever stored: the archived ones, newest segment first, then the current ones.
+    // Cold segments are only decompressed here and in findBookingById. The caller must close the stream.
+    @Override
+    public Stream<Booking> streamBookingHistory() {
+        bookingsLock.readLock().lock();
+        try {
+            if (coldSegments.getSegments().isEmpty()) {
+                return streamAllBookings();
+            }
+            
+            // A booking saved again after it was archived has a newer row in bookings.csv or in a
+            // newer segment; only that row is kept. Ids are dense, so a bit set tracks them cheaply.
+            BitSet seen = currentBookingIds();
+            Map<Integer, UserAccount> usersById = indexUsersById();
+            Map<Integer, Room> roomsById = indexRoomsById();
+            CSVTokenizer tokenizer = new CSVTokenizer();
+            Stream<Booking> archived = coldSegments.streamLines()
+                    .filter(line -> {
+                        int bookingId = CSVTokenizer.parseLeadingInt(line);
+                        if (bookingId < 0) {
+                            return true;
+                        }
+                        boolean newer = seen.get(bookingId);
+                        seen.set(bookingId);
+                        return !newer;
+                    })
+                    .map(line -> parseBooking(line, tokenizer, usersById, roomsById))
+                    .filter(Objects::nonNull);
+            return Stream.concat(archived, streamAllBookings());
+        } finally {
+            bookingsLock.readLock().unlock();
+        }
+    }
+    
+    // Compressed size of the cold segments.
+    public long getColdStorageBytes() {
+        return coldSegments.getTotalBytes();
+    }
+    
+    private Booking findArchivedBooking(int bookingId) {
+        String line = coldSegments.findLine(bookingId);
+        return line == null ? null : parseBooking(line, new CSVTokenizer(), indexUsersById(), indexRoomsById());
+    }
+    
+    // Ids (non-negative ones) of the bookings that are not archived.
+    private BitSet currentBookingIds() {
+        BitSet ids = new BitSet();
+        if (bookingLayout == BookingFileLayout.FIXED_WIDTH) {
+            for (Booking booking : loadBookingsFromRecords()) {
+                if (booking.getBookingId() >= 0) {
+                    ids.set(booking.getBookingId());
+                }
+            }
+            return ids;
+        }
+        try (Stream<String> lines = streamBookingLines()) {
+            lines.forEach(line -> {
+                try {
+                    int bookingId = CSVTokenizer.parseLeadingInt(line);
+                    if (bookingId >= 0) {
+                        ids.set(bookingId);
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a booking row
+                }
+            });
+        }
+        return ids;
     }
     
     // ================== //
     // CSV HELPER METHODS //
     // ================== //
     
+    // Takes a file's write lock, then (when shared) its inter-process lock. Holding the write lock first
+    // means only one thread per JVM asks for the inter-process lock of a file.
+    private void lockForWrite(ReentrantReadWriteLock fileLock, SharedDataDirectory.Entity entity) {
+        fileLock.writeLock().lock();
+        try {
+            beginSharedWrite(entity);
+        } catch (RuntimeException e) {
+            fileLock.writeLock().unlock();
+            throw e;
+        }
+        try {
+            migrateLocked(schemaStateOf(entity));
+        } catch (RuntimeException e) {
+            unlockForWrite(fileLock, entity);
+            throw e;
+        }
+    }
+    
+    private void unlockForWrite(ReentrantReadWriteLock fileLock, SharedDataDirectory.Entity entity) {
+        endSharedWrite(entity);
+        fileLock.writeLock().unlock();
+    }
+    
+    private void beginSharedWrite(SharedDataDirectory.Entity entity) {
+        SharedDataDirectory shared = sharedDirectory;
+        if (shared != null) {
+            shared.beginWrite(entity);
+        }
+    }
+    
+    private void endSharedWrite(SharedDataDirectory.Entity entity) {
+        SharedDataDirectory shared = sharedDirectory;
+        if (shared != null) {
+            shared.endWrite(entity);
+        }
+    }
+    
+    // Rewrites a CSV file in one buffered pass. Rows whose id is a key of `rows` are replaced
+    // (or dropped when mapped to null), other rows are copied, and unmatched new rows are appended.
+    // The result is written to a temp file and moved over the original atomically.
+    // Returns how many existing rows were replaced or dropped. Callers serialize rewrites of one file.
+    static int rewriteFile(String filePath, String header, Map<Integer, String> rows) throws IOException {
+        return rewriteFile(filePath, header, rows, true);
+    }
+    
+    // rewriteFile that only replaces existing rows when appendUnmatched is false.
+    static int rewriteFile(String filePath, String header, Map<Integer, String> rows, boolean appendUnmatched)
+            throws IOException {
+        return rewriteFile(filePath, header, null, rows, appendUnmatched);
+    }
+    
+    // rewriteFile for a file whose header carries the schema version: the rows it keeps are upgraded
+    // from that version and the file is written back under the schema's current header.
+    static int rewriteFile(String filePath, CSVSchema schema, Map<Integer, String> rows) throws IOException {
+        return rewriteFile(filePath, schema.getHeader(), schema, rows, true);
+    }
+    
+    private static int rewriteFile(String filePath, String header, CSVSchema schema, Map<Integer, String> rows,
+            boolean appendUnmatched) throws IOException {
+        Map<Integer, String> pending = new LinkedHashMap<>(rows);
+        File temp = new File(filePath + ".tmp");
+        int matched = 0;
+        
+        try (BufferedReader reader = new BufferedReader(new FileReader(filePath));
+                PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(temp)))) {
+            writer.println(header);
+            String oldHeader = reader.readLine();
+            UnaryOperator<String> upgrade = schema == null ? null : schema.upgradeFrom(schema.versionOf(oldHeader));
+            
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                int id;
+                try {
+                    id = CSVTokenizer.parseLeadingInt(line);
+                } catch (NumberFormatException e) {
+                    writer.println(line); // Leave rows we cannot key untouched
+                    continue;
+                }
+                if (pending.containsKey(id)) {
+                    matched++;
+                    String replacement = pending.remove(id);
+                    if (replacement != null) {
+                        writer.println(replacement);
+                    }
+                } else {
+                    writer.println(upgrade == null ? line : upgrade.apply(line));
+                }
+            }
+            
+            for (String row : pending.values()) {
+                if (row != null && appendUnmatched) {
+                    writer.println(row);
+                }
+            }
+            if (writer.checkError()) {
+                throw new IOException("Write to " + temp + " failed");
+            }
+        }
+        
+        Files.move(temp.toPath(), Paths.get(filePath),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return matched;
+    }
+    
+    
+    // rewriteFile, counting the old file as read and the new one as written.
+    private int rewrite(String filePath, String header, Map<Integer, String> rows) throws IOException {
+        return rewrite(filePath, header, rows, true);
+    }
+    
+    private int rewrite(String filePath, String header, Map<Integer, String> rows, boolean appendUnmatched)
+            throws IOException {
+        bytesRead.add(new File(filePath).length());
+        int matched = rewriteFile(filePath, header, rows, appendUnmatched);
+        bytesWritten.add(new File(filePath).length());
+        return matched;
+    }
+    
+    // Opens a CSV file for reading, counting the bytes read.
+    private BufferedReader openReader(String filePath) throws IOException {
+        return new BufferedReader(new InputStreamReader(new CountingInputStream(new FileInputStream(filePath))));
+    }
+    
+    // Opens a CSV file for writing (appending or truncating), counting the bytes written.
+    private PrintWriter openWriter(String filePath, boolean append) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(new CountingOutputStream(new FileOutputStream(filePath, append))));
+    }
+    
+    // Parses a whole CSV file with the parallel loader. Parsers are created once per chunk.
+    // The file's read lock is held until every chunk is parsed.
+    private <T> List<T> loadInParallel(String filePath, ReentrantReadWriteLock fileLock,
+            Supplier<Function<String, T>> parsers) {
+        fileLock.readLock().lock();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            bytesRead.add(channel.size());
+            return parallelLoader.load(channel, parsers);
+        } catch (IOException e) {
+            System.err.println("Error loading " + filePath + ": " + e.getMessage());
+            return new ArrayList<>();
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+    
+    
     // Escapes a string for CSV format (handles commas and quotes).
-    private String escapeCSV(String value) {
+    private static String escapeCSV(String value) {
         if (value == null) {
             return NULL_PLACEHOLDER;
         }
@@ -717,62 +2250,82 @@ public class CSVStorageService implements IStorageService {
     }
     
     
-    // Unescapes a CSV value.
-    private String unescapeCSV(String value) {
-        if (value == null || value.equals(NULL_PLACEHOLDER)) {
-            return null;
-        }
-        value = value.trim();
-        // Remove surrounding quotes and unescape internal quotes
-        if (value.startsWith("\"") && value.endsWith("\"")) {
-            value = value.substring(1, value.length() - 1);
-            value = value.replace("\"\"", "\"");
-        }
-        return value;
-    }
-    
-    
     // Handles null values for CSV.
-    private String nullSafe(String value) {
+    private static String nullSafe(String value) {
         return value == null ? NULL_PLACEHOLDER : escapeCSV(value);
     }
     
-
-    // Restores null from placeholder.
-    private String nullRestore(String value) {
-        if (value == null || value.trim().equals(NULL_PLACEHOLDER)) {
-            return null;
+    // Schema version of one CSV file and the row upgrade needed to read it
+    private static class SchemaState {
+        final String path;
+        final CSVSchema schema;
+        final ReentrantReadWriteLock lock;
+        final SharedDataDirectory.Entity entity;
+        // Null once the file is in the current version
+        volatile UnaryOperator<String> upgrade;
+        
+        SchemaState(String path, CSVSchema schema, ReentrantReadWriteLock lock, SharedDataDirectory.Entity entity) {
+            this.path = path;
+            this.schema = schema;
+            this.lock = lock;
+            this.entity = entity;
+        }
+        
+        void detect() throws IOException {
+            upgrade = schema.upgradeFrom(schema.versionOf(new File(path)));
+        }
+        
+        boolean isPending() {
+            return upgrade != null;
+        }
+        
+        String upgrade(String row) {
+            UnaryOperator<String> current = upgrade;
+            return current == null ? row : current.apply(row);
         }
-        return unescapeCSV(value);
     }
     
-
-    // Parses a CSV line handling quoted fields.
-    private String[] parseCSVLine(String line) {
-        List<String> result = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        boolean inQuotes = false;
-        
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            
-            if (c == '"') {
-                // Check for escaped quote
-                if (inQuotes && i + 1 < line.length() && line.charAt(i + 1) == '"') {
-                    current.append('"');
-                    i++; // Skip next quote
-                } else {
-                    inQuotes = !inQuotes;
-                }
-            } else if (c == ',' && !inQuotes) {
-                result.add(current.toString());
-                current = new StringBuilder();
-            } else {
-                current.append(c);
+    // Adds what passes through to bytesRead
+    private class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytesRead.increment();
             }
+            return b;
         }
-        result.add(current.toString()); // Add last field
         
-        return result.toArray(new String[0]);
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                bytesRead.add(read);
+            }
+            return read;
+        }
+    }
+    
+    // Adds what passes through to bytesWritten
+    private class CountingOutputStream extends FilterOutputStream {
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytesWritten.increment();
+        }
+        
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            bytesWritten.add(length);
+        }
     }
-}
\ No newline at end of file
+}
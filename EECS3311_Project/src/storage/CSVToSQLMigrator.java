@@ -0,0 +1,75 @@
+package storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import accounts.model.UserAccount;
+import booking.model.Booking;
+import manager.room.Room;
+
+/**
+ * Imports an existing CSV data directory into a SQL database.
+ * Rows are upserted by id, so running the import twice leaves the same data.
+ * A batch the target fails to store stops the import with an IllegalStateException.
+ *
+ * Usage: java storage.CSVToSQLMigrator [dataDirectory] [jdbcUrl]
+ * (defaults: "data" and the SQLStorageService default URL)
+ */
+public class CSVToSQLMigrator {
+
+    // Bookings are streamed from the source and written in batches of this size
+    private static final int BOOKING_BATCH_SIZE = 1000;
+
+    public static void main(String[] args) {
+        String dataDirectory = args.length > 0 ? args[0] : "data";
+        CSVStorageService source = new CSVStorageService(dataDirectory);
+        SQLStorageService target = args.length > 1 ? new SQLStorageService(args[1]) : new SQLStorageService();
+
+        try {
+            System.out.println("Importing " + dataDirectory + " into " + target.getUrl());
+            migrate(source, target);
+        } finally {
+            source.shutdown();
+            target.shutdown();
+        }
+    }
+
+    // Copies users, then rooms, then bookings (which refer to both) from source to target.
+    // Bookings come from the source's full history, so ones archived to cold storage are copied too.
+    public static void migrate(IStorageService source, IStorageService target) {
+        List<UserAccount> users = source.loadAllUsers();
+        checkStored(target.saveAllUsers(users), "users");
+        System.out.println("Imported " + users.size() + " users.");
+
+        List<Room> rooms = source.loadAllRooms();
+        checkStored(target.saveAllRooms(rooms), "rooms");
+        System.out.println("Imported " + rooms.size() + " rooms.");
+
+        int bookingCount = 0;
+        try (Stream<Booking> bookings = source.streamBookingHistory()) {
+            Iterator<Booking> it = bookings.iterator();
+            List<Booking> batch = new ArrayList<>(BOOKING_BATCH_SIZE);
+            while (it.hasNext()) {
+                batch.add(it.next());
+                if (batch.size() == BOOKING_BATCH_SIZE) {
+                    checkStored(target.saveAllBookings(batch), "bookings after " + bookingCount);
+                    bookingCount += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                checkStored(target.saveAllBookings(batch), "bookings after " + bookingCount);
+                bookingCount += batch.size();
+            }
+        }
+        System.out.println("Imported " + bookingCount + " bookings.");
+    }
+
+    private static void checkStored(boolean stored, String what) {
+        if (!stored) {
+            throw new IllegalStateException("Import stopped: could not store " + what);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package storage;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Reusable, quote-aware CSV line scanner.
+ * reset() records each field's start/end offset in the source line without copying it;
+ * numbers, booleans and timestamps are then parsed straight from the characters, and a
+ * String is only allocated when a caller asks for one.
+ * Not thread-safe: use one instance per reading thread.
+ */
+public class CSVTokenizer {
+
+    private static final String NULL_PLACEHOLDER = "NULL";
+    private static final int TIMESTAMP_LENGTH = "yyyy-MM-dd HH:mm:ss".length();
+    // Largest mantissa and power of ten that Double can represent exactly
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private CharSequence line;
+    private int fieldCount;
+    // Trimmed bounds of each field; quoted fields still include their quote characters
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] quoted = new boolean[16];
+    // Reused for timestamps; resolves local times exactly like SimpleDateFormat does
+    private final Calendar calendar = new GregorianCalendar();
+
+
+    // Scans a line into field offsets, replacing the previous line.
+    public CSVTokenizer reset(CharSequence line) {
+        this.line = line;
+        this.fieldCount = 0;
+
+        int fieldStart = 0;
+        boolean inQuotes = false;
+        boolean sawQuote = false;
+        int length = line.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                sawQuote = true;
+                // An escaped quote ("") inside quotes does not end the quoted section
+                if (inQuotes && i + 1 < length && line.charAt(i + 1) == '"') {
+                    i++;
+                } else {
+                    inQuotes = !inQuotes;
+                }
+            } else if (c == ',' && !inQuotes) {
+                addField(fieldStart, i, sawQuote);
+                fieldStart = i + 1;
+                sawQuote = false;
+            }
+        }
+        addField(fieldStart, length, sawQuote); // Last field
+        return this;
+    }
+
+    private void addField(int start, int end, boolean hasQuote) {
+        if (fieldCount == starts.length) {
+            int newSize = starts.length * 2;
+            starts = Arrays.copyOf(starts, newSize);
+            ends = Arrays.copyOf(ends, newSize);
+            quoted = Arrays.copyOf(quoted, newSize);
+        }
+        while (start < end && line.charAt(start) <= ' ') start++;
+        while (end > start && line.charAt(end - 1) <= ' ') end--;
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        quoted[fieldCount] = hasQuote;
+        fieldCount++;
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    // ======= //
+    // STRINGS //
+    // ======= //
+
+    // Returns the field's text (trimmed, quotes removed), or null for the NULL placeholder.
+    public String getString(int field) {
+        checkField(field);
+        if (quoted[field]) {
+            String value = unquote(field);
+            return NULL_PLACEHOLDER.equals(value) ? null : value;
+        }
+        if (isNull(field)) {
+            return null;
+        }
+        return line.subSequence(starts[field], ends[field]).toString();
+    }
+
+    // Like getString, but returns the matching constant from knownValues instead of a new String.
+    public String getString(int field, String[] knownValues) {
+        checkField(field);
+        if (!quoted[field]) {
+            for (String known : knownValues) {
+                if (fieldEquals(field, known)) {
+                    return known;
+                }
+            }
+        }
+        return getString(field);
+    }
+
+    // True if the unquoted field text is exactly the given value.
+    public boolean fieldEquals(int field, String value) {
+        checkField(field);
+        int start = starts[field];
+        int length = ends[field] - start;
+        if (quoted[field] || length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (line.charAt(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isNull(int field) {
+        return fieldEquals(field, NULL_PLACEHOLDER);
+    }
+
+    // Removes quotes and collapses escaped quotes, matching the writer's escaping.
+    private String unquote(int field) {
+        StringBuilder sb = new StringBuilder(ends[field] - starts[field]);
+        boolean inQuotes = false;
+        for (int i = starts[field]; i < ends[field]; i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (inQuotes && i + 1 < ends[field] && line.charAt(i + 1) == '"') {
+                    sb.append('"');
+                    i++;
+                } else {
+                    inQuotes = !inQuotes;
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    // ======= //
+    // NUMBERS //
+    // ======= //
+
+    public int getInt(int field) {
+        long value = getLong(field);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Value out of int range in field " + field);
+        }
+        return (int) value;
+    }
+
+    public long getLong(int field) {
+        checkField(field);
+        if (quoted[field]) {
+            return Long.parseLong(getString(field));
+        }
+        int i = starts[field];
+        int end = ends[field];
+        boolean negative = false;
+        if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+            negative = line.charAt(i) == '-';
+            i++;
+        }
+        if (i == end || end - i > 18) {
+            // Empty, or too long to accumulate without overflow checks
+            return Long.parseLong(line.subSequence(starts[field], end).toString());
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number in field " + field);
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    // Plain decimals are computed exactly from the digits; anything else goes through Double.parseDouble.
+    public double getDouble(int field) {
+        checkField(field);
+        if (quoted[field]) {
+            return Double.parseDouble(getString(field));
+        }
+        int i = starts[field];
+        int end = ends[field];
+        boolean negative = false;
+        if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+            negative = line.charAt(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int fractionDigits = 0;
+        boolean seenDot = false;
+        boolean seenDigit = false;
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                seenDigit = true;
+                if (seenDot) fractionDigits++;
+                if (mantissa >= MAX_EXACT_MANTISSA) break;
+            } else if (c == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                break; // Exponent, NaN, Infinity, ...
+            }
+        }
+
+        if (i != end || !seenDigit || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(line.subSequence(starts[field], end).toString());
+        }
+        // Both operands are exact doubles, so the division is correctly rounded
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    // Same semantics as Boolean.parseBoolean.
+    public boolean getBoolean(int field) {
+        checkField(field);
+        if (quoted[field]) {
+            return Boolean.parseBoolean(getString(field));
+        }
+        int start = starts[field];
+        if (ends[field] - start != 4) {
+            return false;
+        }
+        return (line.charAt(start) | 0x20) == 't' && (line.charAt(start + 1) | 0x20) == 'r'
+                && (line.charAt(start + 2) | 0x20) == 'u' && (line.charAt(start + 3) | 0x20) == 'e';
+    }
+
+    // ========== //
+    // TIMESTAMPS //
+    // ========== //
+
+    // Parses "yyyy-MM-dd HH:mm:ss" in the default time zone into epoch millis.
+    public long getTimestamp(int field) {
+        checkField(field);
+        int s = starts[field];
+        if (quoted[field] || ends[field] - s != TIMESTAMP_LENGTH
+                || line.charAt(s + 4) != '-' || line.charAt(s + 7) != '-' || line.charAt(s + 10) != ' '
+                || line.charAt(s + 13) != ':' || line.charAt(s + 16) != ':') {
+            throw new IllegalArgumentException("Invalid timestamp in field " + field);
+        }
+        int year = digits(s, 4);
+        int month = digits(s + 5, 2);
+        int day = digits(s + 8, 2);
+        int hour = digits(s + 11, 2);
+        int minute = digits(s + 14, 2);
+        int second = digits(s + 17, 2);
+
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        return calendar.getTimeInMillis();
+    }
+
+    private int digits(int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Invalid digit in timestamp at offset " + i);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // Parses the first column of a line as an int without scanning the rest of it.
+    // Every storage file keeps its unquoted id in that column.
+    public static int parseLeadingInt(CharSequence line) {
+        int length = line.length();
+        int end = 0;
+        while (end < length && line.charAt(end) != ',') end++;
+        int i = 0;
+        while (i < end && line.charAt(i) <= ' ') i++;
+        while (end > i && line.charAt(end - 1) <= ' ') end--;
+
+        boolean negative = i < end && line.charAt(i) == '-';
+        if (negative) i++;
+        if (i == end || end - i > 10) {
+            throw new NumberFormatException("Invalid leading id: " + line);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid leading id: " + line);
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Leading id out of range: " + line);
+        }
+        return (int) value;
+    }
+
+    private void checkField(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field " + field + " of " + fieldCount);
+        }
+    }
+}
@@ -0,0 +1,499 @@
+package storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import accounts.model.UserAccount;
+import booking.model.Booking;
+import manager.room.Room;
+
+/**
+ * Decorator that keeps hash indexes in front of another storage service.
+ * Users and rooms are indexed in full on first use; bookings are kept in an
+ * LRU cache (by id and by user id) bounded by a configurable number of entries.
+ * All writes go through to the delegate before the indexes are updated, and only writes the delegate
+ * stored are indexed. A failed batch may be partly stored, so it drops the caches instead.
+ */
+public class CachingStorageService implements IStorageService {
+
+    private static final int DEFAULT_MAX_CACHED_BOOKINGS = 10000;
+
+    private final IStorageService delegate;
+    private final int maxCachedBookings;
+
+    // User and room indexes (null until first loaded from the delegate)
+    private Map<Integer, UserAccount> usersById;
+    private Map<String, UserAccount> usersByEmail;
+    private Map<Integer, Room> roomsById;
+
+    // Booking caches, both in least-recently-used order
+    private final LinkedHashMap<Integer, Booking> bookingsById;
+    private final LinkedHashMap<Integer, List<Booking>> bookingsByUserId;
+    private int cachedUserBookingEntries;
+
+    // Delegate's counters at the last getGenerations call
+    private DataGenerations lastSeenGenerations;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+
+    public CachingStorageService(IStorageService delegate) {
+        this(delegate, DEFAULT_MAX_CACHED_BOOKINGS);
+    }
+
+    public CachingStorageService(IStorageService delegate, int maxCachedBookings) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate storage service cannot be null");
+        }
+        if (maxCachedBookings <= 0) {
+            throw new IllegalArgumentException("Max cached bookings must be positive");
+        }
+        this.delegate = delegate;
+        this.maxCachedBookings = maxCachedBookings;
+        this.bookingsById = new LinkedHashMap<Integer, Booking>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Booking> eldest) {
+                return size() > CachingStorageService.this.maxCachedBookings;
+            }
+        };
+        this.bookingsByUserId = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    // ============== //
+    // INITIALIZATION //
+    // ============== //
+
+    @Override
+    public synchronized void initialize() {
+        delegate.initialize();
+        invalidateAll();
+    }
+
+    // Drops every cached entry; the next lookups reload from the delegate.
+    public synchronized void invalidateAll() {
+        usersById = null;
+        usersByEmail = null;
+        roomsById = null;
+        bookingsById.clear();
+        bookingsByUserId.clear();
+        cachedUserBookingEntries = 0;
+    }
+
+    // =============== //
+    // USER OPERATIONS //
+    // =============== //
+
+    @Override
+    public synchronized boolean saveUser(UserAccount user) {
+        boolean saved = delegate.saveUser(user);
+        if (saved && usersById != null) {
+            indexUser(user);
+        }
+        return saved;
+    }
+
+    @Override
+    public synchronized boolean saveAllUsers(List<UserAccount> users) {
+        boolean saved = delegate.saveAllUsers(users);
+        if (!saved) {
+            invalidateAll();
+        } else if (usersById != null) {
+            for (UserAccount user : users) {
+                indexUser(user);
+            }
+        }
+        return saved;
+    }
+
+    @Override
+    public synchronized List<UserAccount> loadAllUsers() {
+        return new ArrayList<>(getUserIndex().values());
+    }
+
+    @Override
+    public synchronized UserAccount findUserByEmail(String email) {
+        if (email == null) return null;
+        getUserIndex();
+        return usersByEmail.get(email);
+    }
+
+    @Override
+    public synchronized UserAccount findUserById(int userId) {
+        return getUserIndex().get(userId);
+    }
+
+    @Override
+    public synchronized boolean deleteUser(int userId) {
+        boolean deleted = delegate.deleteUser(userId);
+        if (usersById != null) {
+            UserAccount removed = usersById.remove(userId);
+            if (removed != null && removed.getEmail() != null) {
+                usersByEmail.remove(removed.getEmail());
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public synchronized boolean deleteAllUsers(Collection<Integer> userIds) {
+        boolean deleted = delegate.deleteAllUsers(userIds);
+        if (!deleted) {
+            invalidateAll();
+        } else if (usersById != null) {
+            for (int userId : userIds) {
+                UserAccount removed = usersById.remove(userId);
+                if (removed != null && removed.getEmail() != null) {
+                    usersByEmail.remove(removed.getEmail());
+                }
+            }
+        }
+        return deleted;
+    }
+
+    // Loads the user indexes on first use; counts as a hit once they are warm.
+    private Map<Integer, UserAccount> getUserIndex() {
+        if (usersById != null) {
+            hits.incrementAndGet();
+            return usersById;
+        }
+        misses.incrementAndGet();
+        usersById = new LinkedHashMap<>();
+        usersByEmail = new HashMap<>();
+        for (UserAccount user : delegate.loadAllUsers()) {
+            indexUser(user);
+        }
+        return usersById;
+    }
+
+    private void indexUser(UserAccount user) {
+        UserAccount previous = usersById.put(user.getUserId(), user);
+        if (previous != null && previous.getEmail() != null) {
+            usersByEmail.remove(previous.getEmail());
+        }
+        if (user.getEmail() != null) {
+            usersByEmail.put(user.getEmail(), user);
+        }
+    }
+
+    // =============== //
+    // ROOM OPERATIONS //
+    // =============== //
+
+    @Override
+    public synchronized boolean saveRoom(Room room) {
+        boolean saved = delegate.saveRoom(room);
+        if (saved && roomsById != null) {
+            roomsById.put(room.getRoomId(), room);
+        }
+        return saved;
+    }
+
+    @Override
+    public synchronized boolean saveAllRooms(List<Room> rooms) {
+        boolean saved = delegate.saveAllRooms(rooms);
+        if (!saved) {
+            invalidateAll();
+        } else if (roomsById != null) {
+            for (Room room : rooms) {
+                roomsById.put(room.getRoomId(), room);
+            }
+        }
+        return saved;
+    }
+
+    @Override
+    public synchronized List<Room> loadAllRooms() {
+        return new ArrayList<>(getRoomIndex().values());
+    }
+
+    @Override
+    public synchronized Room findRoomById(int roomId) {
+        return getRoomIndex().get(roomId);
+    }
+
+    @Override
+    public synchronized boolean updateRoom(Room room) {
+        boolean updated = delegate.updateRoom(room);
+        if (updated && roomsById != null) {
+            roomsById.put(room.getRoomId(), room);
+        }
+        return updated;
+    }
+
+    @Override
+    public synchronized boolean deleteRoom(int roomId) {
+        boolean deleted = delegate.deleteRoom(roomId);
+        if (roomsById != null) {
+            roomsById.remove(roomId);
+        }
+        return deleted;
+    }
+
+    @Override
+    public synchronized boolean deleteAllRooms(Collection<Integer> roomIds) {
+        boolean deleted = delegate.deleteAllRooms(roomIds);
+        if (!deleted) {
+            invalidateAll();
+        } else if (roomsById != null) {
+            roomsById.keySet().removeAll(roomIds);
+        }
+        return deleted;
+    }
+
+    private Map<Integer, Room> getRoomIndex() {
+        if (roomsById != null) {
+            hits.incrementAndGet();
+            return roomsById;
+        }
+        misses.incrementAndGet();
+        roomsById = new LinkedHashMap<>();
+        for (Room room : delegate.loadAllRooms()) {
+            roomsById.put(room.getRoomId(), room);
+        }
+        return roomsById;
+    }
+
+    // ================== //
+    // BOOKING OPERATIONS //
+    // ================== //
+
+    @Override
+    public synchronized boolean saveBooking(Booking booking) {
+        boolean saved = delegate.saveBooking(booking);
+        if (saved) {
+            cacheBooking(booking, true);
+        }
+        return saved;
+    }
+
+    @Override
+    public synchronized boolean saveAllBookings(List<Booking> bookings) {
+        boolean saved = delegate.saveAllBookings(bookings);
+        if (!saved) {
+            invalidateAll();
+            return false;
+        }
+        for (Booking booking : bookings) {
+            cacheBooking(booking, true);
+        }
+        return true;
+    }
+
+    // Not cached: a full load is bounded only by the delegate's data.
+    @Override
+    public List<Booking> loadAllBookings() {
+        return delegate.loadAllBookings();
+    }
+
+    @Override
+    public Stream<Booking> streamAllBookings() {
+        return delegate.streamAllBookings();
+    }
+
+    @Override
+    public Stream<Booking> streamBookingHistory() {
+        return delegate.streamBookingHistory();
+    }
+
+    @Override
+    public synchronized Booking findBookingById(int bookingId) {
+        Booking booking = bookingsById.get(bookingId);
+        if (booking != null) {
+            hits.incrementAndGet();
+            return booking;
+        }
+        misses.incrementAndGet();
+        booking = delegate.findBookingById(bookingId);
+        if (booking != null) {
+            bookingsById.put(bookingId, booking);
+        }
+        return booking;
+    }
+
+    @Override
+    public synchronized List<Booking> findBookingsByUserId(int userId) {
+        List<Booking> cached = bookingsByUserId.get(userId);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return new ArrayList<>(cached);
+        }
+        misses.incrementAndGet();
+        List<Booking> loaded = new ArrayList<>(delegate.findBookingsByUserId(userId));
+        bookingsByUserId.put(userId, loaded);
+        cachedUserBookingEntries += loaded.size();
+        evictUserBookingLists();
+        return new ArrayList<>(loaded);
+    }
+
+    // Not cached: range results change with every booking write.
+    @Override
+    public List<Booking> findBookingsInRange(Date from, Date to) {
+        return delegate.findBookingsInRange(from, to);
+    }
+
+    // Not cached: the delegate answers these from its own indexes.
+    @Override
+    public List<Booking> findBookingsByRoomId(int roomId) {
+        return delegate.findBookingsByRoomId(roomId);
+    }
+
+    @Override
+    public List<Booking> findBookingsByUserId(int userId, Date from, Date to) {
+        return delegate.findBookingsByUserId(userId, from, to);
+    }
+
+    @Override
+    public List<Booking> findBookingsByRoomId(int roomId, Date from, Date to) {
+        return delegate.findBookingsByRoomId(roomId, from, to);
+    }
+
+    @Override
+    public synchronized boolean updateBooking(Booking booking) {
+        boolean updated = delegate.updateBooking(booking);
+        if (updated) {
+            cacheBooking(booking, false);
+        }
+        return updated;
+    }
+
+    @Override
+    public synchronized boolean deleteBooking(int bookingId) {
+        boolean deleted = delegate.deleteBooking(bookingId);
+        bookingsById.remove(bookingId);
+        for (List<Booking> userBookings : bookingsByUserId.values()) {
+            if (userBookings.removeIf(b -> b.getBookingId() == bookingId)) {
+                cachedUserBookingEntries--;
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public synchronized boolean deleteAllBookings(Collection<Integer> bookingIds) {
+        boolean deleted = delegate.deleteAllBookings(bookingIds);
+        if (!deleted) {
+            invalidateAll();
+            return false;
+        }
+        Set<Integer> ids = new HashSet<>(bookingIds);
+        bookingsById.keySet().removeAll(ids);
+        for (List<Booking> userBookings : bookingsByUserId.values()) {
+            int before = userBookings.size();
+            userBookings.removeIf(b -> ids.contains(b.getBookingId()));
+            cachedUserBookingEntries -= before - userBookings.size();
+        }
+        return true;
+    }
+
+    // Refreshes both booking caches after a write. New bookings are only added to a user list if asked.
+    private void cacheBooking(Booking booking, boolean isNew) {
+        bookingsById.put(booking.getBookingId(), booking);
+
+        List<Booking> userBookings = bookingsByUserId.get(booking.getUser().getUserId());
+        if (userBookings == null) {
+            return;
+        }
+        for (int i = 0; i < userBookings.size(); i++) {
+            if (userBookings.get(i).getBookingId() == booking.getBookingId()) {
+                userBookings.set(i, booking);
+                return;
+            }
+        }
+        if (isNew) {
+            userBookings.add(booking);
+            cachedUserBookingEntries++;
+            evictUserBookingLists();
+        }
+    }
+
+    // Drops least recently used user lists until the total entry count fits the limit.
+    private void evictUserBookingLists() {
+        Iterator<List<Booking>> it = bookingsByUserId.values().iterator();
+        while (cachedUserBookingEntries > maxCachedBookings && it.hasNext()) {
+            cachedUserBookingEntries -= it.next().size();
+            it.remove();
+        }
+    }
+
+    // ================== //
+    // UTILITY OPERATIONS //
+    // ================== //
+
+    @Override
+    public synchronized boolean clearAll() {
+        boolean cleared = delegate.clearAll();
+        invalidateAll();
+        return cleared;
+    }
+
+    @Override
+    public long getLastModifiedTime() {
+        return delegate.getLastModifiedTime();
+    }
+
+    // Drops the caches of entity types another writer changed since the previous call.
+    // Our own writes raise the counters too, which only costs an extra reload.
+    @Override
+    public synchronized DataGenerations getGenerations() {
+        DataGenerations current = delegate.getGenerations();
+        if (current != null && lastSeenGenerations != null) {
+            if (current.users != lastSeenGenerations.users) {
+                usersById = null;
+                usersByEmail = null;
+            }
+            if (current.rooms != lastSeenGenerations.rooms) {
+                roomsById = null;
+            }
+            // Cached bookings hold user and room objects, so they go with either of them
+            if (current.bookings != lastSeenGenerations.bookings || current.users != lastSeenGenerations.users
+                    || current.rooms != lastSeenGenerations.rooms) {
+                bookingsById.clear();
+                bookingsByUserId.clear();
+                cachedUserBookingEntries = 0;
+            }
+        }
+        lastSeenGenerations = current;
+        return current;
+    }
+
+    @Override
+    public DataGenerations skipOwnWrites(DataGenerations since) {
+        return delegate.skipOwnWrites(since);
+    }
+
+    public IStorageService getDelegate() {
+        return delegate;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public synchronized String getCacheStats() {
+        long total = hits.get() + misses.get();
+        double hitRate = total == 0 ? 0.0 : (100.0 * hits.get()) / total;
+        return String.format("Cache[hits=%d, misses=%d, hitRate=%.1f%%, bookings=%d/%d, userLists=%d]",
+                hits.get(), misses.get(), hitRate, bookingsById.size(), maxCachedBookings,
+                bookingsByUserId.size());
+    }
+}
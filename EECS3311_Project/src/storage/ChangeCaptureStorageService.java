@@ -0,0 +1,421 @@
+package storage;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import accounts.model.UserAccount;
+import booking.model.Booking;
+import manager.room.Room;
+
+/**
+ * Decorator that records every write made through it in a ChangeLog.
+ * Each write goes to the delegate first and is appended to the log only if the delegate
+ * stored it, so consumers tailing the log (billing exports, partner sync) see a change
+ * only once it is stored.
+ * Writes of the same entity id are serialized, which keeps their log order the same as
+ * their storage order; batch writes and clearAll exclude all other writes.
+ * A stored write that cannot be appended to the log is reported and marks the log as having
+ * a gap (see hasGap); consumers must then resync from storage.
+ */
+public class ChangeCaptureStorageService implements IStorageService {
+
+    private static final int STRIPES = 64;
+
+    private final IStorageService delegate;
+    private final ChangeLog changeLog;
+
+    // Single writes share it; saveAllX and clearAll take it exclusively
+    private final ReentrantReadWriteLock batchLock = new ReentrantReadWriteLock();
+    // Single writes also lock the stripe of their entity id
+    private final Object[] stripes = new Object[STRIPES];
+    // Set once a stored write is missing from the log
+    private volatile boolean gap;
+
+
+    public ChangeCaptureStorageService(IStorageService delegate, ChangeLog changeLog) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate storage service cannot be null");
+        }
+        if (changeLog == null) {
+            throw new IllegalArgumentException("Change log cannot be null");
+        }
+        this.delegate = delegate;
+        this.changeLog = changeLog;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    public IStorageService getDelegate() {
+        return delegate;
+    }
+
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    // True once a write reached storage but not the change log.
+    public boolean hasGap() {
+        return gap;
+    }
+
+    // ============== //
+    // INITIALIZATION //
+    // ============== //
+
+    @Override
+    public void initialize() {
+        delegate.initialize();
+    }
+
+    // Logged as one CLEAR event per entity type.
+    @Override
+    public boolean clearAll() {
+        return writeBatch(() -> {
+            boolean cleared = delegate.clearAll();
+            if (cleared) {
+                for (ChangeEvent.Entity entity : ChangeEvent.Entity.values()) {
+                    checkLogged(changeLog.append(entity, ChangeEvent.Type.CLEAR, 0, null));
+                }
+            }
+            return cleared;
+        });
+    }
+
+    @Override
+    public long getLastModifiedTime() {
+        return delegate.getLastModifiedTime();
+    }
+
+    @Override
+    public DataGenerations getGenerations() {
+        return delegate.getGenerations();
+    }
+
+    @Override
+    public DataGenerations skipOwnWrites(DataGenerations since) {
+        return delegate.skipOwnWrites(since);
+    }
+
+    // ===== //
+    // USERS //
+    // ===== //
+
+    @Override
+    public boolean saveUser(UserAccount user) {
+        return write(user.getUserId(), () -> {
+            boolean stored = delegate.saveUser(user);
+            if (stored) {
+                checkLogged(changeLog.append(ChangeEvent.Entity.USER, ChangeEvent.Type.UPSERT, user.getUserId(),
+                        CSVStorageService.userToCSV(user, false)));
+            }
+            return stored;
+        });
+    }
+
+    @Override
+    public boolean saveAllUsers(List<UserAccount> users) {
+        if (users == null) {
+            throw new IllegalArgumentException("Users cannot be null");
+        }
+        Map<Integer, String> rows = new LinkedHashMap<>();
+        for (UserAccount user : users) {
+            rows.put(user.getUserId(), CSVStorageService.userToCSV(user, false));
+        }
+        return writeBatch(() -> {
+            boolean stored = delegate.saveAllUsers(users);
+            if (stored) {
+                checkLogged(changeLog.appendAll(ChangeEvent.Entity.USER, ChangeEvent.Type.UPSERT, rows));
+            }
+            return stored;
+        });
+    }
+
+    @Override
+    public List<UserAccount> loadAllUsers() {
+        return delegate.loadAllUsers();
+    }
+
+    @Override
+    public UserAccount findUserByEmail(String email) {
+        return delegate.findUserByEmail(email);
+    }
+
+    @Override
+    public UserAccount findUserById(int userId) {
+        return delegate.findUserById(userId);
+    }
+
+    @Override
+    public boolean deleteUser(int userId) {
+        return write(userId, () -> {
+            boolean deleted = delegate.deleteUser(userId);
+            if (deleted) {
+                checkLogged(changeLog.append(ChangeEvent.Entity.USER, ChangeEvent.Type.DELETE, userId, null));
+            }
+            return deleted;
+        });
+    }
+
+    @Override
+    public boolean deleteAllUsers(Collection<Integer> userIds) {
+        if (userIds == null) {
+            throw new IllegalArgumentException("User IDs cannot be null");
+        }
+        Map<Integer, String> rows = new LinkedHashMap<>();
+        for (int userId : userIds) {
+            rows.put(userId, null);
+        }
+        return writeBatch(() -> {
+            boolean deleted = delegate.deleteAllUsers(userIds);
+            if (deleted) {
+                checkLogged(changeLog.appendAll(ChangeEvent.Entity.USER, ChangeEvent.Type.DELETE, rows));
+            }
+            return deleted;
+        });
+    }
+
+    // ===== //
+    // ROOMS //
+    // ===== //
+
+    @Override
+    public boolean saveRoom(Room room) {
+        return write(room.getRoomId(), () -> {
+            boolean stored = delegate.saveRoom(room);
+            if (stored) {
+                checkLogged(changeLog.append(ChangeEvent.Entity.ROOM, ChangeEvent.Type.UPSERT, room.getRoomId(),
+                        CSVStorageService.roomToCSV(room)));
+            }
+            return stored;
+        });
+    }
+
+    @Override
+    public boolean saveAllRooms(List<Room> rooms) {
+        if (rooms == null) {
+            throw new IllegalArgumentException("Rooms cannot be null");
+        }
+        Map<Integer, String> rows = new LinkedHashMap<>();
+        for (Room room : rooms) {
+            rows.put(room.getRoomId(), CSVStorageService.roomToCSV(room));
+        }
+        return writeBatch(() -> {
+            boolean stored = delegate.saveAllRooms(rooms);
+            if (stored) {
+                checkLogged(changeLog.appendAll(ChangeEvent.Entity.ROOM, ChangeEvent.Type.UPSERT, rows));
+            }
+            return stored;
+        });
+    }
+
+    @Override
+    public List<Room> loadAllRooms() {
+        return delegate.loadAllRooms();
+    }
+
+    @Override
+    public Room findRoomById(int roomId) {
+        return delegate.findRoomById(roomId);
+    }
+
+    @Override
+    public boolean updateRoom(Room room) {
+        return write(room.getRoomId(), () -> {
+            boolean stored = delegate.updateRoom(room);
+            if (stored) {
+                checkLogged(changeLog.append(ChangeEvent.Entity.ROOM, ChangeEvent.Type.UPSERT, room.getRoomId(),
+                        CSVStorageService.roomToCSV(room)));
+            }
+            return stored;
+        });
+    }
+
+    @Override
+    public boolean deleteRoom(int roomId) {
+        return write(roomId, () -> {
+            boolean deleted = delegate.deleteRoom(roomId);
+            if (deleted) {
+                checkLogged(changeLog.append(ChangeEvent.Entity.ROOM, ChangeEvent.Type.DELETE, roomId, null));
+            }
+            return deleted;
+        });
+    }
+
+    @Override
+    public boolean deleteAllRooms(Collection<Integer> roomIds) {
+        if (roomIds == null) {
+            throw new IllegalArgumentException("Room IDs cannot be null");
+        }
+        Map<Integer, String> rows = new LinkedHashMap<>();
+        for (int roomId : roomIds) {
+            rows.put(roomId, null);
+        }
+        return writeBatch(() -> {
+            boolean deleted = delegate.deleteAllRooms(roomIds);
+            if (deleted) {
+                checkLogged(changeLog.appendAll(ChangeEvent.Entity.ROOM, ChangeEvent.Type.DELETE, rows));
+            }
+            return deleted;
+        });
+    }
+
+    // ======== //
+    // BOOKINGS //
+    // ======== //
+
+    @Override
+    public boolean saveBooking(Booking booking) {
+        return write(booking.getBookingId(), () -> {
+            boolean stored = delegate.saveBooking(booking);
+            if (stored) {
+                checkLogged(changeLog.append(ChangeEvent.Entity.BOOKING, ChangeEvent.Type.UPSERT,
+                        booking.getBookingId(), CSVStorageService.bookingToCSV(booking)));
+            }
+            return stored;
+        });
+    }
+
+    @Override
+    public boolean saveAllBookings(List<Booking> bookings) {
+        if (bookings == null) {
+            throw new IllegalArgumentException("Bookings cannot be null");
+        }
+        Map<Integer, String> rows = new LinkedHashMap<>();
+        for (Booking booking : bookings) {
+            rows.put(booking.getBookingId(), CSVStorageService.bookingToCSV(booking));
+        }
+        return writeBatch(() -> {
+            boolean stored = delegate.saveAllBookings(bookings);
+            if (stored) {
+                checkLogged(changeLog.appendAll(ChangeEvent.Entity.BOOKING, ChangeEvent.Type.UPSERT, rows));
+            }
+            return stored;
+        });
+    }
+
+    @Override
+    public List<Booking> loadAllBookings() {
+        return delegate.loadAllBookings();
+    }
+
+    @Override
+    public Stream<Booking> streamAllBookings() {
+        return delegate.streamAllBookings();
+    }
+
+    @Override
+    public Stream<Booking> streamBookingHistory() {
+        return delegate.streamBookingHistory();
+    }
+
+    @Override
+    public Booking findBookingById(int bookingId) {
+        return delegate.findBookingById(bookingId);
+    }
+
+    @Override
+    public List<Booking> findBookingsByUserId(int userId) {
+        return delegate.findBookingsByUserId(userId);
+    }
+
+    @Override
+    public List<Booking> findBookingsByRoomId(int roomId) {
+        return delegate.findBookingsByRoomId(roomId);
+    }
+
+    @Override
+    public List<Booking> findBookingsByUserId(int userId, Date from, Date to) {
+        return delegate.findBookingsByUserId(userId, from, to);
+    }
+
+    @Override
+    public List<Booking> findBookingsByRoomId(int roomId, Date from, Date to) {
+        return delegate.findBookingsByRoomId(roomId, from, to);
+    }
+
+    @Override
+    public List<Booking> findBookingsInRange(Date from, Date to) {
+        return delegate.findBookingsInRange(from, to);
+    }
+
+    @Override
+    public boolean updateBooking(Booking booking) {
+        return write(booking.getBookingId(), () -> {
+            boolean stored = delegate.updateBooking(booking);
+            if (stored) {
+                checkLogged(changeLog.append(ChangeEvent.Entity.BOOKING, ChangeEvent.Type.UPSERT,
+                        booking.getBookingId(), CSVStorageService.bookingToCSV(booking)));
+            }
+            return stored;
+        });
+    }
+
+    @Override
+    public boolean deleteBooking(int bookingId) {
+        return write(bookingId, () -> {
+            boolean deleted = delegate.deleteBooking(bookingId);
+            if (deleted) {
+                checkLogged(changeLog.append(ChangeEvent.Entity.BOOKING, ChangeEvent.Type.DELETE, bookingId, null));
+            }
+            return deleted;
+        });
+    }
+
+    @Override
+    public boolean deleteAllBookings(Collection<Integer> bookingIds) {
+        if (bookingIds == null) {
+            throw new IllegalArgumentException("Booking IDs cannot be null");
+        }
+        Map<Integer, String> rows = new LinkedHashMap<>();
+        for (int bookingId : bookingIds) {
+            rows.put(bookingId, null);
+        }
+        return writeBatch(() -> {
+            boolean deleted = delegate.deleteAllBookings(bookingIds);
+            if (deleted) {
+                checkLogged(changeLog.appendAll(ChangeEvent.Entity.BOOKING, ChangeEvent.Type.DELETE, rows));
+            }
+            return deleted;
+        });
+    }
+
+    // ======= //
+    // HELPERS //
+    // ======= //
+
+    // Marks the gap when an append returned -1 (it has already reported the IO error).
+    private void checkLogged(long sequence) {
+        if (sequence < 0) {
+            gap = true;
+            System.err.println("Error: change log is missing a stored write; consumers must resync from storage.");
+        }
+    }
+
+    // Runs a single write; returns its storage status.
+    private boolean write(int id, BooleanSupplier body) {
+        batchLock.readLock().lock();
+        try {
+            synchronized (stripes[Math.floorMod(id, STRIPES)]) {
+                return body.getAsBoolean();
+            }
+        } finally {
+            batchLock.readLock().unlock();
+        }
+    }
+
+    private boolean writeBatch(BooleanSupplier body) {
+        batchLock.writeLock().lock();
+        try {
+            return body.getAsBoolean();
+        } finally {
+            batchLock.writeLock().unlock();
+        }
+    }
+}
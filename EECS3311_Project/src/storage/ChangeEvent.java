@@ -0,0 +1,100 @@
+package storage;
+
+/**
+ * One entry of the change log: a user, room or booking was saved or deleted, or a whole
+ * entity type was cleared. Saves carry the entity's row in the CSV file format
+ * (users without their password); deletes and clears carry no row.
+ *
+ * Log line format: sequence,timestampMillis,entity,type,id[,row]
+ */
+public final class ChangeEvent {
+
+    public enum Entity {
+        USER, ROOM, BOOKING
+    }
+
+    public enum Type {
+        UPSERT, DELETE, CLEAR
+    }
+
+    private final long sequence;
+    private final long timestamp;
+    private final Entity entity;
+    private final Type type;
+    private final int id;
+    private final String row;
+
+
+    public ChangeEvent(long sequence, long timestamp, Entity entity, Type type, int id, String row) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.entity = entity;
+        this.type = type;
+        this.id = id;
+        this.row = row;
+    }
+
+    // Position in the log; consecutive, starting at 1
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Epoch millis of the write
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Entity getEntity() {
+        return entity;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    // Id of the user, room or booking (0 for CLEAR)
+    public int getId() {
+        return id;
+    }
+
+    // The entity's CSV row for UPSERT, null otherwise
+    public String getRow() {
+        return row;
+    }
+
+    String toLine() {
+        String line = sequence + "," + timestamp + "," + entity + "," + type + "," + id;
+        return row == null ? line : line + "," + row;
+    }
+
+    // Parses a log line; throws IllegalArgumentException if it is malformed.
+    static ChangeEvent parse(String line) {
+        int[] commas = new int[5];
+        int found = 0;
+        for (int i = 0; i < line.length() && found < 5; i++) {
+            if (line.charAt(i) == ',') {
+                commas[found++] = i;
+            }
+        }
+        if (found < 4) {
+            throw new IllegalArgumentException("Invalid change log line: " + line);
+        }
+        int idEnd = found == 5 ? commas[4] : line.length();
+        try {
+            return new ChangeEvent(
+                    Long.parseLong(line.substring(0, commas[0])),
+                    Long.parseLong(line.substring(commas[0] + 1, commas[1])),
+                    Entity.valueOf(line.substring(commas[1] + 1, commas[2])),
+                    Type.valueOf(line.substring(commas[2] + 1, commas[3])),
+                    Integer.parseInt(line.substring(commas[3] + 1, idEnd)),
+                    found == 5 ? line.substring(commas[4] + 1) : null);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid change log line: " + line, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent[" + toLine() + "]";
+    }
+}
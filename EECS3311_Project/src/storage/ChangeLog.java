@@ -0,0 +1,271 @@
+package storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Append-only, ordered log of data changes that consumers can tail from any sequence number.
+ * Every event gets the next sequence number; a consumer remembers the last sequence it processed
+ * and asks for what follows, so it only ever handles the changes since its previous read.
+ *
+ * Appends hold an exclusive lock on the log file, so processes sharing a data directory append
+ * to one sequence. Readers need no lock: they only consume complete lines. A sparse in-memory
+ * index (one offset every INDEX_INTERVAL events) lets a read start close to the requested sequence.
+ * Open each log file once per JVM; file locks are held per JVM, not per instance.
+ */
+public class ChangeLog {
+
+    private static final int INDEX_INTERVAL = 256;
+    private static final int READ_CHUNK = 64 * 1024;
+    // Longest a waiting consumer sleeps before looking for appends by other processes
+    private static final long MAX_WAIT_MILLIS = 100;
+
+    private final FileChannel channel;
+
+    // Sparse sequence -> byte offset of its line
+    private final TreeMap<Long, Long> offsets = new TreeMap<>();
+    // End of the last complete line seen, and the sequence on it
+    private long knownLength;
+    private long lastSequence;
+
+    // Notified after each append, for consumers waiting in poll
+    private final Object appended = new Object();
+
+
+    public ChangeLog(String path) throws IOException {
+        this.channel = FileChannel.open(new File(path).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        catchUp();
+    }
+
+    // ======= //
+    // WRITING //
+    // ======= //
+
+    // Appends one event and returns its sequence number, or -1 if it could not be written.
+    public long append(ChangeEvent.Entity entity, ChangeEvent.Type type, int id, String row) {
+        Map<Integer, String> rows = new TreeMap<>();
+        rows.put(id, row);
+        return appendAll(entity, type, rows);
+    }
+
+    // Appends one event per row, in the map's order, in a single write. Returns the last
+    // sequence number, or -1 if nothing could be written.
+    public long appendAll(ChangeEvent.Entity entity, ChangeEvent.Type type, Map<Integer, String> rows) {
+        long sequence = write(entity, type, rows);
+        // Outside the log's monitor: poll takes the two the other way round
+        synchronized (appended) {
+            appended.notifyAll();
+        }
+        return sequence;
+    }
+
+    private synchronized long write(ChangeEvent.Entity entity, ChangeEvent.Type type, Map<Integer, String> rows) {
+        if (rows.isEmpty()) {
+            return lastSequence;
+        }
+        FileLock lock = null;
+        try {
+            lock = channel.lock();
+            catchUp(); // Other processes may have appended since
+
+            long timestamp = System.currentTimeMillis();
+            long sequence = lastSequence;
+            Map<Long, Long> newOffsets = new TreeMap<>();
+            ByteArrayOutputStream lines = new ByteArrayOutputStream();
+            for (Map.Entry<Integer, String> row : rows.entrySet()) {
+                sequence++;
+                if (offsets.isEmpty() && newOffsets.isEmpty() || sequence % INDEX_INTERVAL == 1) {
+                    newOffsets.put(sequence, knownLength + lines.size());
+                }
+                ChangeEvent event = new ChangeEvent(sequence, timestamp, entity, type, row.getKey(), row.getValue());
+                lines.write((event.toLine() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toByteArray());
+            try {
+                long position = knownLength;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            } catch (IOException e) {
+                channel.truncate(knownLength); // Never leave half a line for the next append
+                throw e;
+            }
+            knownLength += lines.size();
+            lastSequence = sequence;
+            offsets.putAll(newOffsets);
+        } catch (IOException e) {
+            System.err.println("Error appending to change log: " + e.getMessage());
+            return -1;
+        } finally {
+            release(lock);
+        }
+        return lastSequence;
+    }
+
+    private static void release(FileLock lock) {
+        if (lock == null) {
+            return;
+        }
+        try {
+            lock.release();
+        } catch (IOException e) {
+            System.err.println("Error releasing change log lock: " + e.getMessage());
+        }
+    }
+
+    // ======= //
+    // READING //
+    // ======= //
+
+    // Sequence number of the newest event (0 if the log is empty).
+    public synchronized long getLastSequence() {
+        refresh();
+        return lastSequence;
+    }
+
+    // Returns up to maxEvents events with a sequence number of at least fromSequence, oldest first.
+    public List<ChangeEvent> read(long fromSequence, int maxEvents) {
+        if (maxEvents <= 0) {
+            throw new IllegalArgumentException("Max events must be positive.");
+        }
+        long start;
+        long end;
+        synchronized (this) {
+            refresh();
+            if (fromSequence > lastSequence) {
+                return new ArrayList<>();
+            }
+            Map.Entry<Long, Long> floor = offsets.floorEntry(fromSequence);
+            start = floor == null ? 0 : floor.getValue();
+            end = knownLength;
+        }
+
+        List<ChangeEvent> events = new ArrayList<>();
+        try {
+            scanLines(start, end, (offset, line) -> {
+                ChangeEvent event;
+                try {
+                    event = ChangeEvent.parse(line);
+                } catch (IllegalArgumentException e) {
+                    return true; // Reported when catchUp first read it
+                }
+                if (event.getSequence() >= fromSequence) {
+                    events.add(event);
+                }
+                return events.size() < maxEvents;
+            });
+        } catch (IOException e) {
+            System.err.println("Error reading change log: " + e.getMessage());
+        }
+        return events;
+    }
+
+    // Like read, but waits up to timeoutMillis for an event to arrive when there is none yet.
+    public List<ChangeEvent> poll(long fromSequence, int maxEvents, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            List<ChangeEvent> events = read(fromSequence, maxEvents);
+            long remaining = deadline - System.currentTimeMillis();
+            if (!events.isEmpty() || remaining <= 0) {
+                return events;
+            }
+            synchronized (appended) {
+                if (getLastSequence() < fromSequence) {
+                    appended.wait(Math.min(remaining, MAX_WAIT_MILLIS));
+                }
+            }
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    // ======= //
+    // HELPERS //
+    // ======= //
+
+    private void refresh() {
+        try {
+            catchUp();
+        } catch (IOException e) {
+            System.err.println("Error reading change log: " + e.getMessage());
+        }
+    }
+
+    // Takes in the complete lines appended past knownLength (by this or another process).
+    // Corrupt lines are reported and skipped.
+    private synchronized void catchUp() throws IOException {
+        long size = channel.size();
+        if (size <= knownLength) {
+            return;
+        }
+        knownLength = scanLines(knownLength, size, (offset, line) -> {
+            long sequence;
+            try {
+                sequence = ChangeEvent.parse(line).getSequence();
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping corrupt change log line at offset " + offset + ": " + e.getMessage());
+                return true;
+            }
+            if (offsets.isEmpty() || sequence % INDEX_INTERVAL == 1) {
+                offsets.put(sequence, offset);
+            }
+            lastSequence = sequence;
+            return true;
+        });
+    }
+
+    private interface LineVisitor {
+        // Returns false to stop the scan
+        boolean visit(long offset, String line);
+    }
+
+    // Calls visitor for each complete, non-empty line in [from, to) and returns the offset
+    // just past the last line visited.
+    private long scanLines(long from, long to, LineVisitor visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK);
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long position = from;
+        long lineStart = from;
+        while (position < to) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            byte[] bytes = buffer.array();
+            int segmentStart = 0;
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] != '\n') {
+                    continue;
+                }
+                line.write(bytes, segmentStart, i - segmentStart);
+                long next = position + i + 1;
+                boolean more = line.size() == 0 || visitor.visit(lineStart, line.toString(StandardCharsets.UTF_8));
+                line.reset();
+                lineStart = next;
+                segmentStart = i + 1;
+                if (!more) {
+                    return lineStart;
+                }
+            }
+            line.write(bytes, segmentStart, read - segmentStart);
+            position += read;
+        }
+        return lineStart;
+    }
+}
@@ -0,0 +1,139 @@
+package storage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-size pool of JDBC connections.
+ * Connections are opened lazily up to the pool size and handed out in turn; callers
+ * borrow one, use it, and give it back with release(). Borrowing blocks while every
+ * connection is in use.
+ */
+public class ConnectionPool {
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int size;
+    private final long borrowTimeoutMillis;
+
+    private final BlockingQueue<Connection> idle;
+    // Every connection this pool opened and has not closed, idle or borrowed
+    private final List<Connection> all = new ArrayList<>();
+    private boolean closed;
+
+
+    public ConnectionPool(String url, String user, String password, int size, long borrowTimeoutMillis) {
+        if (url == null || url.trim().isEmpty()) {
+            throw new IllegalArgumentException("JDBC URL cannot be empty.");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive.");
+        }
+        if (borrowTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Borrow timeout must be positive.");
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.size = size;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(size);
+    }
+
+    // Hands out an idle connection, opening a new one if the pool is not full yet.
+    public Connection borrow() throws SQLException {
+        Connection connection = idle.poll();
+        if (connection == null) {
+            connection = openIfBelowSize();
+        }
+        if (connection == null) {
+            try {
+                connection = idle.poll(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            }
+            if (connection == null) {
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+        }
+        // Replace connections the database has dropped since they were last used
+        if (!connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+            discard(connection);
+            return borrow();
+        }
+        return connection;
+    }
+
+    // Returns a borrowed connection. Connections left mid-transaction are rolled back first.
+    public void release(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            discard(connection);
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                discard(connection);
+                return;
+            }
+        }
+        idle.offer(connection);
+    }
+
+    private synchronized Connection openIfBelowSize() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool has been closed");
+        }
+        if (all.size() >= size) {
+            return null;
+        }
+        Connection connection = DriverManager.getConnection(url, user, password);
+        all.add(connection);
+        return connection;
+    }
+
+    private synchronized void discard(Connection connection) {
+        all.remove(connection);
+        closeQuietly(connection);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    // Closes idle connections now; borrowed ones are closed when they are released.
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            discard(connection);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing database connection: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package storage;
+
+/**
+ * Change counters of the stored users, rooms and bookings.
+ * Each counter goes up whenever its entity type is written, so comparing two readings
+ * tells which types changed in between without reading the data itself.
+ */
+public final class DataGenerations {
+
+    public final long users;
+    public final long rooms;
+    public final long bookings;
+
+
+    public DataGenerations(long users, long rooms, long bookings) {
+        this.users = users;
+        this.rooms = rooms;
+        this.bookings = bookings;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof DataGenerations)) {
+            return false;
+        }
+        DataGenerations that = (DataGenerations) other;
+        return users == that.users && rooms == that.rooms && bookings == that.bookings;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(users) * 31 * 31 + Long.hashCode(rooms) * 31 + Long.hashCode(bookings);
+    }
+
+    @Override
+    public String toString() {
+        return "DataGenerations[users=" + users + ", rooms=" + rooms + ", bookings=" + bookings + "]";
+    }
+}
@@ -0,0 +1,72 @@
+package storage;
+
+import accounts.model.*;
+import booking.model.Booking;
+import booking.state.*;
+
+/**
+ * Rebuilds domain objects from stored column values.
+ * Shared by the storage backends so every format restores users and booking states the same way.
+ */
+final class EntityRestorer {
+
+    private EntityRestorer() {
+    }
+
+    // Creates the account subclass for accountType and restores its stored fields.
+    // Returns null for an account type this code does not know.
+    static UserAccount restoreUser(int userId, String email, String password, AccountType accountType,
+            boolean verified, String status, String organizationId, String studentNumber, boolean isSuperAdmin) {
+        UserAccount user;
+        switch (accountType) {
+            case STUDENT:
+                user = new StudentAccount(email, password, organizationId, studentNumber);
+                break;
+            case FACULTY:
+                user = new FacultyAccount(email, password, organizationId, studentNumber);
+                break;
+            case STAFF:
+                user = new StaffAccount(email, password, organizationId, studentNumber);
+                break;
+            case PARTNER:
+                user = new PartnerAccount(email, password, organizationId, studentNumber);
+                break;
+            case ADMIN:
+                user = new AdminAccount(email, password, organizationId, studentNumber, isSuperAdmin);
+                break;
+            default:
+                return null;
+        }
+
+        // Set additional fields using reflection or direct access
+        user.userId = userId;
+        user.verified = verified;
+        user.status = status;
+        user.accountType = accountType;
+
+        return user;
+    }
+
+    // Restores the booking's state based on the saved status string.
+    static void restoreBookingState(Booking booking, String status) {
+        switch (status.toUpperCase()) {
+            case "CREATED":
+                // Already in created state by default
+                break;
+            case "CHECKEDIN":
+                booking.setState(new CheckedInState());
+                break;
+            case "COMPLETED":
+                booking.setState(new CompletedState());
+                break;
+            case "CANCELLED":
+                booking.setState(new CancelledState());
+                break;
+            case "EXPIRED":
+                booking.setState(new ExpiredState());
+                break;
+            default:
+                System.err.println("Unknown booking status: " + status);
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package storage;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import accounts.model.UserAccount;
 import booking.model.Booking;
 import manager.room.Room;
@@ -8,12 +13,17 @@ import manager.room.Room;
 /**
  * Interface for storage services - allows swapping between CSV, SQL, etc.
  * All storage implementations must implement these methods.
+ * Write methods return false when the write did not reach storage (updates also when the
+ * entity is not stored); the error itself is reported by the implementation.
  */
 public interface IStorageService {
     
     
      //Saves a user account to storage.
-    void saveUser(UserAccount user);
+    boolean saveUser(UserAccount user);
+    
+    // Saves many users in one batch; users with an existing ID are replaced.
+    boolean saveAllUsers(List<UserAccount> users);
     
     
      // Retrieves all users from storage.
@@ -31,9 +41,15 @@ public interface IStorageService {
     // Deletes a user from storage.
     boolean deleteUser(int userId);
     
+    // Deletes many users in one batch; IDs that are not stored are skipped.
+    boolean deleteAllUsers(Collection<Integer> userIds);
+    
     
     // Saves a room to storage.
-    void saveRoom(Room room);
+    boolean saveRoom(Room room);
+    
+    // Saves many rooms in one batch; rooms with an existing ID are replaced.
+    boolean saveAllRooms(List<Room> rooms);
     
     // Retrieves all rooms from storage.
     List<Room> loadAllRooms();
@@ -43,37 +59,110 @@ public interface IStorageService {
     Room findRoomById(int roomId);
     
     // Updates a room's information.
-    void updateRoom(Room room);
+    boolean updateRoom(Room room);
     
     
     // Deletes a room from storage.
     boolean deleteRoom(int roomId);
     
+    // Deletes many rooms in one batch; IDs that are not stored are skipped.
+    boolean deleteAllRooms(Collection<Integer> roomIds);
+    
     
     // Saves a booking to storage.
-    void saveBooking(Booking booking);
+    boolean saveBooking(Booking booking);
+    
+    // Saves many bookings in one batch; bookings with an existing ID are replaced.
+    boolean saveAllBookings(List<Booking> bookings);
     
     // Retrieves all bookings from storage.
     List<Booking> loadAllBookings();
     
+    // Streams all bookings without materializing them. Callers must close the stream.
+    default Stream<Booking> streamAllBookings() {
+        return loadAllBookings().stream();
+    }
+    
+    // Streams every booking ever stored, including ones moved out of the live data into an archive.
+    // Callers must close the stream.
+    default Stream<Booking> streamBookingHistory() {
+        return streamAllBookings();
+    }
+    
     // Finds a booking by its ID.
     Booking findBookingById(int bookingId);
     
     // Finds all bookings for a specific user.
     List<Booking> findBookingsByUserId(int userId);
     
+    // Finds all bookings of a specific room.
+    default List<Booking> findBookingsByRoomId(int roomId) {
+        try (Stream<Booking> bookings = streamAllBookings()) {
+            return bookings.filter(booking -> booking.getRoom().getRoomId() == roomId)
+                    .collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+    
+    // Finds a user's bookings that overlap [from, to).
+    default List<Booking> findBookingsByUserId(int userId, Date from, Date to) {
+        return findBookingsByUserId(userId).stream()
+                .filter(booking -> overlaps(booking, from, to))
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+    
+    // Finds a room's bookings that overlap [from, to).
+    default List<Booking> findBookingsByRoomId(int roomId, Date from, Date to) {
+        return findBookingsByRoomId(roomId).stream()
+                .filter(booking -> overlaps(booking, from, to))
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+    
+    // Finds bookings whose time span overlaps [from, to).
+    default List<Booking> findBookingsInRange(Date from, Date to) {
+        try (Stream<Booking> bookings = streamAllBookings()) {
+            return bookings.filter(booking -> overlaps(booking, from, to))
+                    .collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+    
+    // True if the booking starts before `to` and ends after `from`.
+    static boolean overlaps(Booking booking, Date from, Date to) {
+        return booking.getStartTime().before(to) && booking.getEndTime().after(from);
+    }
+    
     
     // Updates a booking's information.
-    void updateBooking(Booking booking);
+    boolean updateBooking(Booking booking);
     
     // Deletes a booking from storage.
     boolean deleteBooking(int bookingId);
     
+    // Deletes many bookings in one batch; IDs that are not stored are skipped.
+    boolean deleteAllBookings(Collection<Integer> bookingIds);
+    
    
      // Initializes storage (creates files/tables if needed).
     void initialize();
     
    
     // Clears all data from storage (useful for testing).
-    void clearAll();
+    boolean clearAll();
+    
+    // Epoch millis of the last change to stored data, used to tell whether a snapshot is stale.
+    // Implementations that cannot tell return Long.MAX_VALUE, so nothing is ever considered newer.
+    default long getLastModifiedTime() {
+        return Long.MAX_VALUE;
+    }
+    
+    // Change counters of users, rooms and bookings, raised by every write of any process sharing the storage.
+    // Null when the storage does not track them.
+    default DataGenerations getGenerations() {
+        return null;
+    }
+    
+    // `since` advanced over the generations produced only by writes made through this service,
+    // so a reader that made those writes itself need not reload them. Storages that cannot tell return `since`.
+    default DataGenerations skipOwnWrites(DataGenerations since) {
+        return since;
+    }
 }
\ No newline at end of file
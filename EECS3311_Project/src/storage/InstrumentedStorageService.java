@@ -0,0 +1,459 @@
+package storage;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import accounts.model.UserAccount;
+import booking.model.Booking;
+import manager.room.Room;
+
+/**
+ * Decorator that measures every call made to another storage service.
+ * For each operation it keeps the call and error counts and a latency histogram, and, when the
+ * storage counts its own I/O (see StorageIOCounters), the rows parsed and bytes read and written
+ * during the call. The metrics can be read through JMX or printed periodically as a text table.
+ *
+ * I/O is attributed by comparing the storage's counters before and after a call, so with
+ * concurrent callers an operation may be charged for I/O that overlapped it; the totals are exact.
+ */
+public class InstrumentedStorageService implements IStorageService, StorageMetricsMXBean {
+
+    public static final String DEFAULT_MBEAN_NAME = "storage:type=StorageMetrics";
+
+    private final IStorageService delegate;
+    private final StorageIOCounters counters;
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+    // Counter values and wall-clock time at the last reset
+    private volatile long[] baseline;
+    private volatile long sinceMillis;
+
+    private ObjectName registeredName;
+    private ScheduledExecutorService dumpScheduler;
+
+
+    // Uses the delegate's own I/O counters if it has any.
+    public InstrumentedStorageService(IStorageService delegate) {
+        this(delegate, delegate instanceof StorageIOCounters ? (StorageIOCounters) delegate : null);
+    }
+
+    // Takes the I/O counters separately, for when the counting storage sits under other decorators.
+    // counters may be null, in which case rows and bytes are reported as 0.
+    public InstrumentedStorageService(IStorageService delegate, StorageIOCounters counters) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate storage service cannot be null");
+        }
+        this.delegate = delegate;
+        this.counters = counters;
+        reset();
+    }
+
+    public IStorageService getDelegate() {
+        return delegate;
+    }
+
+    // ======= //
+    // METRICS //
+    // ======= //
+
+    @Override
+    public List<StorageOperationStats> getOperations() {
+        List<StorageOperationStats> stats = new ArrayList<>();
+        for (Map.Entry<String, OperationMetrics> entry : operations.entrySet()) {
+            stats.add(entry.getValue().toStats(entry.getKey()));
+        }
+        stats.sort(Comparator.comparingLong(StorageOperationStats::getTotalMicros).reversed());
+        return stats;
+    }
+
+    @Override
+    public long getTotalCalls() {
+        long calls = 0;
+        for (OperationMetrics metrics : operations.values()) {
+            calls += metrics.latency.getCount();
+        }
+        return calls;
+    }
+
+    @Override
+    public long getTotalBytesRead() {
+        return sinceReset(0);
+    }
+
+    @Override
+    public long getTotalBytesWritten() {
+        return sinceReset(1);
+    }
+
+    @Override
+    public long getTotalRowsParsed() {
+        return sinceReset(2);
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Storage metrics since %tF %<tT: calls=%d, rows parsed=%d, bytes read=%d, bytes written=%d%n",
+                new Date(sinceMillis), getTotalCalls(), getTotalRowsParsed(), getTotalBytesRead(), getTotalBytesWritten()));
+        sb.append(String.format("%-34s %8s %6s %10s %10s %10s %10s %12s %14s %14s%n", "operation", "calls", "errors",
+                "p50(us)", "p99(us)", "max(us)", "total(ms)", "rows parsed", "bytes read", "bytes written"));
+        for (StorageOperationStats stats : getOperations()) {
+            sb.append(stats).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        operations.clear();
+        baseline = readCounters();
+        sinceMillis = System.currentTimeMillis();
+    }
+
+    // Registers the metrics with the platform MBean server under DEFAULT_MBEAN_NAME.
+    public void registerMBean() {
+        registerMBean(DEFAULT_MBEAN_NAME);
+    }
+
+    // Registers the metrics under the given object name, e.g. "storage:type=StorageMetrics,name=bookings".
+    public synchronized void registerMBean(String name) {
+        unregisterMBean();
+        try {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            registeredName = objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Cannot register storage metrics as " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (registeredName == null) return;
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(registeredName);
+        } catch (JMException e) {
+            System.err.println("Error unregistering storage metrics: " + e.getMessage());
+        }
+        registeredName = null;
+    }
+
+    // Prints dump() to `out` every periodMillis.
+    public synchronized void enablePeriodicDump(long periodMillis, PrintStream out) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Dump period must be positive.");
+        }
+        if (out == null) {
+            throw new IllegalArgumentException("Output stream cannot be null");
+        }
+        disablePeriodicDump();
+
+        dumpScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "storage-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumpScheduler.scheduleAtFixedRate(() -> out.print(dump()), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void disablePeriodicDump() {
+        if (dumpScheduler == null) return;
+
+        dumpScheduler.shutdownNow();
+        dumpScheduler = null;
+    }
+
+    public synchronized boolean isPeriodicDumpEnabled() {
+        return dumpScheduler != null;
+    }
+
+    // ============== //
+    // INITIALIZATION //
+    // ============== //
+
+    @Override
+    public void initialize() {
+        run("initialize", delegate::initialize);
+    }
+
+    @Override
+    public boolean clearAll() {
+        return call("clearAll", delegate::clearAll);
+    }
+
+    @Override
+    public long getLastModifiedTime() {
+        return call("getLastModifiedTime", delegate::getLastModifiedTime);
+    }
+
+    @Override
+    public DataGenerations getGenerations() {
+        return call("getGenerations", delegate::getGenerations);
+    }
+
+    @Override
+    public DataGenerations skipOwnWrites(DataGenerations since) {
+        return delegate.skipOwnWrites(since);
+    }
+
+    // ===== //
+    // USERS //
+    // ===== //
+
+    @Override
+    public boolean saveUser(UserAccount user) {
+        return call("saveUser", () -> delegate.saveUser(user));
+    }
+
+    @Override
+    public boolean saveAllUsers(List<UserAccount> users) {
+        return call("saveAllUsers", () -> delegate.saveAllUsers(users));
+    }
+
+    @Override
+    public List<UserAccount> loadAllUsers() {
+        return call("loadAllUsers", delegate::loadAllUsers);
+    }
+
+    @Override
+    public UserAccount findUserByEmail(String email) {
+        return call("findUserByEmail", () -> delegate.findUserByEmail(email));
+    }
+
+    @Override
+    public UserAccount findUserById(int userId) {
+        return call("findUserById", () -> delegate.findUserById(userId));
+    }
+
+    @Override
+    public boolean deleteUser(int userId) {
+        return call("deleteUser", () -> delegate.deleteUser(userId));
+    }
+
+    @Override
+    public boolean deleteAllUsers(Collection<Integer> userIds) {
+        return call("deleteAllUsers", () -> delegate.deleteAllUsers(userIds));
+    }
+
+    // ===== //
+    // ROOMS //
+    // ===== //
+
+    @Override
+    public boolean saveRoom(Room room) {
+        return call("saveRoom", () -> delegate.saveRoom(room));
+    }
+
+    @Override
+    public boolean saveAllRooms(List<Room> rooms) {
+        return call("saveAllRooms", () -> delegate.saveAllRooms(rooms));
+    }
+
+    @Override
+    public List<Room> loadAllRooms() {
+        return call("loadAllRooms", delegate::loadAllRooms);
+    }
+
+    @Override
+    public Room findRoomById(int roomId) {
+        return call("findRoomById", () -> delegate.findRoomById(roomId));
+    }
+
+    @Override
+    public boolean updateRoom(Room room) {
+        return call("updateRoom", () -> delegate.updateRoom(room));
+    }
+
+    @Override
+    public boolean deleteRoom(int roomId) {
+        return call("deleteRoom", () -> delegate.deleteRoom(roomId));
+    }
+
+    @Override
+    public boolean deleteAllRooms(Collection<Integer> roomIds) {
+        return call("deleteAllRooms", () -> delegate.deleteAllRooms(roomIds));
+    }
+
+    // ======== //
+    // BOOKINGS //
+    // ======== //
+
+    @Override
+    public boolean saveBooking(Booking booking) {
+        return call("saveBooking", () -> delegate.saveBooking(booking));
+    }
+
+    @Override
+    public boolean saveAllBookings(List<Booking> bookings) {
+        return call("saveAllBookings", () -> delegate.saveAllBookings(bookings));
+    }
+
+    @Override
+    public List<Booking> loadAllBookings() {
+        return call("loadAllBookings", delegate::loadAllBookings);
+    }
+
+    // Measured from opening the stream to closing it, so the time includes the caller's processing.
+    // A stream that is never closed is never recorded.
+    @Override
+    public Stream<Booking> streamAllBookings() {
+        Sample sample = new Sample("streamAllBookings");
+        try {
+            return delegate.streamAllBookings().onClose(() -> sample.finish(false));
+        } catch (RuntimeException | Error e) {
+            sample.finish(true);
+            throw e;
+        }
+    }
+
+    // Timed like streamAllBookings.
+    @Override
+    public Stream<Booking> streamBookingHistory() {
+        Sample sample = new Sample("streamBookingHistory");
+        try {
+            return delegate.streamBookingHistory().onClose(() -> sample.finish(false));
+        } catch (RuntimeException | Error e) {
+            sample.finish(true);
+            throw e;
+        }
+    }
+
+    @Override
+    public Booking findBookingById(int bookingId) {
+        return call("findBookingById", () -> delegate.findBookingById(bookingId));
+    }
+
+    @Override
+    public List<Booking> findBookingsByUserId(int userId) {
+        return call("findBookingsByUserId", () -> delegate.findBookingsByUserId(userId));
+    }
+
+    @Override
+    public List<Booking> findBookingsByRoomId(int roomId) {
+        return call("findBookingsByRoomId", () -> delegate.findBookingsByRoomId(roomId));
+    }
+
+    @Override
+    public List<Booking> findBookingsByUserId(int userId, Date from, Date to) {
+        return call("findBookingsByUserId(range)", () -> delegate.findBookingsByUserId(userId, from, to));
+    }
+
+    @Override
+    public List<Booking> findBookingsByRoomId(int roomId, Date from, Date to) {
+        return call("findBookingsByRoomId(range)", () -> delegate.findBookingsByRoomId(roomId, from, to));
+    }
+
+    @Override
+    public List<Booking> findBookingsInRange(Date from, Date to) {
+        return call("findBookingsInRange", () -> delegate.findBookingsInRange(from, to));
+    }
+
+    @Override
+    public boolean updateBooking(Booking booking) {
+        return call("updateBooking", () -> delegate.updateBooking(booking));
+    }
+
+    @Override
+    public boolean deleteBooking(int bookingId) {
+        return call("deleteBooking", () -> delegate.deleteBooking(bookingId));
+    }
+
+    @Override
+    public boolean deleteAllBookings(Collection<Integer> bookingIds) {
+        return call("deleteAllBookings", () -> delegate.deleteAllBookings(bookingIds));
+    }
+
+    // ======= //
+    // HELPERS //
+    // ======= //
+
+    private <T> T call(String operation, Supplier<T> body) {
+        Sample sample = new Sample(operation);
+        boolean failed = true;
+        try {
+            T result = body.get();
+            failed = false;
+            return result;
+        } finally {
+            sample.finish(failed);
+        }
+    }
+
+    private void run(String operation, Runnable body) {
+        call(operation, () -> {
+            body.run();
+            return null;
+        });
+    }
+
+    // {bytes read, bytes written, rows parsed}, or zeros if the storage does not count them
+    private long[] readCounters() {
+        if (counters == null) {
+            return new long[3];
+        }
+        return new long[] {counters.getBytesRead(), counters.getBytesWritten(), counters.getRowsParsed()};
+    }
+
+    private long sinceReset(int counter) {
+        return readCounters()[counter] - baseline[counter];
+    }
+
+    // One measured call: the start time and counters, charged to the operation when it finishes
+    private class Sample {
+        private final String operation;
+        private final long[] countersBefore;
+        private final long startNanos;
+
+        Sample(String operation) {
+            this.operation = operation;
+            this.countersBefore = readCounters();
+            this.startNanos = System.nanoTime();
+        }
+
+        void finish(boolean failed) {
+            long elapsed = System.nanoTime() - startNanos;
+            long[] countersAfter = readCounters();
+            OperationMetrics metrics = operations.computeIfAbsent(operation, name -> new OperationMetrics());
+            metrics.latency.record(elapsed);
+            if (failed) {
+                metrics.errors.increment();
+            }
+            metrics.bytesRead.add(countersAfter[0] - countersBefore[0]);
+            metrics.bytesWritten.add(countersAfter[1] - countersBefore[1]);
+            metrics.rowsParsed.add(countersAfter[2] - countersBefore[2]);
+        }
+    }
+
+    private static class OperationMetrics {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rowsParsed = new LongAdder();
+        final LongAdder bytesRead = new LongAdder();
+        final LongAdder bytesWritten = new LongAdder();
+
+        StorageOperationStats toStats(String operation) {
+            return new StorageOperationStats(operation, latency.getCount(), errors.sum(),
+                    latency.getPercentileNanos(0.50) / 1000, latency.getPercentileNanos(0.99) / 1000,
+                    latency.getMaxNanos() / 1000, latency.getTotalNanos() / 1000,
+                    rowsParsed.sum(), bytesRead.sum(), bytesWritten.sum());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Parses a CSV file on a fork-join pool.
+ * The file is split into newline-aligned byte ranges, each range is parsed by its own
+ * parser, and the per-range results are concatenated in file order, so the output is
+ * the same as reading the file line by line.
+ */
+public class ParallelCSVLoader {
+
+    // Ranges smaller than this are not worth a task of their own
+    private static final long MIN_CHUNK_BYTES = 256 * 1024;
+    // Each range is read into one buffer, so cap it well below the array size limit
+    private static final long MAX_CHUNK_BYTES = 64 * 1024 * 1024;
+    private static final int SCAN_BUFFER_BYTES = 8 * 1024;
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+
+
+    public ParallelCSVLoader(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive.");
+        }
+        this.parallelism = parallelism;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    // Parses every non-empty line after the header. parserFactory is called once per range,
+    // so parsers may keep per-thread state; a parser returning null drops the line.
+    public <T> List<T> load(FileChannel file, Supplier<Function<String, T>> parserFactory) throws IOException {
+        List<long[]> ranges = splitIntoRanges(file);
+
+        List<Callable<List<T>>> tasks = new ArrayList<>();
+        for (long[] range : ranges) {
+            tasks.add(() -> parseRange(file, range[0], range[1], parserFactory.get()));
+        }
+
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<List<T>> chunk : pool.invokeAll(tasks)) {
+                results.addAll(chunk.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + file, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error parsing CSV chunk: " + e.getCause().getMessage(), e.getCause());
+        }
+        return results;
+    }
+
+    // Splits [end of header, end of file) into about `parallelism` ranges that each end just after a newline.
+    private List<long[]> splitIntoRanges(FileChannel file) throws IOException {
+        long size = file.size();
+        long dataStart = nextLineStart(file, 0);
+        List<long[]> ranges = new ArrayList<>();
+        if (dataStart >= size) {
+            return ranges;
+        }
+
+        long chunkSize = Math.min(MAX_CHUNK_BYTES,
+                Math.max(MIN_CHUNK_BYTES, (size - dataStart) / parallelism + 1));
+        long start = dataStart;
+        while (start < size) {
+            long end = start + chunkSize >= size ? size : nextLineStart(file, start + chunkSize);
+            ranges.add(new long[] {start, end});
+            start = end;
+        }
+        return ranges;
+    }
+
+    // Returns the offset just after the first '\n' at or after position (or the file size).
+    private long nextLineStart(FileChannel file, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_BYTES);
+        long offset = position;
+        while (true) {
+            buffer.clear();
+            int read = file.read(buffer, offset);
+            if (read <= 0) {
+                return file.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+    }
+
+    private <T> List<T> parseRange(FileChannel file, long start, long end, Function<String, T> parser)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        long position = start;
+        while (buffer.hasRemaining()) {
+            int read = file.read(buffer, position);
+            if (read < 0) break;
+            position += read;
+        }
+        // Same charset as FileReader; ranges end on '\n', which is never part of a multi-byte character
+        String text = new String(buffer.array(), 0, buffer.position(), Charset.defaultCharset());
+
+        List<T> results = new ArrayList<>();
+        int lineStart = 0;
+        while (lineStart < text.length()) {
+            int newline = text.indexOf('\n', lineStart);
+            int lineEnd = newline < 0 ? text.length() : newline;
+            int contentEnd = lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+
+            String line = text.substring(lineStart, contentEnd);
+            if (!line.trim().isEmpty()) {
+                T parsed = parser.apply(line);
+                if (parsed != null) {
+                    results.add(parsed);
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return results;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
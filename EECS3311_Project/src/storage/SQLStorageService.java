@@ -0,0 +1,637 @@
+package storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+import accounts.model.*;
+import booking.model.Booking;
+import manager.room.Room;
+import pricing.money.Money;
+
+/**
+ * Storage service backed by an embedded, file-based SQL database over plain JDBC.
+ * Defaults to an H2 database under ./data; any JDBC URL whose driver is on the classpath
+ * works (e.g. jdbc:sqlite:data/booking.db). Ids are primary keys and bookings are indexed
+ * by user, room and start time, so lookups by id and per-user queries do not scan tables.
+ * Timestamps are stored as epoch milliseconds.
+ */
+public class SQLStorageService implements IStorageService {
+
+    private static final String DEFAULT_URL = "jdbc:h2:./data/booking_db";
+    private static final String DEFAULT_USER = "sa";
+    private static final String DEFAULT_PASSWORD = "";
+    private static final int DEFAULT_POOL_SIZE = 4;
+    private static final long BORROW_TIMEOUT_MILLIS = 30_000;
+    // Rows sent to the database per executeBatch call
+    private static final int BATCH_SIZE = 500;
+
+    // Schema (portable between H2 and SQLite)
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS users ("
+            + "user_id INTEGER PRIMARY KEY, "
+            + "email VARCHAR(255), "
+            + "password VARCHAR(255), "
+            + "account_type VARCHAR(16) NOT NULL, "
+            + "verified BOOLEAN NOT NULL, "
+            + "status VARCHAR(32), "
+            + "organization_id VARCHAR(255), "
+            + "student_number VARCHAR(255), "
+            + "is_super_admin BOOLEAN NOT NULL)",
+        "CREATE INDEX IF NOT EXISTS idx_users_email ON users (email)",
+
+        "CREATE TABLE IF NOT EXISTS rooms ("
+            + "room_id INTEGER PRIMARY KEY, "
+            + "building VARCHAR(255), "
+            + "room_number VARCHAR(255), "
+            + "capacity INTEGER NOT NULL, "
+            + "status VARCHAR(32))",
+
+        "CREATE TABLE IF NOT EXISTS bookings ("
+            + "booking_id INTEGER PRIMARY KEY, "
+            + "user_id INTEGER NOT NULL, "
+            + "room_id INTEGER NOT NULL, "
+            + "start_time BIGINT NOT NULL, "
+            + "end_time BIGINT NOT NULL, "
+            + "status VARCHAR(16) NOT NULL, "
+            + "total_amount DOUBLE PRECISION NOT NULL, "
+            + "total_currency VARCHAR(8) NOT NULL, "
+            + "deposit_amount DOUBLE PRECISION NOT NULL, "
+            + "deposit_currency VARCHAR(8) NOT NULL)",
+        "CREATE INDEX IF NOT EXISTS idx_bookings_user ON bookings (user_id)",
+        "CREATE INDEX IF NOT EXISTS idx_bookings_room ON bookings (room_id)",
+        "CREATE INDEX IF NOT EXISTS idx_bookings_start ON bookings (start_time)"
+    };
+
+    // Column lists, in the order the bind/read helpers use them
+    private static final String USER_COLUMNS = "user_id, email, password, account_type, verified, status, "
+            + "organization_id, student_number, is_super_admin";
+    private static final String ROOM_COLUMNS = "room_id, building, room_number, capacity, status";
+    private static final String BOOKING_COLUMNS = "booking_id, user_id, room_id, start_time, end_time, status, "
+            + "total_amount, total_currency, deposit_amount, deposit_currency";
+
+    private static final String INSERT_USER = "INSERT INTO users (" + USER_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String DELETE_USER = "DELETE FROM users WHERE user_id = ?";
+    private static final String SELECT_USERS = "SELECT " + USER_COLUMNS + " FROM users";
+
+    private static final String INSERT_ROOM = "INSERT INTO rooms (" + ROOM_COLUMNS + ") VALUES (?, ?, ?, ?, ?)";
+    private static final String UPDATE_ROOM = "UPDATE rooms SET building = ?, room_number = ?, capacity = ?, status = ? "
+            + "WHERE room_id = ?";
+    private static final String DELETE_ROOM = "DELETE FROM rooms WHERE room_id = ?";
+    private static final String SELECT_ROOMS = "SELECT " + ROOM_COLUMNS + " FROM rooms";
+
+    private static final String INSERT_BOOKING = "INSERT INTO bookings (" + BOOKING_COLUMNS + ") "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_BOOKING = "UPDATE bookings SET user_id = ?, room_id = ?, start_time = ?, "
+            + "end_time = ?, status = ?, total_amount = ?, total_currency = ?, deposit_amount = ?, "
+            + "deposit_currency = ? WHERE booking_id = ?";
+    private static final String DELETE_BOOKING = "DELETE FROM bookings WHERE booking_id = ?";
+    private static final String SELECT_BOOKINGS = "SELECT " + BOOKING_COLUMNS + " FROM bookings";
+
+    // One unit of database work on a borrowed connection
+    @FunctionalInterface
+    private interface SQLWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    // Copies an entity's fields into a prepared statement's parameters
+    @FunctionalInterface
+    private interface Binder<T> {
+        void bind(PreparedStatement statement, T entity) throws SQLException;
+    }
+
+    private final String url;
+    private final ConnectionPool pool;
+
+
+    public SQLStorageService() {
+        this(DEFAULT_URL);
+    }
+
+    public SQLStorageService(String url) {
+        this(url, DEFAULT_USER, DEFAULT_PASSWORD, DEFAULT_POOL_SIZE);
+    }
+
+    public SQLStorageService(String url, String user, String password, int poolSize) {
+        this.url = url;
+        this.pool = new ConnectionPool(url, user, password, poolSize, BORROW_TIMEOUT_MILLIS);
+        initialize();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    // Closes the pooled connections.
+    public void shutdown() {
+        pool.close();
+    }
+
+    // ============== //
+    // INITIALIZATION //
+    // ============== //
+
+    // Creates the tables and indexes if they don't exist.
+    // Throws IllegalStateException if they cannot be created, since no write could succeed.
+    @Override
+    public void initialize() {
+        boolean created = execute("creating database schema", false, connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : SCHEMA) {
+                    statement.execute(sql);
+                }
+            }
+            return true;
+        });
+        if (!created) {
+            throw new IllegalStateException("Cannot create the database schema at " + url);
+        }
+    }
+
+    // =============== //
+    // USER OPERATIONS //
+    // =============== //
+
+    @Override
+    public boolean saveUser(UserAccount user) {
+        return saveAllUsers(Collections.singletonList(user));
+    }
+
+    @Override
+    public boolean saveAllUsers(List<UserAccount> users) {
+        if (users.isEmpty()) return true;
+        return inTransaction("saving users", connection ->
+                replaceRows(connection, DELETE_USER, INSERT_USER, users, UserAccount::getUserId, this::bindUser));
+    }
+
+    private void bindUser(PreparedStatement statement, UserAccount user) throws SQLException {
+        statement.setInt(1, user.getUserId());
+        statement.setString(2, user.getEmail());
+        statement.setString(3, user.password);
+        statement.setString(4, user.getAccountType().name());
+        statement.setBoolean(5, user.isVerified());
+        statement.setString(6, user.getStatus());
+        statement.setString(7, user.getOrganizationId());
+        statement.setString(8, user.getStudentNumber());
+        statement.setBoolean(9, user instanceof AdminAccount && ((AdminAccount) user).isSuperAdmin());
+    }
+
+    @Override
+    public List<UserAccount> loadAllUsers() {
+        return execute("loading users", new ArrayList<>(), this::selectAllUsers);
+    }
+
+    private List<UserAccount> selectAllUsers(Connection connection) throws SQLException {
+        List<UserAccount> users = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery(SELECT_USERS + " ORDER BY user_id")) {
+            while (rs.next()) {
+                UserAccount user = readUser(rs);
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+        }
+        return users;
+    }
+
+    private UserAccount readUser(ResultSet rs) throws SQLException {
+        try {
+            AccountType accountType = AccountType.valueOf(rs.getString("account_type"));
+            return EntityRestorer.restoreUser(rs.getInt("user_id"), rs.getString("email"),
+                    rs.getString("password"), accountType, rs.getBoolean("verified"), rs.getString("status"),
+                    rs.getString("organization_id"), rs.getString("student_number"), rs.getBoolean("is_super_admin"));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error reading user row: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public UserAccount findUserByEmail(String email) {
+        if (email == null) return null;
+        return execute("finding user by email", null, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    SELECT_USERS + " WHERE email = ? ORDER BY user_id")) {
+                statement.setString(1, email);
+                statement.setMaxRows(1);
+                try (ResultSet rs = statement.executeQuery()) {
+                    return rs.next() ? readUser(rs) : null;
+                }
+            }
+        });
+    }
+
+    @Override
+    public UserAccount findUserById(int userId) {
+        return execute("finding user by id", null, connection -> selectUser(connection, userId));
+    }
+
+    private UserAccount selectUser(Connection connection, int userId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_USERS + " WHERE user_id = ?")) {
+            statement.setInt(1, userId);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? readUser(rs) : null;
+            }
+        }
+    }
+
+    @Override
+    public boolean deleteUser(int userId) {
+        return deleteById("deleting user", DELETE_USER, userId);
+    }
+
+    @Override
+    public boolean deleteAllUsers(Collection<Integer> userIds) {
+        if (userIds.isEmpty()) return true;
+        return inTransaction("deleting users", connection -> deleteRows(connection, DELETE_USER, userIds));
+    }
+
+    // =============== //
+    // ROOM OPERATIONS //
+    // =============== //
+
+    @Override
+    public boolean saveRoom(Room room) {
+        return saveAllRooms(Collections.singletonList(room));
+    }
+
+    @Override
+    public boolean saveAllRooms(List<Room> rooms) {
+        if (rooms.isEmpty()) return true;
+        return inTransaction("saving rooms", connection ->
+                replaceRows(connection, DELETE_ROOM, INSERT_ROOM, rooms, Room::getRoomId, this::bindRoom));
+    }
+
+    private void bindRoom(PreparedStatement statement, Room room) throws SQLException {
+        statement.setInt(1, room.getRoomId());
+        statement.setString(2, room.getBuilding());
+        statement.setString(3, room.getRoomNumber());
+        statement.setInt(4, room.getCapacity());
+        statement.setString(5, room.getStatus());
+    }
+
+    @Override
+    public List<Room> loadAllRooms() {
+        return execute("loading rooms", new ArrayList<>(), this::selectAllRooms);
+    }
+
+    private List<Room> selectAllRooms(Connection connection) throws SQLException {
+        List<Room> rooms = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery(SELECT_ROOMS + " ORDER BY room_id")) {
+            while (rs.next()) {
+                rooms.add(readRoom(rs));
+            }
+        }
+        return rooms;
+    }
+
+    private Room readRoom(ResultSet rs) throws SQLException {
+        return new Room(rs.getInt("room_id"), rs.getString("building"), rs.getString("room_number"),
+                rs.getInt("capacity"), rs.getString("status"));
+    }
+
+    @Override
+    public Room findRoomById(int roomId) {
+        return execute("finding room by id", null, connection -> selectRoom(connection, roomId));
+    }
+
+    private Room selectRoom(Connection connection, int roomId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_ROOMS + " WHERE room_id = ?")) {
+            statement.setInt(1, roomId);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? readRoom(rs) : null;
+            }
+        }
+    }
+
+    // Only rooms that are already stored are updated.
+    @Override
+    public boolean updateRoom(Room room) {
+        return execute("updating room", false, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(UPDATE_ROOM)) {
+                statement.setString(1, room.getBuilding());
+                statement.setString(2, room.getRoomNumber());
+                statement.setInt(3, room.getCapacity());
+                statement.setString(4, room.getStatus());
+                statement.setInt(5, room.getRoomId());
+                return statement.executeUpdate() > 0;
+            }
+        });
+    }
+
+    @Override
+    public boolean deleteRoom(int roomId) {
+        return deleteById("deleting room", DELETE_ROOM, roomId);
+    }
+
+    @Override
+    public boolean deleteAllRooms(Collection<Integer> roomIds) {
+        if (roomIds.isEmpty()) return true;
+        return inTransaction("deleting rooms", connection -> deleteRows(connection, DELETE_ROOM, roomIds));
+    }
+
+    // ================== //
+    // BOOKING OPERATIONS //
+    // ================== //
+
+    @Override
+    public boolean saveBooking(Booking booking) {
+        return saveAllBookings(Collections.singletonList(booking));
+    }
+
+    @Override
+    public boolean saveAllBookings(List<Booking> bookings) {
+        if (bookings.isEmpty()) return true;
+        return inTransaction("saving bookings", connection ->
+                replaceRows(connection, DELETE_BOOKING, INSERT_BOOKING, bookings, Booking::getBookingId,
+                        (statement, booking) -> {
+                            statement.setInt(1, booking.getBookingId());
+                            bindBookingValues(statement, booking, 2);
+                        }));
+    }
+
+    // Binds every booking column except the id, starting at parameter index `first`.
+    private void bindBookingValues(PreparedStatement statement, Booking booking, int first) throws SQLException {
+        statement.setInt(first, booking.getUser().getUserId());
+        statement.setInt(first + 1, booking.getRoom().getRoomId());
+        statement.setLong(first + 2, booking.getStartTime().getTime());
+        statement.setLong(first + 3, booking.getEndTime().getTime());
+        statement.setString(first + 4, booking.getStatus());
+
+        // Handle nullable money fields
+        Money total = booking.getTotalAmount();
+        Money deposit = booking.getDepositAmount();
+        statement.setDouble(first + 5, total != null ? total.getAmount() : 0.0);
+        statement.setString(first + 6, total != null ? total.getCurrency() : "CAD");
+        statement.setDouble(first + 7, deposit != null ? deposit.getAmount() : 0.0);
+        statement.setString(first + 8, deposit != null ? deposit.getCurrency() : "CAD");
+    }
+
+    // Loads users and rooms once, then builds every booking from one table scan.
+    @Override
+    public List<Booking> loadAllBookings() {
+        return execute("loading bookings", new ArrayList<>(), connection -> {
+            Map<Integer, UserAccount> usersById = new HashMap<>();
+            for (UserAccount user : selectAllUsers(connection)) {
+                usersById.put(user.getUserId(), user);
+            }
+            Map<Integer, Room> roomsById = new HashMap<>();
+            for (Room room : selectAllRooms(connection)) {
+                roomsById.put(room.getRoomId(), room);
+            }
+            try (Statement statement = connection.createStatement();
+                    ResultSet rs = statement.executeQuery(SELECT_BOOKINGS + " ORDER BY booking_id")) {
+                return readBookings(connection, rs, usersById, roomsById);
+            }
+        });
+    }
+
+    @Override
+    public Booking findBookingById(int bookingId) {
+        return execute("finding booking by id", null, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_BOOKINGS + " WHERE booking_id = ?")) {
+                statement.setInt(1, bookingId);
+                try (ResultSet rs = statement.executeQuery()) {
+                    List<Booking> bookings = readBookings(connection, rs, new HashMap<>(), new HashMap<>());
+                    return bookings.isEmpty() ? null : bookings.get(0);
+                }
+            }
+        });
+    }
+
+    // Uses the user_id index; the user and each distinct room are looked up once by key.
+    @Override
+    public List<Booking> findBookingsByUserId(int userId) {
+        return execute("finding bookings by user", new ArrayList<>(), connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    SELECT_BOOKINGS + " WHERE user_id = ? ORDER BY booking_id")) {
+                statement.setInt(1, userId);
+                try (ResultSet rs = statement.executeQuery()) {
+                    return readBookings(connection, rs, new HashMap<>(), new HashMap<>());
+                }
+            }
+        });
+    }
+
+    @Override
+    public List<Booking> findBookingsByRoomId(int roomId) {
+        return execute("finding bookings by room", new ArrayList<>(), connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    SELECT_BOOKINGS + " WHERE room_id = ? ORDER BY booking_id")) {
+                statement.setInt(1, roomId);
+                try (ResultSet rs = statement.executeQuery()) {
+                    return readBookings(connection, rs, new HashMap<>(), new HashMap<>());
+                }
+            }
+        });
+    }
+
+    @Override
+    public List<Booking> findBookingsByUserId(int userId, Date from, Date to) {
+        return execute("finding bookings by user", new ArrayList<>(), connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    SELECT_BOOKINGS + " WHERE user_id = ? AND start_time < ? AND end_time > ? ORDER BY booking_id")) {
+                statement.setInt(1, userId);
+                statement.setLong(2, to.getTime());
+                statement.setLong(3, from.getTime());
+                try (ResultSet rs = statement.executeQuery()) {
+                    return readBookings(connection, rs, new HashMap<>(), new HashMap<>());
+                }
+            }
+        });
+    }
+
+    @Override
+    public List<Booking> findBookingsByRoomId(int roomId, Date from, Date to) {
+        return execute("finding bookings by room", new ArrayList<>(), connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    SELECT_BOOKINGS + " WHERE room_id = ? AND start_time < ? AND end_time > ? ORDER BY booking_id")) {
+                statement.setInt(1, roomId);
+                statement.setLong(2, to.getTime());
+                statement.setLong(3, from.getTime());
+                try (ResultSet rs = statement.executeQuery()) {
+                    return readBookings(connection, rs, new HashMap<>(), new HashMap<>());
+                }
+            }
+        });
+    }
+
+    // Uses the start_time index to bound the scan.
+    @Override
+    public List<Booking> findBookingsInRange(Date from, Date to) {
+        return execute("finding bookings in range", new ArrayList<>(), connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    SELECT_BOOKINGS + " WHERE start_time < ? AND end_time > ? ORDER BY booking_id")) {
+                statement.setLong(1, to.getTime());
+                statement.setLong(2, from.getTime());
+                try (ResultSet rs = statement.executeQuery()) {
+                    return readBookings(connection, rs, new HashMap<>(), new HashMap<>());
+                }
+            }
+        });
+    }
+
+    // Builds bookings from a result set. Users and rooms missing from the maps are fetched
+    // by primary key and remembered (including misses), so each is queried at most once.
+    private List<Booking> readBookings(Connection connection, ResultSet rs,
+            Map<Integer, UserAccount> usersById, Map<Integer, Room> roomsById) throws SQLException {
+        List<Booking> bookings = new ArrayList<>();
+        while (rs.next()) {
+            int bookingId = rs.getInt("booking_id");
+            int userId = rs.getInt("user_id");
+            int roomId = rs.getInt("room_id");
+
+            if (!usersById.containsKey(userId)) {
+                usersById.put(userId, selectUser(connection, userId));
+            }
+            if (!roomsById.containsKey(roomId)) {
+                roomsById.put(roomId, selectRoom(connection, roomId));
+            }
+            UserAccount user = usersById.get(userId);
+            Room room = roomsById.get(roomId);
+
+            if (user == null || room == null) {
+                System.err.println("Could not find user or room for booking: " + bookingId);
+                continue;
+            }
+
+            Money total = new Money(rs.getDouble("total_amount"), rs.getString("total_currency"));
+            Money deposit = new Money(rs.getDouble("deposit_amount"), rs.getString("deposit_currency"));
+            Booking booking = new Booking(bookingId, new Date(rs.getLong("start_time")),
+                    new Date(rs.getLong("end_time")), total, deposit, user, room);
+            EntityRestorer.restoreBookingState(booking, rs.getString("status"));
+            bookings.add(booking);
+        }
+        return bookings;
+    }
+
+    // Only bookings that are already stored are updated.
+    @Override
+    public boolean updateBooking(Booking booking) {
+        return execute("updating booking", false, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(UPDATE_BOOKING)) {
+                bindBookingValues(statement, booking, 1);
+                statement.setInt(10, booking.getBookingId());
+                return statement.executeUpdate() > 0;
+            }
+        });
+    }
+
+    @Override
+    public boolean deleteBooking(int bookingId) {
+        return deleteById("deleting booking", DELETE_BOOKING, bookingId);
+    }
+
+    @Override
+    public boolean deleteAllBookings(Collection<Integer> bookingIds) {
+        if (bookingIds.isEmpty()) return true;
+        return inTransaction("deleting bookings", connection -> deleteRows(connection, DELETE_BOOKING, bookingIds));
+    }
+
+    // ================== //
+    // UTILITY OPERATIONS //
+    // ================== //
+
+    @Override
+    public boolean clearAll() {
+        return inTransaction("clearing storage", connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DELETE FROM bookings");
+                statement.executeUpdate("DELETE FROM rooms");
+                statement.executeUpdate("DELETE FROM users");
+            }
+            System.out.println("All data cleared from storage.");
+            return null;
+        });
+    }
+
+    // Upserts rows as delete-then-insert batches; the caller supplies the transaction.
+    private <T> Void replaceRows(Connection connection, String deleteSql, String insertSql, List<T> entities,
+            ToIntFunction<T> idOf, Binder<T> binder) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement(deleteSql);
+                PreparedStatement insert = connection.prepareStatement(insertSql)) {
+            int pending = 0;
+            for (T entity : entities) {
+                delete.setInt(1, idOf.applyAsInt(entity));
+                delete.addBatch();
+                binder.bind(insert, entity);
+                insert.addBatch();
+                if (++pending == BATCH_SIZE) {
+                    delete.executeBatch();
+                    insert.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                delete.executeBatch();
+                insert.executeBatch();
+            }
+        }
+        return null;
+    }
+
+    // Deletes rows by id in batches; the caller supplies the transaction.
+    private Void deleteRows(Connection connection, String deleteSql, Collection<Integer> ids) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement(deleteSql)) {
+            int pending = 0;
+            for (int id : ids) {
+                delete.setInt(1, id);
+                delete.addBatch();
+                if (++pending == BATCH_SIZE) {
+                    delete.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                delete.executeBatch();
+            }
+        }
+        return null;
+    }
+
+    private boolean deleteById(String action, String sql, int id) {
+        return execute(action, false, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setInt(1, id);
+                return statement.executeUpdate() > 0;
+            }
+        });
+    }
+
+    // Runs work on a pooled connection; SQL errors are reported and the fallback is returned.
+    private <T> T execute(String action, T fallback, SQLWork<T> work) {
+        Connection connection = null;
+        try {
+            connection = pool.borrow();
+            return work.run(connection);
+        } catch (SQLException e) {
+            System.err.println("Error " + action + ": " + e.getMessage());
+            return fallback;
+        } finally {
+            pool.release(connection);
+        }
+    }
+
+    // Like execute, but commits all of the work at once or none of it. Returns false if it failed.
+    private boolean inTransaction(String action, SQLWork<Void> work) {
+        return execute(action, false, connection -> {
+            connection.setAutoCommit(false);
+            work.run(connection);
+            connection.commit();
+            connection.setAutoCommit(true);
+            return true;
+        });
+    }
+}
@@ -0,0 +1,161 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coordinates processes that share one data directory.
+ * A lock file holds one 8-byte slot per entity type. A writer takes an exclusive
+ * FileChannel lock on its slot for the duration of the write, and bumps the generation
+ * counter stored in the slot when it is done, so other processes can see what changed.
+ *
+ * FileChannel locks are held per JVM, so each entity type also has an in-JVM lock that a
+ * writer holds around the file lock: threads of this process writing the same type wait
+ * for each other, and only the first of them takes the file lock. Nested writes of the same
+ * type by one thread are counted by that lock and release the file lock once. Entity types
+ * are locked separately, so a writer blocked on another process's lock does not hold up
+ * writers of the other types.
+ *
+ * Each slot also remembers the latest run of consecutive generations this instance's own writes
+ * produced, so a reader can skip reloading changes that came from its own process.
+ */
+public class SharedDataDirectory {
+
+    private static final String LOCK_FILE = ".lock";
+    private static final int SLOT_SIZE = 8;
+
+    public enum Entity {
+        USERS, ROOMS, BOOKINGS
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    // In-JVM writer lock per entity type, held around its file lock
+    private final ReentrantLock[] writers = new ReentrantLock[Entity.values().length];
+    // Only read or set by the thread holding the matching writer lock
+    private final FileLock[] locks = new FileLock[Entity.values().length];
+    // First and last generation of the latest unbroken run of own writes per slot. Guarded by `this`.
+    private final long[] ownRunStart = new long[Entity.values().length];
+    private final long[] ownRunEnd = new long[Entity.values().length];
+
+
+    public SharedDataDirectory(String dataDirectory) throws IOException {
+        this.file = new File(dataDirectory, LOCK_FILE);
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new ReentrantLock();
+        }
+    }
+
+    // Blocks until no other thread or process is writing this entity type.
+    public void beginWrite(Entity entity) {
+        int slot = entity.ordinal();
+        ReentrantLock writer = writers[slot];
+        writer.lock();
+        if (writer.getHoldCount() > 1) {
+            return; // Nested write; the file lock is already held
+        }
+        try {
+            locks[slot] = channel.lock((long) slot * SLOT_SIZE, SLOT_SIZE, false);
+        } catch (IOException e) {
+            writer.unlock();
+            throw new UncheckedIOException("Cannot lock " + entity + " in " + file, e);
+        }
+    }
+
+    // Bumps the entity's generation and releases its lock. Also called when the write failed,
+    // since a spurious change only costs readers a reload. Must be called by the thread that began the write.
+    public void endWrite(Entity entity) {
+        int slot = entity.ordinal();
+        ReentrantLock writer = writers[slot];
+        if (!writer.isHeldByCurrentThread()) {
+            throw new IllegalStateException(entity + " is not being written by this thread");
+        }
+        try {
+            if (writer.getHoldCount() > 1) {
+                return;
+            }
+            try {
+                long generation = readGeneration(slot) + 1;
+                writeGeneration(slot, generation);
+                recordOwnWrite(slot, generation);
+            } catch (IOException e) {
+                System.err.println("Error updating " + entity + " generation: " + e.getMessage());
+            } finally {
+                try {
+                    locks[slot].release();
+                } catch (IOException e) {
+                    System.err.println("Error releasing " + entity + " lock: " + e.getMessage());
+                }
+                locks[slot] = null;
+            }
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    // Reads the current counters. Each slot is one aligned 8-byte read, so no lock is needed.
+    public DataGenerations getGenerations() {
+        try {
+            return new DataGenerations(readGeneration(Entity.USERS.ordinal()),
+                    readGeneration(Entity.ROOMS.ordinal()), readGeneration(Entity.BOOKINGS.ordinal()));
+        } catch (IOException e) {
+            System.err.println("Error reading data generations: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Advances each counter of `since` over the generations that followed it and were all produced
+    // by this instance's writes. A counter that comes back unchanged moved (if at all) through
+    // another process's write.
+    public synchronized DataGenerations skipOwnWrites(DataGenerations since) {
+        return new DataGenerations(skipOwnWrites(Entity.USERS.ordinal(), since.users),
+                skipOwnWrites(Entity.ROOMS.ordinal(), since.rooms),
+                skipOwnWrites(Entity.BOOKINGS.ordinal(), since.bookings));
+    }
+
+    private long skipOwnWrites(int slot, long since) {
+        return since >= ownRunStart[slot] - 1 && since < ownRunEnd[slot] ? ownRunEnd[slot] : since;
+    }
+
+    // Called with the slot's file lock held, so no other process wrote in between when the run continues.
+    private synchronized void recordOwnWrite(int slot, long generation) {
+        if (generation != ownRunEnd[slot] + 1) {
+            ownRunStart[slot] = generation; // Someone else wrote since our last write
+        }
+        ownRunEnd[slot] = generation;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long readGeneration(int slot) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+        long position = (long) slot * SLOT_SIZE;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return 0; // Never written
+            }
+        }
+        buffer.flip();
+        return buffer.getLong();
+    }
+
+    private void writeGeneration(int slot, long generation) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+        buffer.putLong(generation).flip();
+        long position = (long) slot * SLOT_SIZE;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
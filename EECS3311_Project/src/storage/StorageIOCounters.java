@@ -0,0 +1,18 @@
+package storage;
+
+/**
+ * Running totals of the file I/O a storage service has done.
+ * The values only go up; callers measure an operation by taking the difference
+ * before and after it.
+ */
+public interface StorageIOCounters {
+
+    // Bytes read from the data files.
+    long getBytesRead();
+
+    // Bytes written to the data files.
+    long getBytesWritten();
+
+    // Stored rows turned into objects.
+    long getRowsParsed();
+}
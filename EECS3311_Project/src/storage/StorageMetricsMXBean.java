@@ -0,0 +1,26 @@
+package storage;
+
+import java.util.List;
+
+/**
+ * JMX view of the metrics collected by InstrumentedStorageService.
+ */
+public interface StorageMetricsMXBean {
+
+    // Per-operation metrics, busiest (by total time) first.
+    List<StorageOperationStats> getOperations();
+
+    long getTotalCalls();
+
+    long getTotalBytesRead();
+
+    long getTotalBytesWritten();
+
+    long getTotalRowsParsed();
+
+    // The metrics as a text table.
+    String dump();
+
+    // Starts counting again from zero.
+    void reset();
+}
@@ -0,0 +1,81 @@
+package storage;
+
+/**
+ * Snapshot of the metrics of one storage operation, as reported by InstrumentedStorageService.
+ * Times are in microseconds. Bytes and rows are only known when the storage counts its I/O.
+ */
+public final class StorageOperationStats {
+
+    private final String operation;
+    private final long calls;
+    private final long errors;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+    private final long totalMicros;
+    private final long rowsParsed;
+    private final long bytesRead;
+    private final long bytesWritten;
+
+
+    public StorageOperationStats(String operation, long calls, long errors, long p50Micros, long p99Micros,
+            long maxMicros, long totalMicros, long rowsParsed, long bytesRead, long bytesWritten) {
+        this.operation = operation;
+        this.calls = calls;
+        this.errors = errors;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+        this.totalMicros = totalMicros;
+        this.rowsParsed = rowsParsed;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    // Calls that ended with an exception
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public long getTotalMicros() {
+        return totalMicros;
+    }
+
+    public long getRowsParsed() {
+        return rowsParsed;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-34s %8d %6d %10d %10d %10d %10d %12d %14d %14d", operation, calls, errors,
+                p50Micros, p99Micros, maxMicros, totalMicros / 1000, rowsParsed, bytesRead, bytesWritten);
+    }
+}
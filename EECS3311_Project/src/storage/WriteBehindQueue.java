@@ -0,0 +1,240 @@
+package storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import accounts.model.UserAccount;
+import booking.model.Booking;
+import manager.room.Room;
+
+/**
+ * Bounded write-behind queue in front of a storage service.
+ * Callers enqueue saves and get a future that completes once the write has reached storage.
+ * A single persister thread drains the queue in arrival order; repeated writes to the same
+ * entity are coalesced into one, and each drained batch is group-committed through the
+ * storage service's batch save methods. When the queue is full, callers block.
+ * If a batch does not reach storage, the futures of every write in it fail.
+ */
+public class WriteBehindQueue {
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+    private enum EntityType { USER, ROOM, BOOKING }
+
+    // One queued entity; later writes to the same entity replace it and add their futures
+    private static class PendingWrite {
+        final EntityType type;
+        Object entity;
+        final List<CompletableFuture<Void>> waiters = new ArrayList<>();
+
+        PendingWrite(EntityType type, Object entity) {
+            this.type = type;
+            this.entity = entity;
+        }
+    }
+
+    private final IStorageService storage;
+    private final int capacity;
+    private final int maxBatchSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // Keyed by "TYPE:id" so writes to the same entity coalesce; iteration order = arrival order
+    private final LinkedHashMap<String, PendingWrite> pending = new LinkedHashMap<>();
+    // Futures of the batch currently being written
+    private List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+    private boolean running = true;
+    private final Thread persister;
+
+
+    public WriteBehindQueue(IStorageService storage, int capacity) {
+        this(storage, capacity, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public WriteBehindQueue(IStorageService storage, int capacity, int maxBatchSize) {
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage service cannot be null.");
+        }
+        if (capacity <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Capacity and batch size must be positive.");
+        }
+        this.storage = storage;
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.persister = new Thread(this::runPersister, "write-behind-persister");
+        this.persister.setDaemon(true);
+        this.persister.start();
+    }
+
+    // ========== //
+    // SUBMITTING //
+    // ========== //
+
+    public CompletableFuture<Void> submitUser(UserAccount user) {
+        return submit(EntityType.USER, user.getUserId(), user);
+    }
+
+    public CompletableFuture<Void> submitRoom(Room room) {
+        return submit(EntityType.ROOM, room.getRoomId(), room);
+    }
+
+    public CompletableFuture<Void> submitBooking(Booking booking) {
+        return submit(EntityType.BOOKING, booking.getBookingId(), booking);
+    }
+
+    private CompletableFuture<Void> submit(EntityType type, int id, Object entity) {
+        String key = type + ":" + id;
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            // Backpressure: wait for room unless this write coalesces into an existing entry
+            while (running && pending.size() >= capacity && !pending.containsKey(key)) {
+                notFull.awaitUninterruptibly();
+            }
+            if (!running) {
+                throw new IllegalStateException("Write-behind queue has been shut down.");
+            }
+            PendingWrite write = pending.get(key);
+            if (write == null) {
+                write = new PendingWrite(type, entity);
+                pending.put(key, write);
+            } else {
+                write.entity = entity;
+            }
+            write.waiters.add(future);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    // Completes once every write submitted before this call has reached storage.
+    public CompletableFuture<Void> flush() {
+        List<CompletableFuture<Void>> waitFor = new ArrayList<>();
+        lock.lock();
+        try {
+            waitFor.addAll(inFlight);
+            for (PendingWrite write : pending.values()) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                write.waiters.add(future);
+                waitFor.add(future);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return CompletableFuture.allOf(waitFor.toArray(new CompletableFuture<?>[0]));
+    }
+
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // =========== //
+    // PERSISTENCE //
+    // =========== //
+
+    private void runPersister() {
+        while (true) {
+            List<PendingWrite> batch = new ArrayList<>();
+            lock.lock();
+            try {
+                while (running && pending.isEmpty()) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return; // Shut down and fully drained
+                }
+                Iterator<PendingWrite> it = pending.values().iterator();
+                while (it.hasNext() && batch.size() < maxBatchSize) {
+                    PendingWrite write = it.next();
+                    it.remove();
+                    batch.add(write);
+                }
+                inFlight = new ArrayList<>();
+                for (PendingWrite write : batch) {
+                    inFlight.addAll(write.waiters);
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            commit(batch);
+        }
+    }
+
+    // Writes one batch: users, then rooms, then bookings (which refer to both).
+    private void commit(List<PendingWrite> batch) {
+        List<UserAccount> users = new ArrayList<>();
+        List<Room> rooms = new ArrayList<>();
+        List<Booking> bookings = new ArrayList<>();
+        for (PendingWrite write : batch) {
+            switch (write.type) {
+                case USER:
+                    users.add((UserAccount) write.entity);
+                    break;
+                case ROOM:
+                    rooms.add((Room) write.entity);
+                    break;
+                case BOOKING:
+                    bookings.add((Booking) write.entity);
+                    break;
+            }
+        }
+
+        Throwable failure = null;
+        try {
+            boolean stored = (users.isEmpty() || storage.saveAllUsers(users))
+                    && (rooms.isEmpty() || storage.saveAllRooms(rooms))
+                    && (bookings.isEmpty() || storage.saveAllBookings(bookings));
+            if (!stored) {
+                failure = new IllegalStateException("Write-behind batch of " + batch.size()
+                        + " writes did not reach storage");
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        if (failure != null) {
+            System.err.println("Write-behind batch failed: " + failure.getMessage());
+        }
+
+        for (PendingWrite write : batch) {
+            for (CompletableFuture<Void> waiter : write.waiters) {
+                if (failure == null) {
+                    waiter.complete(null);
+                } else {
+                    waiter.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+
+    // Stops accepting writes, persists everything still queued, and waits for the persister to exit.
+    public void shutdown() {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            persister.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}